@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmark: A small, dependency-free harness in the manner of JMH, which runs the benchmarks of ServerBenchmarks.
+ * <p>
+ * Each benchmark runs in the calling thread for a number of timed warmup iterations and then of timed measurement iterations.
+ * Every iteration calls the benchmark in batches until its time is up and yields the average time per operation,
+ * so that the score is the mean of the iterations and its error the half-width of the 99.9% confidence interval, as JMH reports them.
+ * The bytes the thread allocated per operation are measured as well (JMH's gc.alloc.rate.norm). Results whose operations return a value
+ * are consumed, so that the JIT cannot throw the work away.
+ * <p>
+ * The results are written in the JSON format of JMH (-rf json), so that they can be tracked over time with the same tools.
+ * Every suite takes the same options, see fromArgs().
+ * Unlike JMH, the benchmarks are not forked into fresh JVMs, so their order may influence them; filter them to run one at a time.
+ */
+public class BenchmarkHarness {
+    private static final double Z_999 = 3.291; // two-sided 99.9% quantile of the normal distribution
+    private static final int DEFAULT_WARMUP_ITERATIONS = 3;
+    private static final int DEFAULT_MEASUREMENT_ITERATIONS = 5;
+    private static final long DEFAULT_ITERATION_MILLIS = 1000;
+
+    /**
+     * One operation of a benchmark.
+     */
+    public interface Operation {
+        /**
+         * Do the measured work once.
+         *
+         * @return something derived from the work, which is consumed.
+         * @throws Exception is thrown in case of a failed operation, which aborts the benchmark.
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * The outcome of one benchmark.
+     */
+    private static final class Result {
+        private String name;
+        private double[] ns_per_op;
+        private double bytes_per_op;
+    }
+
+    private int warmup_iterations;
+    private int measurement_iterations;
+    private long iteration_nanos;
+    private Pattern filter;
+    private Path output;
+    private List<Result> results = new ArrayList<>();
+    private long sink;
+
+    /**
+     * Initialise variables.
+     *
+     * @param warmup_iterations      the number of iterations before measuring.
+     * @param measurement_iterations the number of measured iterations.
+     * @param iteration_millis       how long each iteration runs.
+     * @param filter                 a regular expression which the names of the benchmarks to run contain, or null for all.
+     */
+    public BenchmarkHarness(int warmup_iterations, int measurement_iterations, long iteration_millis, String filter) {
+        this.warmup_iterations = warmup_iterations;
+        this.measurement_iterations = measurement_iterations;
+        this.iteration_nanos = iteration_millis * 1_000_000L;
+        this.filter = filter == null ? null : Pattern.compile(filter);
+    }
+
+    /**
+     * Create a harness from the options of a suite: [-o output] [-wi warmup_iterations] [-i iterations] [-t iteration_millis] [filter]
+     * (defaults: the given output, 3, 5, 1000, every benchmark).
+     *
+     * @param args           the options and the filter.
+     * @param default_output where the results go unless -o says otherwise.
+     * @return the harness, see getOutput() for where its results go.
+     */
+    public static BenchmarkHarness fromArgs(String[] args, String default_output) {
+        String output = default_output;
+        int warmup_iterations = DEFAULT_WARMUP_ITERATIONS;
+        int measurement_iterations = DEFAULT_MEASUREMENT_ITERATIONS;
+        long iteration_millis = DEFAULT_ITERATION_MILLIS;
+        String filter = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-o":
+                    output = args[++i];
+                    break;
+                case "-wi":
+                    warmup_iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-i":
+                    measurement_iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-t":
+                    iteration_millis = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    filter = args[i];
+            }
+        }
+
+        BenchmarkHarness harness = new BenchmarkHarness(warmup_iterations, measurement_iterations, iteration_millis, filter);
+        harness.output = Paths.get(output);
+        return harness;
+    }
+
+    /**
+     * Get where the results go.
+     *
+     * @return the output given to fromArgs(), or null for a harness created otherwise.
+     */
+    public Path getOutput() {
+        return output;
+    }
+
+    /**
+     * Run a benchmark unless the filter leaves it out, and print its score.
+     *
+     * @param name      the name of the benchmark, e.g. ServerBenchmarks.requestCodeConvert.
+     * @param operation the measured work.
+     * @throws Exception is thrown in case of a failed operation.
+     */
+    public void run(String name, Operation operation) throws Exception {
+        if (filter != null && !filter.matcher(name).find()) {
+            return;
+        }
+
+        for (int i = 0; i < warmup_iterations; i++) {
+            iterate(operation);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Result result = new Result();
+        long ops = 0;
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+
+        result.name = name;
+        result.ns_per_op = new double[measurement_iterations];
+        for (int i = 0; i < measurement_iterations; i++) {
+            long[] iteration = iterate(operation);
+            result.ns_per_op[i] = (double) iteration[1] / iteration[0];
+            ops += iteration[0];
+        }
+        result.bytes_per_op = (double) (threads.getCurrentThreadAllocatedBytes() - allocated) / ops;
+        results.add(result);
+
+        System.out.printf(Locale.ROOT, "%-50s %14.3f \u00b1 %10.3f ns/op %12.1f B/op%n", name, mean(result.ns_per_op), error(result.ns_per_op),
+                result.bytes_per_op);
+    }
+
+    /**
+     * Call the operation in doubling batches until the iteration time is up.
+     *
+     * @param operation the measured work.
+     * @return the number of operations and the nanoseconds they took.
+     * @throws Exception is thrown in case of a failed operation.
+     */
+    private long[] iterate(Operation operation) throws Exception {
+        long ops = 0;
+        long batch = 1;
+        long start = System.nanoTime();
+        long elapsed;
+
+        do {
+            for (long i = 0; i < batch; i++) {
+                sink += operation.run();
+            }
+            ops += batch;
+            batch = Math.min(batch * 2, 1 << 16);
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iteration_nanos);
+
+        return new long[]{ops, elapsed};
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double v : values) {
+            sum += v;
+        }
+        return sum / values.length;
+    }
+
+    private static double error(double[] values) {
+        if (values.length < 2) {
+            return Double.NaN;
+        }
+
+        double mean = mean(values);
+        double squares = 0;
+        for (double v : values) {
+            squares += (v - mean) * (v - mean);
+        }
+        return Z_999 * Math.sqrt(squares / (values.length - 1)) / Math.sqrt(values.length);
+    }
+
+    /**
+     * Write the results of every benchmark run so far as a JSON array in the format of JMH.
+     *
+     * @param file where the results go.
+     * @throws IOException is thrown in case the file cannot be written.
+     */
+    public void writeJson(Path file) throws IOException {
+        try (PrintWriter json = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            json.println("[");
+            for (int r = 0; r < results.size(); r++) {
+                Result result = results.get(r);
+                double mean = mean(result.ns_per_op);
+                double error = error(result.ns_per_op);
+
+                json.println("    {");
+                json.println("        \"jmhVersion\" : \"n/a (BenchmarkHarness)\",");
+                json.println("        \"benchmark\" : \"" + result.name + "\",");
+                json.println("        \"mode\" : \"avgt\",");
+                json.println("        \"threads\" : 1,");
+                json.println("        \"forks\" : 0,");
+                json.println("        \"jdkVersion\" : \"" + System.getProperty("java.version") + "\",");
+                json.println("        \"warmupIterations\" : " + warmup_iterations + ",");
+                json.println("        \"warmupTime\" : \"" + iteration_nanos / 1_000_000 + " ms\",");
+                json.println("        \"measurementIterations\" : " + measurement_iterations + ",");
+                json.println("        \"measurementTime\" : \"" + iteration_nanos / 1_000_000 + " ms\",");
+                json.println("        \"primaryMetric\" : {");
+                json.println("            \"score\" : " + number(mean) + ",");
+                json.println("            \"scoreError\" : " + number(error) + ",");
+                json.println("            \"scoreConfidence\" : [" + number(mean - error) + ", " + number(mean + error) + "],");
+                json.println("            \"scoreUnit\" : \"ns/op\",");
+                StringBuilder raw = new StringBuilder();
+                for (double v : result.ns_per_op) {
+                    raw.append(raw.length() == 0 ? "" : ", ").append(number(v));
+                }
+                json.println("            \"rawData\" : [[" + raw + "]]");
+                json.println("        },");
+                json.println("        \"secondaryMetrics\" : {");
+                json.println("            \"\u00b7gc.alloc.rate.norm\" : {");
+                json.println("                \"score\" : " + number(result.bytes_per_op) + ",");
+                json.println("                \"scoreUnit\" : \"B/op\"");
+                json.println("            }");
+                json.println("        }");
+                json.println(r + 1 < results.size() ? "    }," : "    }");
+            }
+            json.println("]");
+        }
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "\"NaN\"" : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Get what the operations have returned, so that the JIT has to keep them.
+     *
+     * @return the sum of the results.
+     */
+    public long getSink() {
+        return sink;
+    }
+}
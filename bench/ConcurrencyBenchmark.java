@@ -0,0 +1,193 @@
+import constants.DispatchMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Benchmark: Compare the platform-thread and the virtual-thread dispatch modes side by side under many concurrent slow clients.
+ * <p>
+ * Every run opens the given number of connections at once, keeps them idle for a while (so that every one of them occupies a handler
+ * blocked in readLine()), then sends the request and reads the whole response. Each mode and level runs in a fresh JVM so that
+ * the thread and heap figures of one run do not leak into the next.
+ * <p>
+ * Usage: java -cp out ConcurrencyBenchmark <document_root> [levels...] (default levels: 1000 10000 50000).
+ * Large levels need a high enough open-file limit (ulimit -n) for both ends of every connection.
+ */
+public class ConcurrencyBenchmark {
+    private static final String CHILD_FLAG = "--child";
+    private static final String RESOURCE = "/index.html";
+    private static final int[] DEFAULT_LEVELS = {1000, 10000, 50000};
+    private static final long IDLE_MILLIS = 2000;
+    private static final long STARTUP_MILLIS = 1000;
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /**
+     * Run every level in both modes (or a single run when invoked as a child JVM) and print one row per run.
+     *
+     * @param args the document root followed by the numbers of concurrent connections.
+     * @throws Exception is thrown in case of a failed run.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals(CHILD_FLAG)) {
+            runChild(args[1], DispatchMode.convert(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+
+        int[] levels = DEFAULT_LEVELS;
+        if (args.length > 1) {
+            levels = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                levels[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println("mode,connections,completed,failed,elapsed_ms,peak_threads,heap_used_mb");
+        for (int level : levels) {
+            for (DispatchMode mode : new DispatchMode[]{DispatchMode.THREAD, DispatchMode.VIRTUAL}) {
+                runInChildJvm(args[0], mode, level);
+            }
+        }
+    }
+
+    /**
+     * Start a fresh JVM on the same class path for a single mode and level and echo its result row.
+     *
+     * @param document_root where the server serves documents from.
+     * @param mode          the dispatch mode under test.
+     * @param level         the number of concurrent connections.
+     * @throws Exception is thrown in case the child JVM could not be started.
+     */
+    private static void runInChildJvm(String document_root, DispatchMode mode, int level) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ConcurrencyBenchmark.class.getName(), CHILD_FLAG, document_root, mode.toString(), String.valueOf(level))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        child.waitFor();
+    }
+
+    /**
+     * Start the server in this JVM, drive it with the given number of concurrent connections and print the result row.
+     *
+     * @param document_root where the server serves documents from.
+     * @param mode          the dispatch mode under test.
+     * @param level         the number of concurrent connections.
+     * @throws Exception is thrown in case the client side fails.
+     */
+    private static void runChild(String document_root, DispatchMode mode, int level) throws Exception {
+        int port = findFreePort();
+        ServerConfig config = new ServerConfig(document_root, port,
+                File.createTempFile("bench", ".log").getPath(), Integer.MAX_VALUE);
+        config.setDispatchMode(mode);
+
+        Thread server = new Thread(() -> new WebServer(config).serve());
+        server.setDaemon(true);
+        server.start();
+        Thread.sleep(STARTUP_MILLIS);
+
+        long start = System.nanoTime();
+        int[] outcome = driveClients(port, level);
+        long elapsed_ms = (System.nanoTime() - start) / 1_000_000;
+
+        Runtime runtime = Runtime.getRuntime();
+        long heap_used_mb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        int peak_threads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+
+        System.out.println(mode + "," + level + "," + outcome[0] + "," + outcome[1] + ","
+                + elapsed_ms + "," + peak_threads + "," + heap_used_mb);
+        System.exit(0);
+    }
+
+    /**
+     * Open every connection, keep them idle so they pile up on the server, then send one request on each and read the responses to the end.
+     * A single selector drives all the clients so that the client side does not need a thread per connection.
+     *
+     * @param port  where the server is listening.
+     * @param level the number of concurrent connections.
+     * @return the number of completed and failed connections.
+     * @throws IOException is thrown in case the selector fails.
+     */
+    private static int[] driveClients(int port, int level) throws IOException {
+        List<SocketChannel> clients = new ArrayList<>(level);
+        int failed = 0;
+
+        for (int i = 0; i < level; i++) {
+            try {
+                clients.add(SocketChannel.open(new InetSocketAddress("localhost", port)));
+            } catch (IOException e) {
+                failed++;
+            }
+        }
+
+        try {
+            Thread.sleep(IDLE_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        byte[] request = ("GET " + RESOURCE + " HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        Selector selector = Selector.open();
+        for (SocketChannel client : clients) {
+            try {
+                client.write(ByteBuffer.wrap(request));
+                client.configureBlocking(false);
+                client.register(selector, SelectionKey.OP_READ);
+            } catch (IOException e) {
+                failed++;
+                client.close();
+            }
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        int completed = 0;
+        while (completed + failed < level && !selector.keys().isEmpty()) {
+            selector.select();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                SocketChannel client = (SocketChannel) key.channel();
+                buf.clear();
+                try {
+                    if (client.read(buf) < 0) {
+                        completed++;
+                        key.cancel();
+                        client.close();
+                    }
+                } catch (IOException e) {
+                    failed++;
+                    key.cancel();
+                    client.close();
+                }
+            }
+        }
+        selector.close();
+
+        return new int[]{completed, failed};
+    }
+
+    /**
+     * Ask the operating system for a port which nothing is listening on.
+     *
+     * @return a free port.
+     * @throws IOException is thrown in case no port can be bound.
+     */
+    static int findFreePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+}
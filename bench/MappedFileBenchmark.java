@@ -0,0 +1,161 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+/**
+ * Benchmark: Compare serving large files from shared mappings (see MappedFileCache) with reading them on every request,
+ * for the blocking engine (a Responder with the socket's channel) and the event-loop engine (a Responder rendering into a GatheringOutputStream).
+ * <p>
+ * Each iteration sends a GET response for a 4 MB, 32 MB or 128 MB file over a loopback connection to a sink thread which reads and discards it:
+ * <ul>
+ * <li>transferTo: blocking engine, file opened and sent with transferTo on every request;</li>
+ * <li>mapped-write: blocking engine, the shared mapping written to the channel;</li>
+ * <li>read-copy: event-loop engine, file read into the pooled response buffers on every request;</li>
+ * <li>mapped-gather: event-loop engine, the shared mapping put into the response buffer and sent with gathering writes.</li>
+ * </ul>
+ * Besides the throughput, each row shows the heap bytes the sending thread allocated per request, how long the first request took
+ * (which maps the file and faults its pages in from the page cache), and the bytes of the JVM's "mapped" buffer pool afterwards,
+ * i.e. the page-cache memory the mappings keep addressable outside the heap.
+ * <p>
+ * Usage: java -cp out MappedFileBenchmark [iterations] (default: 20).
+ */
+public class MappedFileBenchmark {
+    private static final int[] FILE_SIZES = {4 * 1024 * 1024, 32 * 1024 * 1024, 128 * 1024 * 1024};
+    private static final String[] PATHS = {"transferTo", "mapped-write", "read-copy", "mapped-gather"};
+    private static final int DEFAULT_ITERATIONS = 20;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int SINK_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Create the test files in a temporary document root and print one row per file size and path.
+     *
+     * @param args optionally the number of measured iterations.
+     * @throws Exception is thrown in case of a failed run.
+     */
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+
+        File document_root = Files.createTempDirectory("mapped").toFile();
+        ServerContext reading = newContext(document_root, 0);
+        ServerContext mapping = newContext(document_root, 1);
+
+        ServerSocket sink = new ServerSocket(0);
+        Thread sink_thread = new Thread(() -> drain(sink));
+        sink_thread.setDaemon(true);
+        sink_thread.start();
+
+        System.out.println("path,file_bytes,iterations,first_ms,mean_ms,throughput_mb_s,heap_bytes_per_request,mapped_pool_bytes");
+        for (int size : FILE_SIZES) {
+            String name = "/file-" + size;
+            try (RandomAccessFile file = new RandomAccessFile(new File(document_root, name), "rw")) {
+                file.setLength(size);
+            }
+
+            for (int path = 0; path < PATHS.length; path++) {
+                boolean mapped = path % 2 == 1;
+                boolean gather = path >= 2;
+                ServerContext context = mapped ? mapping : reading;
+
+                long start = System.nanoTime();
+                send(sink.getLocalPort(), name, gather, context);
+                double first_ms = (System.nanoTime() - start) / 1e6;
+
+                for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                    send(sink.getLocalPort(), name, gather, context);
+                }
+
+                long allocated = getAllocatedBytes();
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    send(sink.getLocalPort(), name, gather, context);
+                }
+                double mean_ms = (System.nanoTime() - start) / 1e6 / iterations;
+                allocated = getAllocatedBytes() - allocated;
+
+                System.out.printf("%s,%d,%d,%.3f,%.3f,%.1f,%d,%d%n", PATHS[path], size, iterations, first_ms, mean_ms,
+                        size / (1024.0 * 1024.0) / (mean_ms / 1000.0), allocated / iterations, getMappedPoolBytes());
+            }
+        }
+    }
+
+    private static ServerContext newContext(File document_root, long mmap_threshold) throws IOException {
+        ServerConfig config = new ServerConfig(document_root.getPath(), 0, new File(document_root, "bench.log").getPath(), 1);
+        config.setCacheBytes(0); // measure the file transfer itself, not the content cache
+        config.setMetadataEntries(0);
+        config.setMmapThreshold(mmap_threshold);
+        return new ServerContext(config, new LogFile(config));
+    }
+
+    /**
+     * Open a loopback connection to the sink and send one GET response over it.
+     *
+     * @param port    where the sink is listening.
+     * @param name    the requested file.
+     * @param gather  whether the response is rendered into a GatheringOutputStream like the event-loop engine does.
+     * @param context the Responder's document root, log and caches.
+     * @throws IOException is thrown in case the connection fails.
+     */
+    private static void send(int port, String name, boolean gather, ServerContext context) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port))) {
+            Socket conn = channel.socket();
+            Request request = new Request("GET " + name + " HTTP/1.1");
+
+            if (!gather) {
+                new Responder(conn.getOutputStream(), channel, conn.getInetAddress(), context).processRequest(request, false);
+                return;
+            }
+
+            GatheringOutputStream response = new GatheringOutputStream(context.getBufferPool());
+            new Responder(response, null, conn.getInetAddress(), context).processRequest(request, false);
+            try {
+                ByteBuffer[] buffers = response.toBuffers();
+                while (buffers[buffers.length - 1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+            } finally {
+                response.release();
+            }
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static long getMappedPoolBytes() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("mapped")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Accept connections and read each of them to the end, one after the other.
+     *
+     * @param sink the listening socket.
+     */
+    private static void drain(ServerSocket sink) {
+        byte[] buf = new byte[SINK_BUFFER_SIZE];
+
+        while (true) {
+            try (Socket conn = sink.accept(); InputStream in = conn.getInputStream()) {
+                while (in.read(buf) != -1) {
+                    // discard
+                }
+            } catch (IOException ignored) {
+                // the next connection starts afresh
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import constants.RequestCode;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Benchmark: Compare the byte-level RequestParser with the former request path, i.e. a BufferedReader per connection,
+ * readLine(), String.split("\\s+") and a RequestCode lookup which walks values().
+ * <p>
+ * Both paths parse the same request head over and over, one head per operation, run by BenchmarkHarness: besides the time per request,
+ * the bytes allocated per request are reported, which is what the new parser is meant to bring down to nothing.
+ * The results are written as JSON in the format of JMH.
+ * Before anything is measured, the parser has to tell heads whose body cannot be delimited safely (see Request.hasInvalidFraming())
+ * from those which it can, or the run fails, so that a faster parser cannot pass by having dropped those checks.
+ * <p>
+ * Usage: java -cp out RequestParserBenchmark [-o results.json] [-wi warmup_iterations] [-i iterations] [-t iteration_millis] [filter]
+ * (defaults: request-parser.json, 3, 5, 1000, both paths, see BenchmarkHarness.fromArgs()), or from the build: mvn verify -Pbenchmarks.
+ */
+public class RequestParserBenchmark {
+    private static final String HEAD = "GET /index.html HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/119.0\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Connection: keep-alive\r\n"
+            + "\r\n";
+    private static final String[] INVALID_FRAMING = {
+            "Transfer-Encoding: chunked",
+            "Content-Length: 5\r\nTransfer-Encoding: chunked",
+            "Content-Length: -5",
+            "Content-Length: 5x",
+            "Content-Length: ",
+            "Content-Length: 99999999999999999999",
+            "Content-Length: 5\r\nContent-Length: 6"
+    };
+    private static final String[] VALID_FRAMING = {
+            "Content-Length: 0",
+            "Content-Length: 5",
+            "Content-Length: 5\r\nContent-Length: 5"
+    };
+
+    /**
+     * Run both paths and write the results.
+     *
+     * @param args the options of the harness and a filter, see the usage above.
+     * @throws Exception is thrown in case of a failed run.
+     */
+    public static void main(String[] args) throws Exception {
+        checkFraming(INVALID_FRAMING, true);
+        checkFraming(VALID_FRAMING, false);
+
+        BenchmarkHarness harness = BenchmarkHarness.fromArgs(args, "request-parser.json");
+        byte[] head = HEAD.getBytes(StandardCharsets.ISO_8859_1);
+
+        harness.run("RequestParserBenchmark.split", () -> parseLegacy(head));
+
+        RequestParser parser = new RequestParser();
+        RewindableInputStream in = new RewindableInputStream(head);
+        harness.run("RequestParserBenchmark.requestParser", () -> parse(parser, in));
+
+        harness.writeJson(harness.getOutput());
+        System.out.println("results written to " + harness.getOutput() + " (" + harness.getSink() + ")");
+    }
+
+    /**
+     * Parse a head with each of the given header fields and check whether the parser marks its framing as invalid.
+     *
+     * @param fields  the header fields which decide the framing, one set per head.
+     * @param invalid whether the framing of every such head is invalid.
+     * @throws Exception is thrown in case the parser decides otherwise for any of them.
+     */
+    private static void checkFraming(String[] fields, boolean invalid) throws Exception {
+        for (String field : fields) {
+            byte[] head = ("POST /index.html HTTP/1.1\r\nHost: localhost\r\n" + field + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            RequestParser parser = new RequestParser();
+            RewindableInputStream in = new RewindableInputStream(head);
+
+            while (!parser.parse()) {
+                parser.fill(in);
+            }
+            if (parser.getRequest().hasInvalidFraming() != invalid) {
+                throw new IllegalStateException("REQUEST PARSER TAKES THE FRAMING OF " + field.replace("\r\n", ", ")
+                        + " FOR " + (invalid ? "VALID" : "INVALID"));
+            }
+        }
+    }
+
+    /**
+     * The former path: a reader per connection, the request line decoded into a String, split by a regular expression
+     * and the request code looked up by walking a fresh copy of values(). The header lines are read (and dropped) as before.
+     *
+     * @param head the request head.
+     * @return something derived from the request, which is consumed.
+     * @throws IOException never, the input is in memory.
+     */
+    private static long parseLegacy(byte[] head) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(head)));
+        String[] request_header = reader.readLine().split("\\s+");
+        long sink = 0;
+
+        RequestCode code = RequestCode.NONE;
+        for (RequestCode e : RequestCode.values()) {
+            if (e.toString().equals(request_header[0])) {
+                code = e;
+            }
+        }
+
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            sink += line.length();
+        }
+        return sink + code.ordinal() + request_header[1].length();
+    }
+
+    /**
+     * The new path: one parser per connection, reused for every request, reading from a stream which is rewound each time.
+     *
+     * @param parser the parser.
+     * @param in     the stream of the request head.
+     * @return something derived from the request, which is consumed.
+     * @throws DisconnectedException never, the head is small.
+     * @throws IOException           never, the input is in memory.
+     */
+    private static long parse(RequestParser parser, RewindableInputStream in) throws DisconnectedException, IOException {
+        in.rewind();
+        while (!parser.parse()) {
+            parser.fill(in);
+        }
+
+        Request request = parser.getRequest();
+        long sink = request.getCode().ordinal() + (request.isKeepAlive() ? 1 : 0);
+        parser.nextRequest();
+        return sink;
+    }
+}
@@ -0,0 +1,42 @@
+import java.io.InputStream;
+
+/**
+ * Benchmark: An input stream over a fixed array which can be rewound without allocating a new stream,
+ * so that a benchmark can feed the same request head to a parser over and over.
+ */
+class RewindableInputStream extends InputStream {
+    private byte[] bytes;
+    private int pos = 0;
+
+    /**
+     * Initialise variables.
+     *
+     * @param bytes what the stream reads.
+     */
+    RewindableInputStream(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Start reading from the beginning again.
+     */
+    void rewind() {
+        pos = 0;
+    }
+
+    @Override
+    public int read() {
+        return pos < bytes.length ? bytes[pos++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) {
+        if (pos >= bytes.length) {
+            return -1;
+        }
+        int n = Math.min(len, bytes.length - pos);
+        System.arraycopy(bytes, pos, buf, off, n);
+        pos += n;
+        return n;
+    }
+}
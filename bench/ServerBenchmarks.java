@@ -0,0 +1,198 @@
+import constants.FileType;
+import constants.RequestCode;
+import constants.ResponseCode;
+import constants.ServerEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Benchmark: The regression suite of the server, run by BenchmarkHarness and written out as JSON in the format of JMH.
+ * <p>
+ * Micro benchmarks cover parsing a request (RequestCode.convert, FileType.convert, deriving the type from the extension),
+ * generating a header (ResponseHeader, as Responder.getHeader does), the decision of the per-client RateLimiter and answering a request (Responder.processRequest for a cached file,
+ * and for a 64 KB file which goes through the copy loop of sendResource). End-to-end benchmarks start a WebServer with each engine
+ * on a loopback port, time a GET over a kept-alive connection and stop the server again.
+ * <p>
+ * Usage: java -cp out ServerBenchmarks [-o results.json] [-wi warmup_iterations] [-i iterations] [-t iteration_millis] [filter]
+ * (defaults: results.json, 3, 5, 1000, every benchmark, see BenchmarkHarness.fromArgs()),
+ * or from the build: mvn verify -Pbenchmarks [-Dbenchmark.args="-i 10 getHeader"], which writes target/benchmarks.json.
+ */
+public class ServerBenchmarks {
+    private static final int PAGE_SIZE = 1024;
+    private static final int COPY_FILE_SIZE = 64 * 1024;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * Create the document root, run every benchmark which the filter selects and write the results.
+     *
+     * @param args the options and the filter, see the usage above.
+     * @throws Exception is thrown in case of a failed benchmark.
+     */
+    public static void main(String[] args) throws Exception {
+        File document_root = Files.createTempDirectory("benchmarks").toFile();
+        Files.write(new File(document_root, "index.html").toPath(), new byte[PAGE_SIZE]);
+        try (RandomAccessFile file = new RandomAccessFile(new File(document_root, "copy.bin"), "rw")) {
+            file.setLength(COPY_FILE_SIZE);
+        }
+
+        BenchmarkHarness harness = BenchmarkHarness.fromArgs(args, "results.json");
+        runParsing(harness, document_root);
+        runResponding(harness, document_root);
+        runEndToEnd(harness, document_root);
+
+        harness.writeJson(harness.getOutput());
+        System.out.println("results written to " + harness.getOutput() + " (" + harness.getSink() + ")");
+    }
+
+    private static void runParsing(BenchmarkHarness harness, File document_root) throws Exception {
+        byte[] get = "GET".getBytes(StandardCharsets.US_ASCII);
+        Path page = document_root.toPath().resolve("index.html");
+
+        harness.run("ServerBenchmarks.requestCodeConvertBytes", () -> RequestCode.convert(get, 0, get.length).ordinal());
+        harness.run("ServerBenchmarks.requestCodeConvertString", () -> RequestCode.convert("OPTIONS").ordinal());
+        harness.run("ServerBenchmarks.fileTypeConvert", () -> FileType.convert("html").ordinal());
+        harness.run("ServerBenchmarks.fileExtension", () -> FileMetadata.missing(page).getFileType().ordinal());
+    }
+
+    private static void runResponding(BenchmarkHarness harness, File document_root) throws Exception {
+        OutputStream discard = OutputStream.nullOutputStream();
+
+        ResponseHeader header = new ResponseHeader();
+        harness.run("ServerBenchmarks.getHeader", () -> header.status(ResponseCode.WORKING_OKAY).contentType(FileType.HTML)
+                .contentLength(PAGE_SIZE).writeTo(discard, true));
+
+        RateLimiter limiter = new RateLimiter(1e9, 1e9, 1_000_000); // never limits, so every decision takes the full path
+        InetAddress[] clients = new InetAddress[4096];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i});
+        }
+        int[] next_client = {0};
+        harness.run("ServerBenchmarks.rateLimiterTryAcquire",
+                () -> limiter.tryAcquire(clients[next_client[0]++ & (clients.length - 1)]));
+
+        ServerContext cached = newContext(document_root, true);
+        Responder responder = new Responder(discard, null, null, cached);
+        Request page = new Request("GET /index.html HTTP/1.1");
+        harness.run("ServerBenchmarks.processRequestCached", () -> responder.processRequest(page, true) ? 1 : 0);
+
+        ServerContext uncached = newContext(document_root, false);
+        Responder copying = new Responder(discard, null, null, uncached);
+        Request copy = new Request("GET /copy.bin HTTP/1.1");
+        harness.run("ServerBenchmarks.sendResourceCopyLoop", () -> copying.processRequest(copy, true) ? 1 : 0);
+    }
+
+    private static void runEndToEnd(BenchmarkHarness harness, File document_root) throws Exception {
+        for (ServerEngine engine : new ServerEngine[]{ServerEngine.BLOCKING, ServerEngine.NIO}) {
+            String name = "ServerBenchmarks.endToEnd" + (engine == ServerEngine.NIO ? "Nio" : "Blocking");
+            ServerConfig config = new ServerConfig(document_root.getPath(), 0, new File(document_root, engine + ".log").getPath(), 64);
+            config.setEngine(engine);
+            WebServer server = new WebServer(config);
+            LoopbackClient[] client = {null};
+
+            try {
+                harness.run(name, () -> {
+                    if (client[0] == null) { // only once the filter has selected the benchmark
+                        server.start(); // on an ephemeral port, which nothing else can take in the meantime
+                        client[0] = new LoopbackClient(server.getPort());
+                    }
+                    return client[0].get("/index.html");
+                });
+            } finally {
+                if (client[0] != null) {
+                    client[0].close();
+                    server.stop(SHUTDOWN_TIMEOUT_MILLIS);
+                }
+            }
+        }
+    }
+
+    private static ServerContext newContext(File document_root, boolean cached) throws IOException {
+        ServerConfig config = new ServerConfig(document_root.getPath(), 0, new File(document_root, "bench.log").getPath(), 1);
+        if (!cached) {
+            config.setCacheBytes(0);
+            config.setMmapThreshold(0); // so that the file goes through the copy loop
+        }
+        return new ServerContext(config, new LogFile(config));
+    }
+
+    /**
+     * A client which sends GET requests over a kept-alive loopback connection and reads each response to its end,
+     * reconnecting whenever the server closes the connection.
+     */
+    private static class LoopbackClient {
+        private int port;
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+        private byte[] buf = new byte[64 * 1024];
+
+        LoopbackClient(int port) {
+            this.port = port;
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        long get(String path) throws IOException {
+            if (socket == null) {
+                connect();
+            }
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+
+            int length = 0;
+            int head_end;
+            while ((head_end = findHeadEnd(length)) < 0) {
+                int n = in.read(buf, length, buf.length - length);
+                if (n < 0) {
+                    throw new IOException("connection closed before the response head");
+                }
+                length += n;
+            }
+
+            String head = new String(buf, 0, head_end, StandardCharsets.ISO_8859_1);
+            int field = head.indexOf("Content-Length: ");
+            long body = Long.parseLong(head.substring(field + 16, head.indexOf('\r', field)));
+            for (long got = length - head_end - 4; got < body; ) {
+                int n = in.read(buf);
+                if (n < 0) {
+                    throw new IOException("connection closed before the end of the body");
+                }
+                got += n;
+            }
+
+            if (head.contains("Connection: close")) {
+                close();
+            }
+            return body;
+        }
+
+        private int findHeadEnd(int length) {
+            for (int i = 0; i + 3 < length; i++) {
+                if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void close() throws IOException {
+            if (socket != null) {
+                socket.close();
+                socket = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+/**
+ * Benchmark: Compare the throughput of the buffered copy loop with the zero-copy transferTo path of Responder.sendResource.
+ * <p>
+ * Each iteration sends a GET response for a 1 KB, 1 MB or 100 MB file over a loopback connection to a sink thread which reads and discards it,
+ * once through a Responder without a channel (copy loop) and once through a Responder with the socket's channel (transferTo).
+ * <p>
+ * Usage: java -cp out TransferBenchmark [iterations] (default: 20).
+ */
+public class TransferBenchmark {
+    private static final int[] FILE_SIZES = {1024, 1024 * 1024, 100 * 1024 * 1024};
+    private static final int DEFAULT_ITERATIONS = 20;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int SINK_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Create the test files in a temporary document root and print one row per file size and path.
+     *
+     * @param args optionally the number of measured iterations.
+     * @throws Exception is thrown in case of a failed run.
+     */
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATIONS;
+
+        File document_root = Files.createTempDirectory("transfer").toFile();
+        ServerConfig config = new ServerConfig(document_root.getPath(), 0, new File(document_root, "bench.log").getPath(), 1);
+        config.setCacheBytes(0); // measure the file transfer itself, not the content cache
+        ServerContext context = new ServerContext(config, new LogFile(config));
+
+        ServerSocket sink = new ServerSocket(0);
+        Thread sink_thread = new Thread(() -> drain(sink));
+        sink_thread.setDaemon(true);
+        sink_thread.start();
+
+        System.out.println("path,file_bytes,iterations,mean_ms,throughput_mb_s");
+        for (int size : FILE_SIZES) {
+            String name = "/file-" + size;
+            try (RandomAccessFile file = new RandomAccessFile(new File(document_root, name), "rw")) {
+                file.setLength(size);
+            }
+
+            for (boolean zero_copy : new boolean[]{false, true}) {
+                for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                    send(sink.getLocalPort(), name, zero_copy, context);
+                }
+
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    send(sink.getLocalPort(), name, zero_copy, context);
+                }
+                double mean_ms = (System.nanoTime() - start) / 1e6 / iterations;
+
+                System.out.printf("%s,%d,%d,%.3f,%.1f%n", zero_copy ? "transferTo" : "copy-loop", size, iterations,
+                        mean_ms, size / (1024.0 * 1024.0) / (mean_ms / 1000.0));
+            }
+        }
+    }
+
+    /**
+     * Open a loopback connection to the sink and send one GET response over it.
+     *
+     * @param port      where the sink is listening.
+     * @param name      the requested file.
+     * @param zero_copy whether the Responder is given the socket's channel.
+     * @param context   the Responder's document root, log and (disabled) cache.
+     * @throws IOException is thrown in case the connection fails.
+     */
+    private static void send(int port, String name, boolean zero_copy, ServerContext context) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+        Socket conn = channel.socket();
+
+        new Responder(conn.getOutputStream(), zero_copy ? channel : null, conn.getInetAddress(), context)
+                .processRequest(new Request("GET " + name + " HTTP/1.1"), false);
+        conn.close();
+    }
+
+    /**
+     * Accept connections and read each of them to the end, one after the other.
+     *
+     * @param sink the listening socket.
+     */
+    private static void drain(ServerSocket sink) {
+        byte[] buf = new byte[SINK_BUFFER_SIZE];
+
+        while (true) {
+            try (Socket conn = sink.accept(); InputStream in = conn.getInputStream()) {
+                while (in.read(buf) != -1) {
+                    // discard
+                }
+            } catch (IOException ignored) {
+                // the next connection starts afresh
+            }
+        }
+    }
+}
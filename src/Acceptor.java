@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Extension: A thread which accepts connections on the server's port, applies the TCP options to them and hands them over to the engine.
+ * <p>
+ * Both engines run the configured number of acceptors, so that a single accept loop does not limit the rate at which connections come in.
+ * Where the platform has SO_REUSEPORT, every acceptor binds a listening socket of its own to the port and the kernel spreads incoming
+ * connections over their accept queues; otherwise, or if reuse-port is turned off, the acceptors share one listening socket.
+ * Note that SO_REUSEPORT also lets any other process of the same user bind the port, so a second server on the same port does not fail to start.
+ * <p>
+ * Every acceptor counts the connections it has accepted, from which the metrics derive the accept rate per acceptor.
+ * When the server stops, closing the acceptors is the first step, so that no new connections come in while the others drain.
+ */
+public class Acceptor implements Runnable {
+    private static final long MIN_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    /**
+     * What the engine does with an accepted connection.
+     */
+    public interface Handler {
+        /**
+         * Take over an accepted connection, which is still in blocking mode and has its TCP options set.
+         *
+         * @param channel the accepted connection.
+         * @throws IOException is thrown in case the connection fails.
+         */
+        void handle(SocketChannel channel) throws IOException;
+    }
+
+    private int id;
+    private ServerSocketChannel server_channel;
+    private int port;
+    private ServerConfig config;
+    private Handler handler;
+    private LogFile logger;
+    private LongAdder accepted = new LongAdder();
+    private Thread thread;
+
+    /**
+     * Initialise variables.
+     *
+     * @param id             the number of the acceptor.
+     * @param server_channel the listening socket, which may be shared with other acceptors.
+     * @param config         the TCP options of accepted connections.
+     * @param handler        what is done with every accepted connection.
+     * @param logger         used to log accepted connections and failures.
+     */
+    public Acceptor(int id, ServerSocketChannel server_channel, ServerConfig config, Handler handler, LogFile logger) {
+        this.id = id;
+        this.server_channel = server_channel;
+        this.config = config;
+        this.handler = handler;
+        this.logger = logger;
+    }
+
+    /**
+     * Open the listening sockets and create the acceptors on them, one socket per acceptor with SO_REUSEPORT or a single shared one.
+     * With port 0 the first socket binds an ephemeral port and the others bind the same one, see getPort().
+     *
+     * @param config  the settings of the server, i.e. the port, the number of acceptors, the backlog and the socket options.
+     * @param handler what is done with every accepted connection.
+     * @param logger  used to log accepted connections and failures.
+     * @return the acceptors, which have not been started yet.
+     * @throws IOException is thrown in case the port cannot be bound.
+     */
+    public static Acceptor[] open(ServerConfig config, Handler handler, LogFile logger) throws IOException {
+        Acceptor[] acceptors = new Acceptor[Math.max(1, config.getAcceptors())];
+        boolean reuse_port = acceptors.length > 1 && config.isReusePort() && supportsReusePort();
+        ServerSocketChannel shared = null;
+        int port = config.getPort();
+
+        try {
+            for (int i = 0; i < acceptors.length; i++) {
+                ServerSocketChannel server_channel = shared;
+                if (server_channel == null) {
+                    server_channel = bind(config, port, reuse_port);
+                    port = ((InetSocketAddress) server_channel.getLocalAddress()).getPort();
+                    shared = reuse_port ? null : server_channel;
+                }
+                acceptors[i] = new Acceptor(i, server_channel, config, handler, logger);
+                acceptors[i].port = port;
+            }
+        } catch (IOException ioe) {
+            for (Acceptor acceptor : acceptors) {
+                if (acceptor != null) {
+                    acceptor.server_channel.close();
+                }
+            }
+            throw ioe;
+        }
+
+        logger.logInfo("WebServer listening on port " + port + " ... with " + acceptors.length + " acceptors on "
+                + (reuse_port ? "SO_REUSEPORT sockets" : "a shared socket") + " ...");
+        return acceptors;
+    }
+
+    private static boolean supportsReusePort() throws IOException {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
+    private static ServerSocketChannel bind(ServerConfig config, int port, boolean reuse_port) throws IOException {
+        ServerSocketChannel server_channel = ServerSocketChannel.open();
+
+        try {
+            if (reuse_port) {
+                server_channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            if (config.getReceiveBuffer() > 0) {
+                server_channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBuffer());
+            }
+            server_channel.bind(new InetSocketAddress(port), Math.max(0, config.getBacklog()));
+        } catch (IOException ioe) {
+            server_channel.close();
+            throw ioe;
+        }
+        return server_channel;
+    }
+
+    /**
+     * Accept connections until the listening socket is closed.
+     * A failure to accept or to set up one connection is logged and does not stop the acceptor.
+     * <p>
+     * Extension: A failure to accept tends to repeat at once, e.g. while the process is out of file descriptors (EMFILE, ENFILE),
+     * so the acceptor waits before it tries again, twice as long after every further failure up to a second, rather than spinning.
+     * Only the first failure of such a run is logged, and how many there have been once a connection is accepted again.
+     * The acceptor gives up as soon as it is closed or interrupted, i.e. once the server stops.
+     */
+    @Override
+    public void run() {
+        long backoff_millis = 0;
+        long failures = 0;
+
+        while (server_channel.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = server_channel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException ioe) {
+                if (failures++ == 0) {
+                    logger.logWarning("IOException: ACCEPTOR " + id + " FAILED TO ACCEPT " + ioe.getMessage() + " ... RETRYING ...");
+                }
+                backoff_millis = Math.min(MAX_BACKOFF_MILLIS, Math.max(MIN_BACKOFF_MILLIS, 2 * backoff_millis));
+                try {
+                    Thread.sleep(backoff_millis);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                continue;
+            }
+
+            if (failures > 0) {
+                logger.logWarning("ACCEPTOR " + id + " ACCEPTS AGAIN AFTER " + failures + " FAILED ATTEMPTS");
+                failures = 0;
+                backoff_millis = 0;
+            }
+            accepted.increment();
+            try {
+                configure(channel);
+                logger.logInfo("WebServer got new connection request from " + channel.socket().getInetAddress());
+                handler.handle(channel);
+            } catch (IOException ioe) {
+                logger.logInfo("Acceptor:run " + ioe.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // the connection is gone either way
+                }
+            }
+        }
+    }
+
+    private void configure(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, config.isTcpNoDelay());
+        if (config.getSendBuffer() > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSendBuffer());
+        }
+        if (config.getReceiveBuffer() > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBuffer());
+        }
+    }
+
+    /**
+     * Start accepting connections on a thread of its own.
+     */
+    public void start() {
+        thread = new Thread(this, "acceptor-" + id);
+        thread.start();
+    }
+
+    /**
+     * Stop accepting connections: the listening socket is closed, so clients are refused rather than left in its backlog,
+     * while the connection being handed over (if any) still goes through.
+     */
+    public void close() {
+        try {
+            server_channel.close();
+        } catch (IOException ioe) {
+            logger.logWarning("IOException: ACCEPTOR " + id + " FAILED TO CLOSE " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Interrupt the thread after the acceptor has been closed, in case it still waits for room in a full worker queue
+     * or serves a connection itself (see SaturationPolicy).
+     */
+    public void interrupt() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Wait for the acceptor to stop after it has been closed.
+     *
+     * @param millis how long to wait at most.
+     * @throws InterruptedException is thrown in case the wait is interrupted.
+     */
+    public void join(long millis) throws InterruptedException {
+        if (thread != null) {
+            thread.join(Math.max(1, millis));
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get the port which the listening socket has bound, which differs from the configured one if that is 0.
+     *
+     * @return the port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+}
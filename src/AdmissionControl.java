@@ -0,0 +1,91 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extension: This decides whether the server takes on a new connection, keeping at most max_clients connections open at the same time.
+ * <p>
+ * The count of open connections is a single atomic integer: a connection is admitted by a compare-and-set which only succeeds
+ * while the count is below the limit, and every admitted connection releases its slot exactly once when it is closed,
+ * so the count stays exact however many threads open and close connections at once.
+ * The statistics are exported over JMX (see AdmissionControlMBean).
+ */
+public class AdmissionControl implements AdmissionControlMBean {
+    private int max_clients;
+    private AtomicInteger current = new AtomicInteger();
+    private AtomicInteger peak = new AtomicInteger();
+    private AtomicLong admitted = new AtomicLong();
+    private AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Initialise variables.
+     *
+     * @param max_clients the maximum number of client connections which the server serves at the time.
+     */
+    public AdmissionControl(int max_clients) {
+        this.max_clients = max_clients;
+    }
+
+    /**
+     * Take a slot for a new connection if there is one left.
+     *
+     * @return true if the connection is admitted, in which case release() must be called once it is closed;
+     * false if the server is full and the connection has to be turned away.
+     */
+    public boolean tryAdmit() {
+        int cur;
+
+        do {
+            cur = current.get();
+            if (cur >= max_clients) {
+                rejected.incrementAndGet();
+                return false;
+            }
+        } while (!current.compareAndSet(cur, cur + 1));
+
+        admitted.incrementAndGet();
+        peak.accumulateAndGet(cur + 1, Math::max);
+        return true;
+    }
+
+    /**
+     * Give back the slot of an admitted connection which has been closed.
+     */
+    public void release() {
+        current.decrementAndGet();
+    }
+
+    /**
+     * Count a connection which was admitted but then turned away after all, e.g. because the worker queue was full.
+     * It no longer counts as admitted and its slot is given back.
+     */
+    public void reject() {
+        admitted.decrementAndGet();
+        rejected.incrementAndGet();
+        release();
+    }
+
+    @Override
+    public int getCurrent() {
+        return current.get();
+    }
+
+    @Override
+    public int getPeak() {
+        return peak.get();
+    }
+
+    @Override
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public int getMaxClients() {
+        return max_clients;
+    }
+}
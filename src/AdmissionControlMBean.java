@@ -0,0 +1,29 @@
+/**
+ * Extension: The admission statistics which the server exports over JMX, see AdmissionControl.
+ */
+public interface AdmissionControlMBean {
+    /**
+     * @return the number of connections the server is serving right now.
+     */
+    int getCurrent();
+
+    /**
+     * @return the largest number of connections the server has served at the same time.
+     */
+    int getPeak();
+
+    /**
+     * @return the number of connections admitted so far.
+     */
+    long getAdmitted();
+
+    /**
+     * @return the number of connections turned away with 503 Service Unavailable so far.
+     */
+    long getRejected();
+
+    /**
+     * @return the configured limit of concurrent connections.
+     */
+    int getMaxClients();
+}
@@ -0,0 +1,201 @@
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extension: A pool of direct ByteBuffers shared by every connection of both engines, for the buffers which responses are written into.
+ * <p>
+ * Buffers come in a few size classes, each with its own lock-free queue of idle buffers. A buffer is allocated only when the queue of
+ * its class is empty, and a released buffer goes back to its queue unless the queue already holds its share of the pool's budget,
+ * so that under a steady load every buffer is reused and none is allocated per request. Direct buffers are written to a channel
+ * without the JDK copying them into a temporary direct buffer first.
+ * <p>
+ * With leak detection on, every buffer handed out is tracked by a phantom reference together with where it was acquired,
+ * and a buffer which becomes unreachable without having been released is logged with that stack trace.
+ */
+public class BufferPool {
+    public static final int SMALL = 4 * 1024;
+    public static final int MEDIUM = 16 * 1024;
+    public static final int LARGE = 64 * 1024;
+    private static final int[] SIZE_CLASSES = {SMALL, MEDIUM, LARGE};
+
+    /**
+     * A buffer handed out while leak detection is on, with where it was acquired.
+     */
+    private static final class Lease extends PhantomReference<ByteBuffer> {
+        private Throwable acquired_at;
+
+        private Lease(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+            super(buffer, queue);
+            this.acquired_at = new Throwable("BUFFER OF " + buffer.capacity() + " BYTES ACQUIRED HERE");
+        }
+    }
+
+    private List<ConcurrentLinkedQueue<ByteBuffer>> idle;
+    private AtomicInteger[] num_idle;
+    private int[] max_idle;
+    private AtomicInteger leased = new AtomicInteger();
+    private AtomicLong allocated = new AtomicLong();
+    private AtomicLong leaks = new AtomicLong();
+    private boolean leak_detection;
+    private ConcurrentHashMap<Integer, ConcurrentLinkedQueue<Lease>> leases; // by identity hash code of the buffer
+    private ReferenceQueue<ByteBuffer> lost;
+    private LogFile log_file;
+
+    /**
+     * Initialise variables.
+     *
+     * @param max_bytes      the most bytes held by idle buffers, shared equally by the size classes.
+     * @param leak_detection whether buffers which are never released are tracked down and logged, which costs a stack trace per buffer.
+     * @param log_file       where leaks are logged.
+     */
+    public BufferPool(long max_bytes, boolean leak_detection, LogFile log_file) {
+        this.idle = new ArrayList<>(SIZE_CLASSES.length);
+        this.num_idle = new AtomicInteger[SIZE_CLASSES.length];
+        this.max_idle = new int[SIZE_CLASSES.length];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            idle.add(new ConcurrentLinkedQueue<>());
+            num_idle[i] = new AtomicInteger();
+            max_idle[i] = (int) Math.min(Integer.MAX_VALUE, max_bytes / SIZE_CLASSES.length / SIZE_CLASSES[i]);
+        }
+
+        this.leak_detection = leak_detection;
+        this.log_file = log_file;
+        if (leak_detection) {
+            leases = new ConcurrentHashMap<>();
+            lost = new ReferenceQueue<>();
+        }
+    }
+
+    /**
+     * Take a cleared buffer of the smallest size class which holds the given number of bytes, or of the largest class.
+     * The buffer has to be given back with release() once it is no longer used.
+     *
+     * @param size the number of bytes needed.
+     * @return the buffer, ready to be written into.
+     */
+    public ByteBuffer acquire(int size) {
+        int c = 0;
+        while (c < SIZE_CLASSES.length - 1 && SIZE_CLASSES[c] < size) {
+            c++;
+        }
+
+        ByteBuffer buffer = idle.get(c).poll();
+        if (buffer != null) {
+            num_idle[c].decrementAndGet();
+            buffer.clear();
+        } else {
+            buffer = ByteBuffer.allocateDirect(SIZE_CLASSES[c]);
+            allocated.incrementAndGet();
+        }
+        leased.incrementAndGet();
+
+        if (leak_detection) {
+            reportLeaks();
+            Lease lease = new Lease(buffer, lost);
+            leases.computeIfAbsent(System.identityHashCode(buffer), h -> new ConcurrentLinkedQueue<>()).add(lease);
+        }
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool. The caller must not use it afterwards.
+     *
+     * @param buffer the buffer, acquired from this pool.
+     */
+    public void release(ByteBuffer buffer) {
+        if (leak_detection && !untrack(buffer)) {
+            log_file.logWarning("BUFFER OF " + buffer.capacity() + " BYTES HAS BEEN RELEASED TWICE OR NOT ACQUIRED FROM THE POOL");
+            return;
+        }
+        leased.decrementAndGet();
+
+        for (int c = 0; c < SIZE_CLASSES.length; c++) {
+            if (SIZE_CLASSES[c] == buffer.capacity()) {
+                if (num_idle[c].incrementAndGet() <= max_idle[c]) {
+                    idle.get(c).add(buffer);
+                } else {
+                    num_idle[c].decrementAndGet(); // left to the garbage collector
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean untrack(ByteBuffer buffer) {
+        ConcurrentLinkedQueue<Lease> same_hash = leases.get(System.identityHashCode(buffer));
+
+        if (same_hash != null) {
+            for (Lease lease : same_hash) {
+                if (lease.refersTo(buffer) && same_hash.remove(lease)) {
+                    lease.clear();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Log the buffers which have become unreachable without having been released.
+     */
+    private void reportLeaks() {
+        Reference<? extends ByteBuffer> reference;
+
+        while ((reference = lost.poll()) != null) {
+            Lease lease = (Lease) reference;
+            boolean leaked = false;
+
+            for (ConcurrentLinkedQueue<Lease> same_hash : leases.values()) {
+                leaked |= same_hash.remove(lease);
+            }
+            if (leaked) {
+                leaks.incrementAndGet();
+                leased.decrementAndGet();
+                StringBuilder trace = new StringBuilder("BUFFER LEAK: ").append(lease.acquired_at.getMessage());
+                for (StackTraceElement frame : lease.acquired_at.getStackTrace()) {
+                    trace.append("\n\tat ").append(frame);
+                }
+                log_file.logWarning(trace.toString());
+            }
+        }
+    }
+
+    /**
+     * Get the size classes, smallest first.
+     *
+     * @return the capacities of the buffers of each class.
+     */
+    public static int[] getSizeClasses() {
+        return SIZE_CLASSES.clone();
+    }
+
+    /**
+     * Get the number of idle buffers of a size class.
+     *
+     * @param size_class the index of the class, see getSizeClasses().
+     * @return the number of buffers waiting in the pool.
+     */
+    public int getIdle(int size_class) {
+        return num_idle[size_class].get();
+    }
+
+    public int getLeased() {
+        return leased.get();
+    }
+
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    public long getLeaks() {
+        return leaks.get();
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.Arrays;
+
+/**
+ * Extension: The parser of the Range header field of a GET request, e.g. "bytes=0-499", "bytes=500-", "bytes=-500" or "bytes=0-0,-1".
+ * <p>
+ * The ranges are resolved against the size of the file, i.e. open-ended ranges are closed, suffix ranges are counted from the end
+ * and ranges reaching beyond the end are cut short. Ranges which start beyond the end cannot be satisfied and are left out.
+ */
+public class ByteRanges {
+    private static final String BYTES_UNIT = "bytes=";
+    private static final int MAX_RANGES = 16;
+
+    /**
+     * Resolve the ranges of a Range header field against the size of the file.
+     * A field which is malformed, has another unit than bytes or asks for more than 16 ranges is ignored, as HTTP allows,
+     * in which case the whole file is served.
+     *
+     * @param range the value of the Range header field.
+     * @param size  the size of the file.
+     * @return the first and last byte (inclusive) of each satisfiable range in turn, an empty array if none of the ranges can be satisfied
+     * (416 Range Not Satisfiable), or null if the field is to be ignored.
+     */
+    public static long[] parse(String range, long size) {
+        if (!range.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+
+        String[] specs = range.substring(BYTES_UNIT.length()).split(",", MAX_RANGES + 1);
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        long[] ranges = new long[specs.length * 2];
+        int num_ranges = 0;
+
+        for (String spec : specs) {
+            String s = spec.trim();
+            int dash = s.indexOf('-');
+            long first;
+            long last;
+
+            try {
+                if (dash < 0) {
+                    return null;
+                } else if (dash == 0) { // the last n bytes
+                    long suffix = Long.parseLong(s.substring(1));
+                    if (suffix == 0 || size == 0) {
+                        continue;
+                    }
+                    first = Math.max(0, size - suffix);
+                    last = size - 1;
+                } else {
+                    first = Long.parseLong(s.substring(0, dash));
+                    last = dash == s.length() - 1 ? Long.MAX_VALUE : Long.parseLong(s.substring(dash + 1));
+                    if (last < first) {
+                        return null;
+                    }
+                    if (first >= size) {
+                        continue;
+                    }
+                    last = Math.min(last, size - 1);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            if (first < 0) {
+                return null;
+            }
+            ranges[num_ranges * 2] = first;
+            ranges[num_ranges * 2 + 1] = last;
+            num_ranges++;
+        }
+
+        return Arrays.copyOf(ranges, num_ranges * 2);
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Extension: A file held by the ContentCache, i.e. its bytes, the response header built for it, its validators and the version of the file they came from.
+ */
+public class CachedContent {
+    private byte[] header;
+    private byte[] body;
+    private long last_modified;
+    private FileValidators validators;
+
+    /**
+     * Initialise variables.
+     *
+     * @param header        the pre-rendered status line and fields of the 200 response header of the file, see ResponseHeader.
+     * @param body          the content of the file.
+     * @param last_modified the modification time of the file when it was read.
+     * @param validators    the ETag and Last-Modified of the file, which the header contains as well.
+     */
+    public CachedContent(byte[] header, byte[] body, long last_modified, FileValidators validators) {
+        this.header = header;
+        this.body = body;
+        this.last_modified = last_modified;
+        this.validators = validators;
+    }
+
+    public byte[] getHeader() {
+        return header;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public long getLastModified() {
+        return last_modified;
+    }
+
+    public FileValidators getValidators() {
+        return validators;
+    }
+}
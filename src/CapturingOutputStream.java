@@ -0,0 +1,59 @@
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Extension: A stream which passes everything on and keeps a copy of it, e.g. a generated page which is to be cached while it is streamed.
+ * The copy is abandoned as soon as it would exceed a limit, so what cannot be cached costs no memory beyond the limit.
+ */
+public class CapturingOutputStream extends FilterOutputStream {
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    private long max_bytes;
+    private boolean complete = true;
+
+    /**
+     * Initialise variables.
+     *
+     * @param out       where everything is passed on to.
+     * @param max_bytes the most bytes to keep a copy of, 0 keeps none.
+     */
+    public CapturingOutputStream(OutputStream out, long max_bytes) {
+        super(out);
+        this.max_bytes = max_bytes;
+        this.complete = max_bytes > 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        capture(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        capture(b, off, len);
+    }
+
+    private void capture(byte[] b, int off, int len) {
+        if (!complete) {
+            return;
+        }
+        if (copy.size() + len > max_bytes) {
+            complete = false;
+            copy = null;
+        } else {
+            copy.write(b, off, len);
+        }
+    }
+
+    /**
+     * Get the copy of everything written.
+     *
+     * @return the copy, or null if it has exceeded the limit.
+     */
+    public byte[] toByteArray() {
+        return complete ? copy.toByteArray() : null;
+    }
+}
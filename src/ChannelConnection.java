@@ -0,0 +1,216 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Extension: The state of one connection of the non-blocking engine.
+ * The request heads are parsed incrementally by a RequestParser as bytes arrive, and once a request has been responded to,
+ * nextRequest() keeps whatever the client has already sent of its next request (keep-alive and pipelining).
+ */
+public class ChannelConnection {
+    private static final long MAX_RENDERED_BYTES = 4L * BufferPool.LARGE;
+
+    private SocketChannel channel;
+    private RequestParser parser = new RequestParser();
+    private GatheringOutputStream response;
+    private Responder responder;
+    private ByteBuffer[] output;
+    private int first_output = 0;
+    private int num_requests = 0;
+    private boolean keep_alive = false;
+    private long last_active = System.currentTimeMillis();
+    private long accepted_at = System.nanoTime();
+    private boolean first_byte_sent = false;
+    private boolean offloaded = false;
+
+    /**
+     * Initialise variables, on the accepting thread so that the accept-to-first-byte latency starts with the accept.
+     * <p>
+     * Extension: The connection renders all its responses with one Responder into one GatheringOutputStream, which is emptied and
+     * reused once the responses have been written.
+     *
+     * @param channel the accepted connection.
+     * @param context what the handlers of all connections share, i.e. the document root, the log file, the caches and the buffer pool.
+     */
+    public ChannelConnection(SocketChannel channel, ServerContext context) {
+        this.channel = channel;
+        this.response = new GatheringOutputStream(context.getBufferPool());
+        this.responder = new Responder(response, null, channel.socket().getInetAddress(), context);
+    }
+
+    /**
+     * Read whatever has arrived on the channel.
+     *
+     * @param channel the connection's channel.
+     * @return the number of bytes read, or -1 if the client has closed the connection.
+     * @throws DisconnectedException is thrown in case the request head is larger than the server accepts.
+     * @throws IOException           is thrown in case of connection failed.
+     */
+    public int read(ReadableByteChannel channel) throws DisconnectedException, IOException {
+        return parser.fill(channel);
+    }
+
+    /**
+     * Scan the newly arrived bytes for the end of the next request head.
+     *
+     * @return true once the whole request head has arrived.
+     */
+    public boolean consume() {
+        if (parser.parse()) {
+            num_requests++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get ready for the next request on the connection, keeping the bytes which have arrived after the previous head.
+     */
+    public void nextRequest() {
+        parser.nextRequest();
+    }
+
+    /**
+     * Note that bytes of a response have gone to the socket.
+     *
+     * @return the nanoseconds since the connection was accepted if these were the first bytes, otherwise -1.
+     */
+    public long firstByteSent() {
+        if (first_byte_sent) {
+            return -1;
+        }
+        first_byte_sent = true;
+        return System.nanoTime() - accepted_at;
+    }
+
+    /**
+     * Note that the connection has just been read from or written to, for the idle timeout.
+     */
+    public void touch() {
+        last_active = System.currentTimeMillis();
+    }
+
+    /**
+     * Check whether the connection has waited for its next request for longer than the idle timeout.
+     * A connection whose response is still being rendered or written is never idle.
+     *
+     * @param now     the current time in milliseconds.
+     * @param timeout the idle timeout in milliseconds.
+     * @return true if the connection has been idle for too long.
+     */
+    public boolean isIdle(long now, long timeout) {
+        return !offloaded && output == null && now - last_active > timeout;
+    }
+
+    /**
+     * Extension: Check whether the connection is kept alive between requests, i.e. it has been responded to, its responses have all
+     * been written and nothing of its next request has arrived yet, so that it can be closed without cutting off a request.
+     *
+     * @return true if the connection waits for its next request.
+     */
+    public boolean isBetweenRequests() {
+        return !offloaded && output == null && num_requests > 0 && !parser.hasPartialRequest();
+    }
+
+    /**
+     * Extension: Check whether a worker is responding to the connection's current request, see EventLoop.
+     * The loop leaves the connection alone meanwhile.
+     *
+     * @return true while the response is rendered off the loop.
+     */
+    public boolean isOffloaded() {
+        return offloaded;
+    }
+
+    public void setOffloaded(boolean offloaded) {
+        this.offloaded = offloaded;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public Request getRequest() {
+        return parser.getRequest();
+    }
+
+    public int getNumRequests() {
+        return num_requests;
+    }
+
+    public boolean isKeepAlive() {
+        return keep_alive;
+    }
+
+    public void setKeepAlive(boolean keep_alive) {
+        this.keep_alive = keep_alive;
+    }
+
+    public Responder getResponder() {
+        return responder;
+    }
+
+    /**
+     * Extension: Check whether the rendered responses hold so many pooled buffers that no further pipelined request should be responded to
+     * before they have been written, so that a client which pipelines many requests cannot take up direct memory without bounds.
+     * A single response may still exceed the limit.
+     *
+     * @return true once the responses take up the limit.
+     */
+    public boolean isOutputFull() {
+        return response.getPooledBytes() >= MAX_RENDERED_BYTES;
+    }
+
+    /**
+     * Extension: Start writing the responses which the responder has rendered.
+     */
+    public void startOutput() {
+        output = response.toBuffers();
+        first_output = 0;
+    }
+
+    /**
+     * Extension: Write as much of the pending responses as the channel takes, in gathering writes.
+     * The chunks of streamed file segments are refilled in between, for as long as the channel takes all that is ready.
+     *
+     * @param channel the connection's channel.
+     * @return the number of bytes written.
+     * @throws IOException is thrown in case of connection failed or of failure of reading a streamed file.
+     */
+    public long write(GatheringByteChannel channel) throws IOException {
+        long written = 0;
+
+        while (first_output < output.length) {
+            int end = response.prepare(first_output);
+            written += channel.write(output, first_output, end - first_output);
+
+            while (first_output < output.length && response.isWritten(output, first_output)) {
+                first_output++;
+            }
+            if (output[end - 1].hasRemaining()) {
+                break; // the socket's send buffer is full
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Extension: Check whether some of the pending responses have not been written yet.
+     *
+     * @return true if there is output left.
+     */
+    public boolean hasRemainingOutput() {
+        return output != null && first_output < output.length;
+    }
+
+    /**
+     * Extension: Give back the pooled buffers and mapped files of the responses, once they have been written
+     * or the connection is closed before.
+     */
+    public void releaseOutput() {
+        output = null;
+        response.release();
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Extension: The write buffer of a connection of the blocking engine, a direct buffer from the BufferPool in front of the socket's channel.
+ * <p>
+ * It does what a BufferedOutputStream over the socket's stream did, but the buffer is borrowed from the pool for the life of the connection
+ * rather than allocated for it, and being direct, it goes to the socket without the JDK copying it into a temporary direct buffer first.
+ * The buffer is given back when the stream is closed, which does not close the channel.
+ */
+public class ChannelOutputStream extends OutputStream {
+    private WritableByteChannel channel;
+    private BufferPool pool;
+    private ByteBuffer buffer;
+
+    /**
+     * Initialise variables and borrow the buffer.
+     *
+     * @param channel the socket's channel, in blocking mode.
+     * @param pool    where the buffer comes from.
+     * @param size    the size of the buffer, see the size classes of BufferPool.
+     */
+    public ChannelOutputStream(WritableByteChannel channel, BufferPool pool, int size) {
+        this.channel = channel;
+        this.pool = pool;
+        this.buffer = pool.acquire(size);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(len, buffer.remaining());
+
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Write whatever is buffered to the channel.
+     *
+     * @throws IOException is thrown in case of connection failed.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (buffer.position() > 0) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Give the buffer back to the pool, dropping whatever has not been flushed.
+     */
+    @Override
+    public void close() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+}
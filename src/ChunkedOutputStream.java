@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Extension: The body of a response whose length is not known when its header is sent, written with the chunked transfer coding.
+ * <p>
+ * What is written is collected in a buffer of a fixed size and sent as one chunk whenever the buffer is full, so that generated content goes out
+ * incrementally with bounded memory. Each chunk is framed in place: the buffer keeps room for the chunk-size line in front of the data
+ * and for the <CR><LF> behind it, so a chunk reaches the underlying stream in a single write.
+ * The stream is reset for every response rather than created anew, so its buffer is reused.
+ * HTTP/1.0 clients do not know the chunked coding; for them the body is sent as it is and ended by closing the connection.
+ */
+public class ChunkedOutputStream extends OutputStream {
+    private static final int SIZE_LINE_LENGTH = 10; // up to 8 hex digits and <CR><LF>
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf;
+    private int count;
+    private OutputStream out;
+    private boolean chunked;
+    private long bytes_written;
+
+    /**
+     * Initialise variables.
+     *
+     * @param chunk_size the largest amount of data sent in one chunk.
+     */
+    public ChunkedOutputStream(int chunk_size) {
+        this.buf = new byte[SIZE_LINE_LENGTH + chunk_size + 2];
+    }
+
+    /**
+     * Start the body of a new response, discarding whatever was left of the previous one.
+     *
+     * @param out     where the response is written to.
+     * @param chunked false if the client does not know the chunked coding, in which case the data is written without framing.
+     * @return this stream.
+     */
+    public ChunkedOutputStream reset(OutputStream out, boolean chunked) {
+        this.out = out;
+        this.chunked = chunked;
+        this.count = 0;
+        this.bytes_written = 0;
+
+        return this;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (SIZE_LINE_LENGTH + count == buf.length - 2) {
+            writeChunk();
+        }
+        buf[SIZE_LINE_LENGTH + count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int capacity = buf.length - 2 - SIZE_LINE_LENGTH;
+
+        while (len > 0) {
+            if (count == capacity) {
+                writeChunk();
+            }
+
+            int n = Math.min(len, capacity - count);
+            System.arraycopy(b, off, buf, SIZE_LINE_LENGTH + count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Send what has been written so far as a chunk, e.g. for a client waiting for the next line of a log.
+     * The underlying stream is not flushed, since the caller flushes it once the responses at hand have been written.
+     *
+     * @throws IOException is thrown in case of failure of writing to the stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeChunk();
+    }
+
+    /**
+     * End the body: send the rest of the data and the last chunk, after which the next response may follow on the connection.
+     * The underlying stream is neither flushed nor closed, so that the caller can batch responses as with every other response.
+     *
+     * @throws IOException is thrown in case of failure of writing to the stream.
+     */
+    public void finish() throws IOException {
+        writeChunk();
+        if (chunked) {
+            out.write(LAST_CHUNK);
+            bytes_written += LAST_CHUNK.length;
+        }
+    }
+
+    /**
+     * Get the number of bytes sent for the body so far, including the framing of the chunks.
+     *
+     * @return the number of bytes written to the underlying stream.
+     */
+    public long getBytesWritten() {
+        return bytes_written;
+    }
+
+    /**
+     * Frame the buffered data as a chunk, i.e. "size in hex<CR><LF>data<CR><LF>", and write it.
+     * The size line is written right-aligned into the room in front of the data, so the chunk is contiguous.
+     *
+     * @throws IOException is thrown in case of failure of writing to the stream.
+     */
+    private void writeChunk() throws IOException {
+        if (count == 0) {
+            return;
+        }
+
+        if (!chunked) {
+            out.write(buf, SIZE_LINE_LENGTH, count);
+            bytes_written += count;
+            count = 0;
+            return;
+        }
+
+        int start = SIZE_LINE_LENGTH;
+        buf[--start] = '\n';
+        buf[--start] = '\r';
+        for (int size = count; ; size >>>= 4) {
+            buf[--start] = HEX_DIGITS[size & 0xf];
+            if (size < 16) {
+                break;
+            }
+        }
+
+        int end = SIZE_LINE_LENGTH + count;
+        buf[end++] = '\r';
+        buf[end++] = '\n';
+
+        out.write(buf, start, end - start);
+        bytes_written += end - start;
+        count = 0;
+    }
+}
@@ -1,16 +1,20 @@
-
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class, as the name suggests, is responsible for serving a particular client's request when the server-client connection established.
  * <p>
  * original source: https://studres.cs.st-andrews.ac.uk/CS5001/Examples/L07-10_IO_and_Networking/CS5001_ClientServerExample/src/ConnectionHandler.java.
  */
-public class ConnectionHandler extends Thread {
+public class ConnectionHandler implements Runnable {
+    private static final int WRITE_BUFFER_SIZE = BufferPool.MEDIUM;
+    private static final int IDLE_POLL_MILLIS = 100;
+
     /**
      * socket representing TCP/IP connection to Client.
      */
@@ -20,52 +24,75 @@ public class ConnectionHandler extends Thread {
      */
     private InputStream input_stream;
     /**
-     * use buffered reader to read client data.
+     * reads client data into a reusable buffer and parses the request heads out of it.
      */
-    private BufferedReader buff_reader;
+    private RequestParser parser = new RequestParser();
     /**
-     * a document path where the server serves a requested file to a client.
+     * what the handlers of all connections share, i.e. the document root, the log file and the caches.
      */
-    private String document_root;
+    private ServerContext context;
     /**
      * This is used to track information of the requests into a file.
      */
     private LogFile logger;
+    /**
+     * when the connection was accepted, for the accept-to-first-byte latency.
+     */
+    private long accepted_at = System.nanoTime();
+    /**
+     * the number of requests responded to on the connection so far.
+     */
+    private int num_requests = 0;
 
     /**
      * Initialise variables.
      *
-     * @param conn          established connection with a client.
-     * @param document_root where the server serves a requested file to a client.
-     * @param logger        used to track information of the requests into a file.
+     * @param conn    established connection with a client.
+     * @param context what the handlers of all connections share, i.e. the document root, the log file and the caches.
      */
-    public ConnectionHandler(Socket conn, String document_root, LogFile logger) {
-        this.document_root = document_root;
+    public ConnectionHandler(Socket conn, ServerContext context) {
+        this.context = context;
         this.conn = conn;
+        this.logger = context.getLogFile();
         try {
             input_stream = conn.getInputStream();     // get data from client on this input stream
-            buff_reader = new BufferedReader(new InputStreamReader(input_stream)); // use buffered reader to read client data
-            this.logger = logger;
         } catch (IOException ioe) {
             logger.logInfo("ConnectionHandler: " + ioe.getMessage());
         }
     }
 
     /**
-     * Run method input_stream invoked when the Thread's start method (ch.start(); in WebServer class) input_stream invoked.
+     * Run method is invoked by whichever thread the WebServer dispatches this handler to, i.e. a new thread or a pooled worker.
      * When any Exception occurs (including IOException, ClientDisconnectedException), exit cleanly.
      */
     public void run() {
-        logger.logInfo("new ConnectionHandler thread started .... ");
+        logger.logInfo("ConnectionHandler started on " + Thread.currentThread().getName() + " .... ");
 
         try {
-            handleRequest();
+            handleRequests();
+        } catch (SocketTimeoutException e) {
+            logger.logInfo("ConnectionHandler:run ... connection has been idle for too long ... ");
         } catch (Exception e) {
             logger.logInfo("ConnectionHandler:run " + e.getMessage());
         }
 
         cleanUp();
-        WebServer.setNumCurClients(WebServer.getNumCurClients() - 1);
+        context.getAdmissionControl().release();
+    }
+
+    /**
+     * Extension: Turn the client away with 503 Service Unavailable without reading its request,
+     * used when the server has no room left to queue the connection.
+     */
+    public void reject() {
+        try {
+            new Responder(conn.getOutputStream(), null, conn.getInetAddress(), context).respondServiceUnavailable();
+        } catch (IOException ioe) {
+            logger.logInfo("ConnectionHandler:reject " + ioe.getMessage());
+        }
+
+        cleanUp();
+        context.getAdmissionControl().reject();
     }
 
     /**
@@ -76,31 +103,99 @@ public class ConnectionHandler extends Thread {
      * and shut down the connection on this side cleanly by throwing a DisconnectedException
      * which will be passed up the call stack to the nearest handler (catch block) in the run method.
      * <p>
-     * Once the server has responded,
-     * it will flush and close the connection to the client,
-     * since the server is not require to keep connections alive, according to the requirements.
+     * Extension: Once the server has responded, it waits for the next request on the same connection (keep-alive)
+     * until the client asks to close it, the connection has been idle for longer than the keep-alive timeout,
+     * or it has made the maximum number of requests per connection.
+     * Responses go through a write buffer which is only flushed once no further (pipelined) request has arrived yet,
+     * so responses to back-to-back requests leave in order and in as few socket writes as possible.
+     * The first flush marks the accept-to-first-byte latency of the connection.
+     * The write buffer is a direct buffer borrowed from the BufferPool (see ChannelOutputStream) and given back when the connection ends.
+     * Once the server drains its connections for shutdown, the response in hand is the last one on the connection.
      *
      * @throws DisconnectedException
      * @throws IOException
      */
-    private void handleRequest() throws DisconnectedException, IOException {
-        String line = buff_reader.readLine();
+    private void handleRequests() throws DisconnectedException, IOException {
+        ServerConfig config = context.getConfig();
+        OutputStream output_stream = conn.getChannel() != null
+                ? new ChannelOutputStream(conn.getChannel(), context.getBufferPool(), WRITE_BUFFER_SIZE)
+                : new BufferedOutputStream(conn.getOutputStream(), WRITE_BUFFER_SIZE);
+        Responder responder = new Responder(output_stream, conn.getChannel(), conn.getInetAddress(), context);
+        boolean keep_alive = true;
+        boolean first_byte_sent = false;
+
+        try (output_stream) {
+            int timeout = config.getKeepAliveTimeout();
+            conn.setSoTimeout(timeout > 0 ? Math.min(timeout, IDLE_POLL_MILLIS) : IDLE_POLL_MILLIS); // see readRequest()
+
+            while (keep_alive) {
+                Request request = readRequest();
+                num_requests++;
+
+                keep_alive = responder.processRequest(request,
+                        request.isKeepAlive() && num_requests < config.getMaxKeepAliveRequests() && !context.isDraining());
+                parser.nextRequest();
+
+                if (!keep_alive || (!parser.hasBuffered() && input_stream.available() == 0)) {
+                    output_stream.flush();
+
+                    if (!first_byte_sent) {
+                        context.getMetrics().recordFirstByte(System.nanoTime() - accepted_at);
+                        first_byte_sent = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Extension: Read the request line and, if the client gave an HTTP version, the header fields up to the blank line which ends them.
+     * A body (which none of the supported requests needs) is skipped, so that the next request on the connection starts in the right place.
+     * The head is parsed straight from the bytes read from the socket, without decoding them into lines of text first.
+     * <p>
+     * Extension: The socket is polled in short slices of the keep-alive timeout, so that a connection which waits for its next request
+     * is closed soon after the server starts draining its connections, or once other connections are queued for a worker,
+     * rather than holding on to its worker for the whole keep-alive timeout; one which is halfway through sending a request is not.
+     *
+     * @return the request head.
+     * @throws DisconnectedException is thrown in case the client has closed the connection or the server is shutting down.
+     * @throws IOException           is thrown in case of connection failed or the idle timeout expires.
+     */
+    private Request readRequest() throws DisconnectedException, IOException {
+        long idle_since = System.nanoTime();
 
-        if (line != null) {
-            new Responder(conn, document_root, logger).processRequest(line);
-        } else {
-            throw new DisconnectedException(" ... client has closed the connection ... ");
+        while (!parser.parse()) {
+            try {
+                if (parser.fill(input_stream) < 0) {
+                    throw new DisconnectedException(" ... client has closed the connection ... ");
+                }
+                idle_since = System.nanoTime();
+            } catch (SocketTimeoutException e) {
+                if (num_requests > 0 && !parser.hasPartialRequest()) {
+                    if (context.isDraining()) {
+                        throw new DisconnectedException(" ... server is shutting down ... ");
+                    }
+                    if (context.getMetrics().getQueueDepth() > 0) {
+                        throw new DisconnectedException(" ... connection is idle while others wait for a worker ... ");
+                    }
+                }
+                int timeout = context.getConfig().getKeepAliveTimeout();
+                if (timeout > 0 && System.nanoTime() - idle_since >= TimeUnit.MILLISECONDS.toNanos(timeout)) {
+                    throw e;
+                }
+            }
         }
+
+        return parser.getRequest();
     }
 
     /**
-     * Clean up the reading and writing buffers and close the listening socket.
+     * Clean up the reading and writing streams and close the listening socket.
      */
     private void cleanUp() {
         logger.logInfo("ConnectionHandler: ... cleaning up and exiting ... ");
 
         try {
-            buff_reader.close();
             input_stream.close();
             conn.close();
         } catch (IOException ioe) {
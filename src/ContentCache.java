@@ -0,0 +1,154 @@
+import constants.ContentEncoding;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extension: An in-memory cache of the static files the server serves, keyed by resolved path.
+ * It holds at most a configured number of bytes and evicts the least recently used files to stay within it.
+ * An entry is dropped as soon as the modification time of its file changes or the file is deleted through a DELETE request.
+ */
+public class ContentCache {
+    private static final boolean ACCESS_ORDER = true;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private LinkedHashMap<String, CachedContent> entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, ACCESS_ORDER);
+    private long max_bytes;
+    private long max_entry_bytes;
+    private long cur_bytes = 0;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Initialise variables.
+     *
+     * @param max_bytes       the byte budget of the whole cache, 0 turns caching off.
+     * @param max_entry_bytes files larger than this are never cached.
+     */
+    public ContentCache(long max_bytes, long max_entry_bytes) {
+        this.max_bytes = max_bytes;
+        this.max_entry_bytes = Math.min(max_entry_bytes, max_bytes);
+    }
+
+    /**
+     * Look up a file, dropping its entry if the file has changed since it was cached.
+     * <p>
+     * Extension: The current modification time is given by the caller (see MetadataCache), so a lookup does not stat the file.
+     *
+     * @param resource_path the resolved path of the requested file, or the key of an entry made from it, see getVariantKey().
+     * @param last_modified the current modification time of the file.
+     * @return the cached file or null in case of a miss.
+     */
+    public CachedContent lookup(String resource_path, long last_modified) {
+        CachedContent content;
+
+        synchronized (this) {
+            content = entries.get(resource_path);
+        }
+
+        if (content != null && content.getLastModified() != last_modified) {
+            invalidate(resource_path);
+            content = null;
+        }
+
+        (content == null ? misses : hits).incrementAndGet();
+        return content;
+    }
+
+    /**
+     * Check whether the current version of a file is cached, without counting a hit or a miss.
+     *
+     * @param resource_path the path of the file.
+     * @param last_modified the modification time of the current version of the file.
+     * @return true if it is cached.
+     */
+    public boolean contains(String resource_path, long last_modified) {
+        CachedContent content;
+
+        synchronized (this) {
+            content = entries.get(resource_path);
+        }
+        return content != null && content.getLastModified() == last_modified;
+    }
+
+    /**
+     * Check whether a file of the given size would be cached at all, so that large files are not read into memory for nothing.
+     *
+     * @param length the size of the file.
+     * @return true if the file fits.
+     */
+    public boolean accepts(long length) {
+        return length <= max_entry_bytes;
+    }
+
+    /**
+     * Add a file to the cache and evict the least recently used files until the cache is within its budget again.
+     *
+     * @param resource_path the resolved path of the file.
+     * @param content       the file and its header.
+     */
+    public synchronized void put(String resource_path, CachedContent content) {
+        if (!accepts(content.getBody().length)) {
+            return;
+        }
+
+        CachedContent previous = entries.put(resource_path, content);
+        if (previous != null) {
+            cur_bytes -= previous.getBody().length;
+        }
+        cur_bytes += content.getBody().length;
+
+        Iterator<Map.Entry<String, CachedContent>> eldest = entries.entrySet().iterator();
+        while (cur_bytes > max_bytes && eldest.hasNext()) {
+            cur_bytes -= eldest.next().getValue().getBody().length;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drop the entry of a file, e.g. once it has been deleted.
+     *
+     * @param resource_path the resolved path of the file.
+     */
+    public synchronized void invalidate(String resource_path) {
+        CachedContent previous = entries.remove(resource_path);
+
+        if (previous != null) {
+            cur_bytes -= previous.getBody().length;
+        }
+    }
+
+    /**
+     * Extension: Get the key under which a compressed variant of a file is cached next to the file itself.
+     * The NUL character cannot occur in a path, so the key never collides with the path of another file.
+     *
+     * @param resource_path the resolved path of the file.
+     * @param encoding      the content coding of the variant.
+     * @return the key of the variant.
+     */
+    public static String getVariantKey(String resource_path, ContentEncoding encoding) {
+        return resource_path + '\0' + encoding;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getCurBytes() {
+        return cur_bytes;
+    }
+}
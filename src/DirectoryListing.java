@@ -0,0 +1,328 @@
+import constants.ListingSort;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Extension: One page of the generated index of a directory, sorted by name, size or modification time, in either order.
+ * <p>
+ * The query of the request selects the page: "sort" (name, size or modified), "order" (asc or desc), "limit" (entries per page)
+ * and "after", an opaque cursor naming the last entry of the previous page, which the "Next page" link carries.
+ * The directory is read once per page with a DirectoryStream, and only the entries of the page are kept while reading,
+ * in a bounded heap which holds the smallest entries after the cursor seen so far. So memory depends on the size of the page,
+ * never on the size of the directory, and a later page costs no more than the first. For sorting by name,
+ * only the entries of the page are stat'ed. The page is written to the stream row by row as it is rendered.
+ */
+public class DirectoryListing {
+    private static final int DEFAULT_LIMIT = 1000;
+    private static final int MAX_LIMIT = 10000;
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm", Locale.US)
+            .withZone(ZoneOffset.UTC);
+    private static final String CURSOR_SEPARATOR = "/"; // cannot occur in a name
+
+    /**
+     * An entry of the directory with what the listing shows of it.
+     */
+    private static final class Entry {
+        private String name;
+        private boolean directory;
+        private long size;
+        private long modified;
+
+        private Entry(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Read the attributes of the entry.
+         *
+         * @param path the path of the entry.
+         * @return false if the entry cannot be read, e.g. because it has been deleted meanwhile.
+         */
+        private boolean load(Path path) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                directory = attributes.isDirectory();
+                size = attributes.size();
+                modified = attributes.lastModifiedTime().toMillis();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private ListingSort sort = ListingSort.NAME;
+    private boolean descending = false;
+    private int limit = DEFAULT_LIMIT;
+    private String after;
+
+    /**
+     * Read the page which the query of a request asks for. Unknown parameters and malformed values are ignored.
+     *
+     * @param query the query of the request, or null.
+     * @return the page.
+     */
+    public static DirectoryListing parse(String query) {
+        DirectoryListing listing = new DirectoryListing();
+
+        if (query == null) {
+            return listing;
+        }
+
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals < 0) {
+                continue;
+            }
+
+            String value;
+            try {
+                value = URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+
+            switch (parameter.substring(0, equals)) {
+                case "sort":
+                    ListingSort s = ListingSort.convert(value);
+                    listing.sort = s == ListingSort.NONE ? ListingSort.NAME : s;
+                    break;
+                case "order":
+                    listing.descending = value.equals("desc");
+                    break;
+                case "limit":
+                    try {
+                        listing.limit = Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(value)));
+                    } catch (NumberFormatException e) {
+                        listing.limit = DEFAULT_LIMIT;
+                    }
+                    break;
+                case "after":
+                    listing.after = value;
+                    break;
+                default:
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * Get the query which selects this page, with the parameters in a fixed order, so that it can serve as the key of the page in a cache.
+     *
+     * @return the canonical query.
+     */
+    public String toQuery() {
+        return toQuery(sort, descending, limit, after);
+    }
+
+    private static String toQuery(ListingSort sort, boolean descending, int limit, String after) {
+        String query = "sort=" + sort + "&order=" + (descending ? "desc" : "asc") + "&limit=" + limit;
+
+        return after == null ? query : query + "&after=" + encode(after);
+    }
+
+    /**
+     * Render the page as HTML, reading the directory once.
+     *
+     * @param directory the directory to list.
+     * @param path      the path of the directory as requested, which the links are made from.
+     * @param out       where the page is written to.
+     * @throws IOException is thrown in case of failure of reading the directory or writing to the stream.
+     */
+    public void render(Path directory, String path, OutputStream out) throws IOException {
+        Comparator<Entry> order = getOrder();
+        Entry cursor = parseCursor();
+        PriorityQueue<Entry> page = new PriorityQueue<>(Math.min(limit, DEFAULT_LIMIT) + 1, order.reversed()); // the last entry of the page on top
+        long num_after = 0;
+
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path p : entries) {
+                Entry entry = new Entry(p.getFileName().toString());
+
+                if (sort != ListingSort.NAME && !entry.load(p)) {
+                    continue;
+                }
+                if (cursor != null && order.compare(entry, cursor) <= 0) {
+                    continue;
+                }
+
+                num_after++;
+                if (page.size() < limit) {
+                    page.add(entry);
+                } else if (order.compare(entry, page.peek()) < 0) {
+                    page.poll();
+                    page.add(entry);
+                }
+            }
+        }
+
+        Entry[] rows = page.toArray(new Entry[0]);
+        Arrays.sort(rows, order);
+
+        Writer html = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        String base = path.endsWith("/") ? path : path + "/";
+        String title = escape("Index of " + path);
+
+        html.write("<!DOCTYPE HTML PUBLIC \"-//IETF//DTD HTML 2.0//EN\"><html><head><title>" + title + "</title></head><body><h1>" + title
+                + "</h1>\n<table><tr>" + columnHeader(ListingSort.NAME, "Name") + columnHeader(ListingSort.SIZE, "Size")
+                + columnHeader(ListingSort.MODIFIED, "Modified") + "</tr>\n");
+        if (!base.equals("/")) {
+            String parent = base.substring(0, base.lastIndexOf('/', base.length() - 2) + 1);
+            html.write("<tr><td><a href=\"" + encodePath(parent) + "\">../</a></td><td></td><td></td></tr>\n");
+        }
+
+        for (Entry entry : rows) {
+            if (sort == ListingSort.NAME && !entry.load(directory.resolve(entry.name))) {
+                continue;
+            }
+
+            String name = entry.directory ? entry.name + "/" : entry.name;
+            html.write("<tr><td><a href=\"" + encodePath(base) + encode(entry.name) + (entry.directory ? "/" : "") + "\">" + escape(name)
+                    + "</a></td><td>" + (entry.directory ? "-" : Long.toString(entry.size)) + "</td><td>"
+                    + DATE.format(Instant.ofEpochMilli(entry.modified)) + "</td></tr>\n");
+        }
+        html.write("</table>\n");
+
+        if (num_after > limit) {
+            html.write("<p><a href=\"?" + escape(toQuery(sort, descending, limit, toCursor(rows[rows.length - 1]))) + "\">Next page</a></p>\n");
+        }
+        html.write("</body></html>\n");
+        html.flush();
+    }
+
+    /**
+     * Get the order of the entries: by the sort column, then by name, so that no two entries are equal and a cursor is unambiguous.
+     *
+     * @return the comparator.
+     */
+    private Comparator<Entry> getOrder() {
+        Comparator<Entry> by_name = Comparator.comparing(e -> e.name);
+        Comparator<Entry> order;
+
+        switch (sort) {
+            case SIZE:
+                order = Comparator.<Entry>comparingLong(e -> e.size).thenComparing(by_name);
+                break;
+            case MODIFIED:
+                order = Comparator.<Entry>comparingLong(e -> e.modified).thenComparing(by_name);
+                break;
+            default:
+                order = by_name;
+        }
+        return descending ? order.reversed() : order;
+    }
+
+    /**
+     * Make the cursor after an entry: its name, preceded by the value of the sort column unless sorting by name.
+     *
+     * @param entry the last entry of a page.
+     * @return the cursor.
+     */
+    private String toCursor(Entry entry) {
+        switch (sort) {
+            case SIZE:
+                return entry.size + CURSOR_SEPARATOR + entry.name;
+            case MODIFIED:
+                return entry.modified + CURSOR_SEPARATOR + entry.name;
+            default:
+                return entry.name;
+        }
+    }
+
+    /**
+     * Turn the cursor back into an entry to compare the entries of the directory with.
+     *
+     * @return the last entry of the previous page, or null for the first page or a malformed cursor.
+     */
+    private Entry parseCursor() {
+        if (after == null || sort == ListingSort.NAME) {
+            return after == null ? null : new Entry(after);
+        }
+
+        int separator = after.indexOf(CURSOR_SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+
+        Entry cursor = new Entry(after.substring(separator + 1));
+        try {
+            long value = Long.parseLong(after.substring(0, separator));
+            cursor.size = value;
+            cursor.modified = value;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return cursor;
+    }
+
+    /**
+     * Render the header of a column, which links to the listing sorted by it, in reverse order if it is sorted by it already.
+     *
+     * @param column the sort column.
+     * @param label  the header of the column.
+     * @return the header cell.
+     */
+    private String columnHeader(ListingSort column, String label) {
+        boolean reverse = column == sort && !descending;
+
+        return "<th><a href=\"?" + escape(toQuery(column, reverse, limit, null)) + "\">" + label + "</a></th>";
+    }
+
+    private static String encode(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    private static String encodePath(String path) {
+        StringBuilder encoded = new StringBuilder(path.length() + 16);
+
+        for (String segment : path.split("/", -1)) {
+            if (encoded.length() > 0 || segment.length() > 0) {
+                encoded.append(encode(segment));
+            }
+            encoded.append('/');
+        }
+        return encoded.substring(0, encoded.length() - 1);
+    }
+
+    private static String escape(String s) {
+        StringBuilder escaped = new StringBuilder(s.length() + 16);
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
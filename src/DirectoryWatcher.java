@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Extension: Watches directories of the document root for changes with a WatchService, so that what has been derived from them can be
+ * dropped when they change rather than be checked against the file system on every request.
+ * <p>
+ * Directories are watched from the first time a cache asks for them. A daemon thread takes the events and tells every listener which
+ * directory has changed, and which entry of it if the event says so. The number of watched directories is limited,
+ * since the operating system limits them as well (e.g. inotify watches on Linux); a directory which cannot be watched is simply not cached.
+ */
+public class DirectoryWatcher implements Runnable {
+    private static final int MAX_WATCHED = 4096;
+
+    /**
+     * Extension: What is told about changes in watched directories.
+     */
+    public interface Listener {
+        /**
+         * Called on the watcher's thread after a directory has changed.
+         *
+         * @param directory the directory which has changed.
+         * @param entry     the entry of the directory which has been created, modified or deleted,
+         *                  or null if anything in the directory may have changed (e.g. events have been lost or the directory is gone).
+         */
+        void changed(Path directory, Path entry);
+    }
+
+    private WatchService watch_service;
+    private ConcurrentHashMap<Path, WatchKey> watched = new ConcurrentHashMap<>();
+    private CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private LogFile log_file;
+
+    /**
+     * Initialise variables and start the thread which takes the events.
+     * If the file system cannot be watched, nothing is ever watched, and so nothing which depends on it is cached.
+     *
+     * @param log_file where failures are logged.
+     */
+    public DirectoryWatcher(LogFile log_file) {
+        this.log_file = log_file;
+
+        try {
+            watch_service = FileSystems.getDefault().newWatchService();
+
+            Thread thread = new Thread(this, "directory-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        } catch (IOException | UnsupportedOperationException e) {
+            log_file.logWarning("DIRECTORIES CANNOT BE WATCHED: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tell a listener about every change in the watched directories from now on.
+     *
+     * @param listener what is told.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop telling a listener about changes.
+     *
+     * @param listener what has been told.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Stop watching the directories under a path, e.g. a document root which has been swapped for another one, except for those under
+     * another path which is still served. The listeners are told that everything in them may have changed, so that they drop what they
+     * have derived from them.
+     *
+     * @param root the directory whose subtree is no longer watched.
+     * @param keep a directory whose subtree stays watched, or null.
+     */
+    public void unwatch(Path root, Path keep) {
+        for (Path directory : watched.keySet()) {
+            if (directory.startsWith(root) && (keep == null || !directory.startsWith(keep))) {
+                WatchKey key = watched.remove(directory);
+                if (key != null) {
+                    key.cancel();
+                    notifyListeners(directory, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start watching a directory unless it is watched already.
+     *
+     * @param directory the directory.
+     * @return true if the directory is watched, false if it cannot be.
+     */
+    public boolean watch(Path directory) {
+        if (watched.containsKey(directory)) {
+            return true;
+        }
+        if (watch_service == null || watched.size() >= MAX_WATCHED) {
+            return false;
+        }
+
+        try {
+            watched.computeIfAbsent(directory, d -> {
+                try {
+                    return d.register(watch_service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            return true;
+        } catch (IllegalStateException e) { // including ClosedWatchServiceException
+            return false;
+        }
+    }
+
+    /**
+     * Check whether a directory is being watched.
+     *
+     * @param directory the directory.
+     * @return true if changes to it are reported.
+     */
+    public boolean isWatched(Path directory) {
+        return watched.containsKey(directory);
+    }
+
+    /**
+     * Take the events of the watched directories and tell the listeners, until the watcher is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watch_service.take();
+                Path directory = (Path) key.watchable();
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Path entry = event.kind() == StandardWatchEventKinds.OVERFLOW ? null : directory.resolve((Path) event.context());
+                    notifyListeners(directory, entry);
+                }
+
+                if (!key.reset()) { // the directory is gone or cannot be watched any more
+                    watched.remove(directory, key);
+                    notifyListeners(directory, null);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private void notifyListeners(Path directory, Path entry) {
+        for (Listener listener : listeners) {
+            try {
+                listener.changed(directory, entry);
+            } catch (RuntimeException e) {
+                log_file.logWarning("DIRECTORY LISTENER FAILED: " + e);
+            }
+        }
+    }
+
+    /**
+     * Stop watching every directory and end the thread.
+     */
+    public void close() {
+        if (watch_service != null) {
+            try {
+                watch_service.close();
+            } catch (IOException e) {
+                log_file.logWarning("IOException: " + e.getMessage());
+            }
+        }
+        watched.clear();
+    }
+}
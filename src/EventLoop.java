@@ -0,0 +1,422 @@
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Extension: A single selector thread of the non-blocking engine.
+ * It reads the request of each of its connections as bytes arrive, renders the response with the same Responder as the blocking engine,
+ * and writes it out whenever the socket can take more, together with the regions of mapped files it refers to (see GatheringOutputStream).
+ * A request whose response has to wait for the file system (see Responder.mayBlock()) is rendered on a worker instead,
+ * while the loop goes on serving its other connections and leaves that one alone until the worker hands it back.
+ * <p>
+ * Once the server drains its connections for shutdown, the loop closes every connection as soon as it waits for its next request,
+ * and answers the requests in hand without keeping their connections alive; when it is stopped, it closes whatever connections are left.
+ */
+public class EventLoop implements Runnable {
+    private static final long IDLE_CHECK_INTERVAL = 1000;
+
+    private Selector selector;
+    private Queue<ChannelConnection> pending = new ConcurrentLinkedQueue<>();
+    private Queue<Rendered> rendered = new ConcurrentLinkedQueue<>();
+    private ExecutorService workers;
+    private ServerContext context;
+    private ServerConfig config;
+    private LogFile logger;
+    private long last_idle_check = System.currentTimeMillis();
+    private volatile boolean stopping = false;
+
+    /**
+     * Initialise variables.
+     *
+     * @param context what the handlers of all connections share, i.e. the document root, the log file and the caches.
+     * @param workers the pool which renders the responses that may block.
+     * @throws IOException is thrown in case the selector cannot be opened.
+     */
+    public EventLoop(ServerContext context, ExecutorService workers) throws IOException {
+        this.selector = Selector.open();
+        this.context = context;
+        this.workers = workers;
+        this.config = context.getConfig();
+        this.logger = context.getLogFile();
+    }
+
+    /**
+     * Hand a newly accepted non-blocking channel over to this loop.
+     * Channels have to be registered by the loop's own thread, so the channel is queued and the selector woken up.
+     *
+     * @param channel the accepted connection.
+     */
+    public void register(SocketChannel channel) {
+        pending.add(new ChannelConnection(channel, context));
+        selector.wakeup();
+    }
+
+    /**
+     * Get the number of connections handed over which the loop has not registered yet.
+     *
+     * @return the number of pending connections.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Make the loop close the connections which wait for their next request, see ServerContext.startDraining().
+     */
+    public void drain() {
+        selector.wakeup();
+    }
+
+    /**
+     * Make the loop close every connection it has left and return, whether or not the connections are done.
+     */
+    public void stop() {
+        stopping = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Wait for channels to become readable or writable and serve them until the loop is stopped.
+     * Every now and then, close the kept-alive connections which have been idle for too long.
+     */
+    public void run() {
+        while (!stopping) {
+            try {
+                selector.select(IDLE_CHECK_INTERVAL);
+                registerPending();
+                resumeRendered();
+                closeIdle();
+                if (context.isDraining()) {
+                    closeDrained();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (Throwable t) { // e.g. OutOfMemoryError, which must not take every other connection of the loop down with it
+                        logger.logSevere("EventLoop:run " + t);
+                        close(key);
+                    }
+                }
+            } catch (IOException ioe) {
+                logger.logSevere("EventLoop:run " + ioe.getMessage());
+            }
+        }
+
+        closeAll();
+    }
+
+    /**
+     * Register the channels which have been handed over since the last select for reading.
+     * A client which has already gone gives its slot back straight away.
+     */
+    private void registerPending() {
+        ChannelConnection connection;
+
+        while ((connection = pending.poll()) != null) {
+            try {
+                connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+            } catch (ClosedChannelException e) {
+                context.getAdmissionControl().release();
+            }
+        }
+    }
+
+    /**
+     * Take the connections back whose responses the workers have rendered since the last select,
+     * and go on with their pipelined requests or start writing.
+     */
+    private void resumeRendered() {
+        Rendered done;
+
+        while ((done = rendered.poll()) != null) {
+            SelectionKey key = done.key;
+            ChannelConnection connection = (ChannelConnection) key.attachment();
+
+            connection.setOffloaded(false);
+            if (!key.isValid()) {
+                connection.releaseOutput(); // closed while the worker was rendering, see close()
+                continue;
+            }
+
+            try {
+                if (done.failure != null) {
+                    throw done.failure;
+                }
+                connection.nextRequest();
+                if (done.keep_alive && !connection.isOutputFull() && connection.consume()) {
+                    respond(key);
+                } else {
+                    startOutput(key, done.keep_alive);
+                    write(key);
+                }
+            } catch (Throwable t) {
+                logger.logInfo("EventLoop:resumeRendered " + t);
+                close(key);
+            }
+        }
+    }
+
+    /**
+     * Read whatever has arrived and, once the request head is complete, respond to it.
+     *
+     * @param key the readable channel's key.
+     */
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ChannelConnection connection = (ChannelConnection) key.attachment();
+
+        try {
+            if (connection.read(channel) < 0) {
+                throw new DisconnectedException(" ... client has closed the connection ... ");
+            }
+            connection.touch();
+
+            if (connection.consume()) {
+                respond(key);
+            }
+        } catch (Exception e) {
+            logger.logInfo("EventLoop:read " + e.getMessage());
+            close(key);
+        }
+    }
+
+    /**
+     * Render the responses to the complete request heads in the input buffer and start writing them, see render().
+     *
+     * @param key the channel's key.
+     * @throws IOException is thrown in case of connection failed.
+     */
+    private void respond(SelectionKey key) throws IOException {
+        if (render(key)) {
+            write(key);
+        }
+    }
+
+    /**
+     * Render the responses to the complete request heads in the input buffer, in order, so that they are written in one go.
+     * A client may send several requests back-to-back without waiting (pipelining), in which case they all arrive in a single read.
+     * Once the rendered responses take up their limit of pooled buffers (see ChannelConnection.isOutputFull()), the requests left
+     * wait in the input buffer until the responses have been written, see write().
+     * As soon as a request may block, it is handed to a worker together with the connection, see offload();
+     * the responses rendered before it stay in the output until the worker has appended its own.
+     *
+     * @param key the channel's key.
+     * @return true if the responses are ready to be written, false if a worker renders the last of them.
+     * @throws IOException is thrown in case of connection failed.
+     */
+    private boolean render(SelectionKey key) throws IOException {
+        ChannelConnection connection = (ChannelConnection) key.attachment();
+        Responder responder = connection.getResponder();
+        boolean keep_alive;
+
+        do {
+            Request request = connection.getRequest();
+            boolean allow_keep_alive = request.isKeepAlive()
+                    && connection.getNumRequests() < config.getMaxKeepAliveRequests() && !context.isDraining();
+
+            if (responder.mayBlock(request)) {
+                offload(key, request, allow_keep_alive);
+                return false;
+            }
+            keep_alive = responder.processRequest(request, allow_keep_alive);
+            connection.nextRequest();
+        } while (keep_alive && !connection.isOutputFull() && connection.consume());
+
+        startOutput(key, keep_alive);
+        return true;
+    }
+
+    /**
+     * Render the response to a request on a worker and hand the connection back to the loop once it is done, see resumeRendered().
+     * Meanwhile the loop neither reads from nor writes to the connection, nor closes it as idle.
+     *
+     * @param key              the channel's key.
+     * @param request          the request, which is still the current one of the connection.
+     * @param allow_keep_alive whether the connection may be kept alive after this request.
+     */
+    private void offload(SelectionKey key, Request request, boolean allow_keep_alive) {
+        ChannelConnection connection = (ChannelConnection) key.attachment();
+
+        key.interestOps(0);
+        connection.setOffloaded(true);
+        try {
+            workers.execute(() -> {
+                Rendered done = new Rendered(key);
+                try {
+                    done.keep_alive = connection.getResponder().processRequest(request, allow_keep_alive);
+                } catch (Throwable t) {
+                    done.failure = t;
+                }
+                rendered.add(done);
+                selector.wakeup();
+            });
+        } catch (RejectedExecutionException ree) { // the server is stopping
+            connection.setOffloaded(false);
+            close(key);
+        }
+    }
+
+    /**
+     * Get the responses which have been rendered for the connection ready to be written, once the socket can take them.
+     *
+     * @param key        the channel's key.
+     * @param keep_alive whether the connection is kept alive once they have been written.
+     */
+    private void startOutput(SelectionKey key, boolean keep_alive) {
+        ChannelConnection connection = (ChannelConnection) key.attachment();
+
+        connection.setKeepAlive(keep_alive);
+        connection.startOutput();
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Write as much of the pending responses as the socket takes.
+     * Once all of them have gone, either go on with the pipelined requests left in the input buffer and wait for the next request
+     * on the connection (keep-alive), or close it.
+     *
+     * @param key the writable channel's key.
+     */
+    private void write(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ChannelConnection connection = (ChannelConnection) key.attachment();
+
+        try {
+            do {
+                if (connection.write(channel) > 0) {
+                    long first_byte = connection.firstByteSent();
+                    if (first_byte >= 0) {
+                        context.getMetrics().recordFirstByte(first_byte);
+                    }
+                }
+                connection.touch();
+
+                if (connection.hasRemainingOutput()) {
+                    return;
+                }
+                if (!connection.isKeepAlive()) {
+                    close(key);
+                    return;
+                }
+                connection.releaseOutput();
+                key.interestOps(SelectionKey.OP_READ);
+            } while (connection.consume() && render(key));
+        } catch (IOException ioe) {
+            logger.logInfo("EventLoop:write " + ioe.getMessage());
+            close(key);
+        }
+    }
+
+    /**
+     * Close the kept-alive connections which have waited for their next request for longer than the keep-alive timeout.
+     */
+    private void closeIdle() {
+        long now = System.currentTimeMillis();
+
+        if (now - last_idle_check < IDLE_CHECK_INTERVAL) {
+            return;
+        }
+        last_idle_check = now;
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && ((ChannelConnection) key.attachment()).isIdle(now, config.getKeepAliveTimeout())) {
+                logger.logInfo("EventLoop: ... connection has been idle for too long ... ");
+                close(key);
+            }
+        }
+    }
+
+    /**
+     * Close the kept-alive connections which wait for their next request, while the server drains its connections.
+     */
+    private void closeDrained() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && ((ChannelConnection) key.attachment()).isBetweenRequests()) {
+                logger.logInfo("EventLoop: ... server is shutting down ... ");
+                close(key);
+            }
+        }
+    }
+
+    /**
+     * Close every connection of the loop, including those handed over but not registered yet, and the selector itself,
+     * and release the output of the connections which the workers have handed back meanwhile.
+     */
+    private void closeAll() {
+        ChannelConnection connection;
+
+        for (SelectionKey key : selector.keys()) {
+            close(key);
+        }
+        resumeRendered(); // the workers have been stopped before the loop, see EventLoopServer.stop()
+        while ((connection = pending.poll()) != null) {
+            try {
+                connection.getChannel().close();
+            } catch (IOException ioe) {
+                logger.logSevere("EventLoop: close " + ioe.getMessage());
+            }
+            context.getAdmissionControl().release();
+        }
+
+        try {
+            selector.close();
+        } catch (IOException ioe) {
+            logger.logSevere("EventLoop: close " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Close the connection and release its client slot, unless it has been closed before.
+     * The output of a connection which a worker is rendering into is released once the worker hands it back.
+     *
+     * @param key the channel's key.
+     */
+    private void close(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        key.cancel();
+        ChannelConnection connection = (ChannelConnection) key.attachment();
+        if (!connection.isOffloaded()) {
+            connection.releaseOutput();
+        }
+
+        try {
+            key.channel().close();
+        } catch (IOException ioe) {
+            logger.logSevere("EventLoop: close " + ioe.getMessage());
+        }
+
+        context.getAdmissionControl().release();
+    }
+
+    /**
+     * A response which a worker has rendered, on its way back to the loop.
+     */
+    private static final class Rendered {
+        private final SelectionKey key;
+        private boolean keep_alive;
+        private Throwable failure;
+
+        private Rendered(SelectionKey key) {
+            this.key = key;
+        }
+    }
+}
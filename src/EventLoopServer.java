@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extension: This is the non-blocking engine of the server.
+ * Instead of blocking one thread per socket for the whole request, connections are spread round-robin over a few event loops
+ * (one per core by default), each of which multiplexes all of its connections over a single Selector.
+ * Responses which have to wait for the file system, e.g. directory listings which are not cached, are rendered by a pool of workers
+ * which the loops share, so that a slow disk or a huge directory does not stall every other connection of a loop.
+ * The WebServer starts it, tells it to drain its connections and finally stops it, see WebServer.stop().
+ */
+public class EventLoopServer {
+    private static final ThreadLocal<ByteBuffer> DISCARD = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096)); // one per acceptor
+
+    private ServerConfig config;
+    private ServerContext context;
+    private LogFile logger;
+    private EventLoop[] loops;
+    private ExecutorService workers;
+    private Thread[] threads;
+    private AtomicInteger next_loop = new AtomicInteger();
+
+    /**
+     * Initialise variables.
+     *
+     * @param config  the settings of the server.
+     * @param context what the handlers of all connections share, i.e. the document root, the log file and the caches.
+     */
+    public EventLoopServer(ServerConfig config, ServerContext context) {
+        this.config = config;
+        this.context = context;
+        this.logger = context.getLogFile();
+    }
+
+    /**
+     * 1. Start the event loop threads.
+     * 2. Listen for client connection requests on the specified port and accept them on the Acceptor threads.
+     * 3. Switch every accepted channel to non-blocking mode and hand it over to the next event loop,
+     * or turn the client away if it is over its rate limit or the server is already serving as many connections as it may.
+     * <p>
+     * Extension: The acceptors are returned rather than waited for, so that the WebServer can close them when it stops.
+     *
+     * @return the acceptors, which have been started.
+     * @throws IOException is thrown in case the server channel or a selector fails.
+     */
+    public Acceptor[] start() throws IOException {
+        AtomicInteger next_worker = new AtomicInteger();
+        workers = new ThreadPoolExecutor(config.getPoolSize(), config.getPoolSize(), 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                task -> new Thread(task, "event-loop-worker-" + next_worker.getAndIncrement()));
+
+        loops = new EventLoop[Math.max(1, config.getEventLoops())];
+        threads = new Thread[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(context, workers);
+            threads[i] = new Thread(loops[i], "event-loop-" + i);
+            threads[i].start();
+        }
+        context.getMetrics().setQueueDepth(this::getPendingCount);
+
+        Acceptor[] acceptors;
+        try {
+            acceptors = Acceptor.open(config, channel -> {
+                long limited_nanos = context.getRateLimiter().tryAcquire(channel.socket().getInetAddress());
+
+                if (limited_nanos > 0) {
+                    turnAway(channel, limited_nanos);
+                } else if (context.getAdmissionControl().tryAdmit()) {
+                    channel.configureBlocking(false);
+                    loops[Math.floorMod(next_loop.getAndIncrement(), loops.length)].register(channel);
+                } else {
+                    turnAway(channel, 0);
+                }
+            }, logger);
+        } catch (IOException ioe) {
+            for (EventLoop loop : loops) {
+                loop.stop();
+            }
+            workers.shutdownNow();
+            throw ioe;
+        }
+        context.getMetrics().setAcceptors(acceptors);
+        logger.logInfo("WebServer started ... listening on port " + acceptors[0].getPort()
+                + " ... with " + loops.length + " event loops ...");
+        for (Acceptor acceptor : acceptors) {
+            acceptor.start();
+        }
+        return acceptors;
+    }
+
+    /**
+     * Make every event loop close its connections as soon as they wait for their next request.
+     */
+    public void drain() {
+        for (EventLoop loop : loops) {
+            loop.drain();
+        }
+    }
+
+    /**
+     * Stop the workers and every event loop, which closes whatever connections it has left, and wait for their threads to end.
+     * The workers are stopped first, so that none of them still renders a response into a connection which its loop closes.
+     *
+     * @param millis how long to wait for the workers and for each loop thread at most.
+     * @throws InterruptedException is thrown in case the wait is interrupted.
+     */
+    public void stop(long millis) throws InterruptedException {
+        workers.shutdownNow();
+        workers.awaitTermination(Math.max(1, millis), TimeUnit.MILLISECONDS);
+        for (EventLoop loop : loops) {
+            loop.stop();
+        }
+        for (Thread thread : threads) {
+            thread.join(Math.max(1, millis));
+        }
+    }
+
+    /**
+     * Get the number of accepted connections which the event loops have not taken on yet.
+     *
+     * @return the number of pending connections over all loops.
+     */
+    private int getPendingCount() {
+        int count = 0;
+
+        for (EventLoop loop : loops) {
+            count += loop.getPendingCount();
+        }
+        return count;
+    }
+
+    /**
+     * Answer a client which cannot be admitted with 503 Service Unavailable, or a client which is over its rate limit with 429 Too Many Requests,
+     * and close the connection, without reading its request.
+     * The channel is still in blocking mode, and the short response fits into the socket's send buffer, so this does not hold up the acceptor.
+     *
+     * @param channel       the accepted connection.
+     * @param limited_nanos how long the client has to wait for its rate limit, 0 if the server is full instead.
+     */
+    private void turnAway(SocketChannel channel, long limited_nanos) {
+        try (SocketChannel rejected = channel) {
+            Responder responder = new Responder(Channels.newOutputStream(rejected), null, rejected.socket().getInetAddress(), context);
+            if (limited_nanos > 0) {
+                responder.respondTooManyRequests(limited_nanos);
+            } else {
+                responder.respondServiceUnavailable();
+            }
+            rejected.shutdownOutput();
+            rejected.configureBlocking(false);
+            while (rejected.read(DISCARD.get().clear()) > 0) {
+                // closing with unread request bytes would reset the connection and could take the response with it
+            }
+        } catch (IOException ioe) {
+            logger.logInfo("EventLoopServer:turnAway " + ioe.getMessage());
+        }
+    }
+}
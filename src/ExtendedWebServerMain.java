@@ -21,13 +21,40 @@ public class ExtendedWebServerMain {
      *             2. the port on which the server will listen,
      *             3. the path of the file to which log will write (as a part of the extension).
      *             4. the specified limit of multiple concurrent client connection requests (as a part of the extension).
+     *             These may be followed by optional --name=value settings (see ServerConfig):
+     *             --engine=blocking|nio, --event-loops=count, --acceptors=count, --backlog=count, --reuse-port=true|false,
+     *             --tcp-no-delay=true|false, --send-buffer=size, --receive-buffer=size,
+     *             --dispatch=thread|fixed|elastic|virtual, --pool=size, --max-pool=size, --queue=depth, --saturation=reject|block|caller,
+     *             --keep-alive-timeout=millis, --max-keep-alive-requests=count, --cache-bytes=budget, --cache-max-entry=size,
+     *             --metadata-entries=count, --mmap-threshold=size, --mmap-bytes=budget, --buffer-pool-bytes=budget,
+     *             --buffer-leak-detection=true|false,
+     *             --log-format=plain|binary, --log-overflow=drop|block, --log-buffer=records, --log-flush-interval=millis,
+     *             --retry-after=seconds, --rate-limit=connections_per_second, --rate-limit-burst=connections,
+     *             --rate-limit-clients=count, --metrics-path=path (empty turns the metrics off), --shutdown-timeout=millis.
      */
     public static void main(String[] args) {
+        ServerConfig config;
+
         try {
-            new WebServer(args[FIRST], Integer.parseInt(args[SECOND]), args[THIRD], Integer.parseInt(args[FOURTH]));
+            config = new ServerConfig(args[FIRST], Integer.parseInt(args[SECOND]), args[THIRD], Integer.parseInt(args[FOURTH]));
+            for (int i = FOURTH + 1; i < args.length; i++) {
+                config.applyOption(args[i]);
+            }
         } catch (Exception e) {
-            System.out.println("Usage: java ExtendedWebServerMain <document_root> <port> <log_path> <max_clients>");
+            System.out.println("Usage: java ExtendedWebServerMain <document_root> <port> <log_path> <max_clients>"
+                    + " [--engine=blocking|nio] [--event-loops=count] [--acceptors=count] [--backlog=count] [--reuse-port=true|false]"
+                    + " [--tcp-no-delay=true|false] [--send-buffer=size] [--receive-buffer=size]"
+                    + " [--dispatch=thread|fixed|elastic|virtual] [--pool=size] [--max-pool=size] [--queue=depth]"
+                    + " [--saturation=reject|block|caller] [--keep-alive-timeout=millis] [--max-keep-alive-requests=count]"
+                    + " [--cache-bytes=budget] [--cache-max-entry=size] [--metadata-entries=count] [--mmap-threshold=size] [--mmap-bytes=budget]"
+                    + " [--buffer-pool-bytes=budget] [--buffer-leak-detection=true|false]"
+                    + " [--log-format=plain|binary] [--log-overflow=drop|block] [--log-buffer=records] [--log-flush-interval=millis]"
+                    + " [--retry-after=seconds] [--rate-limit=connections_per_second] [--rate-limit-burst=connections]"
+                    + " [--rate-limit-clients=count] [--metrics-path=path] [--shutdown-timeout=millis]");
+            return;
         }
+
+        new WebServer(config).serve();
     }
 
 }
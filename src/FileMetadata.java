@@ -0,0 +1,141 @@
+import constants.FileType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Extension: What the server needs to know about a path of the document root without asking the file system again,
+ * i.e. whether it exists, whether it is a file or a directory, its size, modification time, type and canonical path.
+ * <p>
+ * The metadata is immutable and describes one version of the path; a change to the path replaces it in the MetadataCache.
+ * The validators (see FileValidators) are derived from it the first time they are needed and kept with it.
+ */
+public class FileMetadata {
+    private Path path;
+    private String resource_path;
+    private boolean exists;
+    private boolean directory;
+    private boolean regular_file;
+    private long size;
+    private long last_modified;
+    private FileType file_type;
+    private boolean canonical;
+    private volatile FileValidators validators;
+
+    private FileMetadata(Path path) {
+        this.path = path;
+        this.resource_path = path.toString();
+        this.file_type = getFileType(resource_path);
+    }
+
+    /**
+     * Read the metadata of a path from the file system, following symbolic links.
+     *
+     * @param path the absolute, normalised path.
+     * @return the metadata, which tells that the path does not exist if it cannot be read.
+     */
+    public static FileMetadata read(Path path) {
+        FileMetadata metadata = new FileMetadata(path);
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            metadata.exists = true;
+            metadata.directory = attributes.isDirectory();
+            metadata.regular_file = attributes.isRegularFile();
+            metadata.size = attributes.size();
+            metadata.last_modified = attributes.lastModifiedTime().toMillis();
+            metadata.canonical = path.equals(path.toRealPath());
+        } catch (IOException | SecurityException e) {
+            metadata.exists = false;
+            metadata.canonical = true;
+        }
+        return metadata;
+    }
+
+    /**
+     * Make the metadata of a path which is known not to exist or must not be served, e.g. one outside the document root.
+     *
+     * @param path the path.
+     * @return the metadata.
+     */
+    public static FileMetadata missing(Path path) {
+        return new FileMetadata(path);
+    }
+
+    /**
+     * Get the file extension.
+     * This method supports for the case that a directory may have a '.', but the filename itself doesn't (e.g. /path/to.a/file).
+     *
+     * @param file_name the name of the file.
+     * @return the type of the file, NONE if the server does not know the extension.
+     */
+    private static FileType getFileType(String file_name) {
+        int i = file_name.lastIndexOf('.'),
+                p = Math.max(file_name.lastIndexOf('/'), file_name.lastIndexOf('\\'));
+
+        return FileType.convert(i > p ? file_name.substring(i + 1) : "");
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Get the path as the string which the caches key files by and which files are opened with.
+     *
+     * @return the resolved path.
+     */
+    public String getResourcePath() {
+        return resource_path;
+    }
+
+    public boolean exists() {
+        return exists;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public boolean isFile() {
+        return regular_file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return last_modified;
+    }
+
+    public FileType getFileType() {
+        return file_type;
+    }
+
+    /**
+     * Check whether the path is its own canonical path, i.e. neither it nor any of its parents is a symbolic link.
+     * Changes to the target of a link are not reported by watching the directory of the link, so such paths are not cached.
+     *
+     * @return true if the path contains no symbolic link.
+     */
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * Get the ETag and Last-Modified of this version of the file, rendering them the first time.
+     *
+     * @return the validators.
+     */
+    public FileValidators getValidators() {
+        FileValidators v = validators;
+
+        if (v == null) {
+            validators = v = new FileValidators(last_modified, size); // a race only renders them twice
+        }
+        return v;
+    }
+}
@@ -0,0 +1,158 @@
+import constants.ContentEncoding;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Extension: The validators of one version of a file, i.e. its ETag and Last-Modified, with which clients make conditional requests.
+ * <p>
+ * The ETag is made from the modification time and the size of the file, so it changes whenever the file does, without reading the file.
+ * Both validators are rendered once, together with their pre-encoded header fields, and kept until the file changes (see FileMetadata).
+ * <p>
+ * Extension: Each compressed variant of the file has validators of its own (see forEncoding()), whose weak ETag names the content coding,
+ * so that the client's copy of one representation is never taken for another.
+ */
+public class FileValidators {
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+    private static final String WEAK_PREFIX = "W/";
+
+    private long last_modified;
+    private long size;
+    private boolean weak;
+    private String etag;
+    private String last_modified_date;
+    private byte[] fields;
+    private volatile FileValidators[] variants; // by the ordinal of the content coding, replaced rather than modified
+
+    /**
+     * Render the validators of a version of a file.
+     *
+     * @param last_modified the modification time of the file in milliseconds.
+     * @param size          the size of the file.
+     */
+    public FileValidators(long last_modified, long size) {
+        this(last_modified, size, ContentEncoding.NONE);
+    }
+
+    /**
+     * Extension: Render the validators of a compressed variant of a version of a file, whose ETag is weak since its bytes differ from the file's.
+     *
+     * @param last_modified the modification time of the file in milliseconds.
+     * @param size          the size of the file.
+     * @param encoding      the content coding of the variant, NONE for the file itself.
+     */
+    private FileValidators(long last_modified, long size, ContentEncoding encoding) {
+        String suffix = encoding == ContentEncoding.NONE ? "" : "-" + encoding;
+
+        this.last_modified = last_modified;
+        this.size = size;
+        this.weak = encoding != ContentEncoding.NONE;
+        this.etag = "\"" + Long.toHexString(last_modified) + "-" + Long.toHexString(size) + suffix + "\"";
+        this.last_modified_date = HTTP_DATE.format(Instant.ofEpochMilli(last_modified));
+        this.fields = ("ETag: " + (weak ? WEAK_PREFIX : "") + etag + "\r\nLast-Modified: " + last_modified_date + "\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Extension: Get the validators of a compressed variant of this version of the file, rendering them the first time.
+     *
+     * @param encoding the content coding of the variant.
+     * @return the validators of the variant, or these validators for NONE.
+     */
+    public FileValidators forEncoding(ContentEncoding encoding) {
+        if (encoding == ContentEncoding.NONE) {
+            return this;
+        }
+
+        FileValidators[] v = variants;
+        if (v == null || v[encoding.ordinal()] == null) {
+            v = v == null ? new FileValidators[ContentEncoding.values().length] : v.clone();
+            v[encoding.ordinal()] = new FileValidators(last_modified, size, encoding);
+            variants = v; // a race only renders a variant twice
+        }
+        return v[encoding.ordinal()];
+    }
+
+    /**
+     * Check whether these validators still belong to the file.
+     *
+     * @param last_modified the current modification time of the file.
+     * @param size          the current size of the file.
+     * @return true if the file has not changed.
+     */
+    public boolean isCurrent(long last_modified, long size) {
+        return this.last_modified == last_modified && this.size == size;
+    }
+
+    /**
+     * Decide whether the client's copy is still up to date, so that 304 Not Modified can be returned instead of the file.
+     * If-None-Match takes precedence: it is satisfied by "*" or by any of the listed ETags (compared weakly).
+     * Only without it, If-Modified-Since is satisfied if the file has not been modified after the given date (to the second).
+     *
+     * @param if_none_match     the If-None-Match header field, or null.
+     * @param if_modified_since the If-Modified-Since header field, or null.
+     * @return true if the client's copy is up to date.
+     */
+    public boolean isNotModified(String if_none_match, String if_modified_since) {
+        if (if_none_match != null) {
+            for (String tag : if_none_match.split(",")) {
+                String t = tag.trim();
+                if (t.equals("*") || stripWeak(t).equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (if_modified_since != null) {
+            try {
+                long since = Instant.from(HTTP_DATE.parse(if_modified_since.trim())).getEpochSecond();
+                return last_modified / 1000 <= since;
+            } catch (DateTimeParseException e) {
+                return false; // a date the server cannot read is ignored
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decide whether the ranges of a request may be served: If-Range asks for them only if the file is still the version the client has,
+     * given by its (strong) ETag or its Last-Modified date; otherwise the whole file has to be sent.
+     *
+     * @param if_range the If-Range header field, or null.
+     * @return true if the ranges may be served.
+     */
+    public boolean matchesIfRange(String if_range) {
+        if (if_range == null) {
+            return true;
+        } else if (weak) {
+            return false;
+        }
+
+        String r = if_range.trim();
+        return r.equals(etag) || r.equals(last_modified_date);
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith(WEAK_PREFIX) ? tag.substring(WEAK_PREFIX.length()) : tag;
+    }
+
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * Get the ETag and Last-Modified header fields, encoded once.
+     * The array is shared, so it must not be modified.
+     *
+     * @return the header fields including their trailing <CR><LF>.
+     */
+    public byte[] getFields() {
+        return fields;
+    }
+}
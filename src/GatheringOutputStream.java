@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Extension: The buffer which the event-loop engine renders responses into, which can hold regions of mapped files as well as bytes.
+ * <p>
+ * Bytes are written into direct buffers taken from the BufferPool one after the other, so rendering allocates nothing and never copies
+ * what it has written so far into a larger array. A region of a mapped file is not copied but recorded after the bytes written before it,
+ * so that the rendered responses become a sequence of buffers (the bytes before the region, the region, the bytes after it, ...)
+ * which go to the socket in gathering writes.
+ * A part of a file which is not mapped is not read in either but recorded as a streamed segment with a single pooled chunk, which is
+ * refilled from the file whenever it has gone to the socket (see prepare()), so a response holds at most one chunk of such a file in memory
+ * however large the file is.
+ * The stream holds its pooled buffers, a reference to every mapped file and the streamed files until release() is called, i.e. until
+ * the responses have been written, and can then be used for the next responses of the connection.
+ */
+public class GatheringOutputStream extends OutputStream {
+    private static final int STREAM_CHUNK_SIZE = BufferPool.LARGE;
+
+    /**
+     * A part of a file which is read into its chunk piece by piece while the responses are written.
+     */
+    private static final class Segment {
+        private FileChannel file;
+        private long position;
+        private long end;
+        private ByteBuffer chunk;
+        private int index; // of the chunk in the buffers
+
+        private boolean isFinished() {
+            return position >= end && !chunk.hasRemaining();
+        }
+    }
+
+    private BufferPool pool;
+    private List<ByteBuffer> buffers = new ArrayList<>();
+    private List<ByteBuffer> pooled = new ArrayList<>();
+    private List<MappedFile> files = new ArrayList<>();
+    private List<Segment> segments = new ArrayList<>();
+    private int next_segment = 0; // the first segment which has not been written completely
+    private long pooled_bytes = 0;
+    private ByteBuffer current; // the pooled buffer being written into, null after a region
+    private ByteBuffer[] gathered = new ByteBuffer[0];
+
+    /**
+     * Initialise variables.
+     *
+     * @param pool where the buffers which bytes are written into come from.
+     */
+    public GatheringOutputStream(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int b) {
+        room().put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            ByteBuffer buffer = room();
+            int n = Math.min(len, buffer.remaining());
+
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Append a part of a file which is streamed from the file while the responses are written, taking over the caller's open file.
+     *
+     * @param file     the file, which is closed by release().
+     * @param position where in the file to start.
+     * @param count    the number of bytes to send.
+     */
+    public void append(FileChannel file, long position, long count) {
+        Segment segment = new Segment();
+        segment.file = file;
+        segment.position = position;
+        segment.end = position + count;
+        segment.chunk = pool.acquire(STREAM_CHUNK_SIZE);
+        segment.index = buffers.size();
+        pooled_bytes += segment.chunk.capacity();
+
+        pooled.add(segment.chunk);
+        buffers.add(segment.chunk);
+        segments.add(segment);
+        current = null;
+    }
+
+    /**
+     * Get the pooled buffer to write into, taking the next one if the current one is full or a region has been appended since.
+     *
+     * @return a buffer with room left.
+     */
+    private ByteBuffer room() {
+        if (current == null || !current.hasRemaining()) {
+            current = pool.acquire(BufferPool.MEDIUM);
+            pooled_bytes += current.capacity();
+            pooled.add(current);
+            buffers.add(current);
+        }
+        return current;
+    }
+
+    /**
+     * Append a region of a mapped file, taking over the caller's reference to the file.
+     *
+     * @param file   the mapped file.
+     * @param region the region of the file, see MappedFile.region().
+     */
+    public void append(MappedFile file, ByteBuffer region) {
+        buffers.add(region);
+        files.add(file);
+        current = null;
+    }
+
+    /**
+     * Get the size of the pooled buffers which the rendered responses hold, i.e. the direct memory they take up,
+     * not counting the regions of mapped files.
+     *
+     * @return the number of bytes.
+     */
+    public long getPooledBytes() {
+        return pooled_bytes;
+    }
+
+    /**
+     * Get the rendered responses as buffers to be written in order. Nothing may be written to the stream afterwards until release().
+     * The chunks of streamed segments are empty at first, see prepare().
+     *
+     * @return the buffers, ready to be read, which stay valid until release().
+     */
+    public ByteBuffer[] toBuffers() {
+        for (ByteBuffer buffer : pooled) {
+            buffer.flip();
+        }
+        next_segment = 0;
+        if (gathered.length != buffers.size()) {
+            gathered = new ByteBuffer[buffers.size()];
+        }
+        return buffers.toArray(gathered);
+    }
+
+    /**
+     * Get the buffers from the given one on ready to be written: the chunk of the first streamed segment which has not been written
+     * completely is refilled from its file once it has gone to the socket, and the buffers after it have to wait until it is finished.
+     *
+     * @param first the index of the first buffer which has not been written completely.
+     * @return the index after the last buffer which may be written now.
+     * @throws IOException is thrown in case of failure of reading the file.
+     */
+    public int prepare(int first) throws IOException {
+        while (next_segment < segments.size()) {
+            Segment segment = segments.get(next_segment);
+
+            if (segment.index < first && segment.isFinished()) {
+                next_segment++;
+                continue;
+            }
+            if (!segment.chunk.hasRemaining() && segment.position < segment.end) {
+                ByteBuffer chunk = segment.chunk.clear();
+                chunk.limit((int) Math.min(chunk.capacity(), segment.end - segment.position));
+                int len = segment.file.read(chunk, segment.position);
+                segment.position = len < 0 ? segment.end : segment.position + len; // the file has shrunk meanwhile
+                chunk.flip();
+            }
+            if (!segment.isFinished()) {
+                return segment.index + 1;
+            }
+            next_segment++;
+        }
+        return buffers.size();
+    }
+
+    /**
+     * Check whether a buffer has been written completely, which for the chunk of a streamed segment means the whole segment.
+     *
+     * @param buffers the buffers returned by toBuffers().
+     * @param index   the index of the buffer.
+     * @return true if nothing of the buffer is left to be written.
+     */
+    public boolean isWritten(ByteBuffer[] buffers, int index) {
+        if (buffers[index].hasRemaining()) {
+            return false;
+        }
+        for (int i = next_segment; i < segments.size() && segments.get(i).index <= index; i++) {
+            if (segments.get(i).index == index) {
+                return segments.get(i).isFinished();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Give back the pooled buffers and the references to the mapped files and close the streamed files, once the buffers have been written or the connection has
+     * been closed, and start afresh.
+     */
+    public void release() {
+        for (ByteBuffer buffer : pooled) {
+            pool.release(buffer);
+        }
+        for (MappedFile file : files) {
+            file.release();
+        }
+        for (Segment segment : segments) {
+            try {
+                segment.file.close();
+            } catch (IOException ignored) {
+                // the file has been read as far as it is needed
+            }
+        }
+        pooled.clear();
+        pooled_bytes = 0;
+        files.clear();
+        segments.clear();
+        buffers.clear();
+        current = null;
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Extension: A concurrent histogram of latencies in nanoseconds, in the style of HdrHistogram.
+ * <p>
+ * Values are counted in log-linear buckets: every power of two is split into 32 equally wide sub-buckets, so any value is placed
+ * within about 3% of its true value, from single nanoseconds up to Long.MAX_VALUE, in a fixed array of fewer than 2000 counters.
+ * The bucket of a value is found with a few shifts, and recording it is one atomic increment, so recording allocates nothing and takes no lock.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private LongAdder total_count = new LongAdder();
+    private LongAdder total_sum = new LongAdder();
+
+    /**
+     * Count a value.
+     *
+     * @param nanos the latency in nanoseconds, negative values count as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+
+        counts.incrementAndGet(bucketOf(value));
+        total_count.increment();
+        total_sum.add(value);
+    }
+
+    /**
+     * Get the number of values recorded so far.
+     *
+     * @return the count.
+     */
+    public long getCount() {
+        return total_count.sum();
+    }
+
+    /**
+     * Get the sum of the values recorded so far.
+     *
+     * @return the sum in nanoseconds.
+     */
+    public long getSum() {
+        return total_sum.sum();
+    }
+
+    /**
+     * Get the number of values recorded so far which are at most the given value (give or take the width of its bucket).
+     *
+     * @param nanos the upper bound in nanoseconds.
+     * @return the cumulative count.
+     */
+    public long getCountAtOrBelow(long nanos) {
+        long count = 0;
+        int last = bucketOf(Math.max(0, nanos));
+
+        for (int i = 0; i <= last; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Get the value below which the given percentage of the recorded values lie, e.g. 99.0 for the 99th percentile.
+     *
+     * @param percentile the percentile between 0 and 100.
+     * @return the highest value of the bucket the percentile falls into, in nanoseconds, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            total += counts.get(i);
+        }
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * total));
+        long count = 0;
+
+        for (int i = 0; i < NUM_BUCKETS && total > 0; i++) {
+            count += counts.get(i);
+            if (count >= target) {
+                return highestValueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Values below 32 get a bucket each; above, a value's highest set bit picks the power of two
+     * and the 5 bits below it pick the sub-bucket.
+     *
+     * @param value a value which is not negative.
+     * @return the index of its bucket.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int sub_bucket = (int) (value >>> shift); // between SUB_BUCKET_COUNT and 2 * SUB_BUCKET_COUNT - 1
+
+        return (shift + 1) * SUB_BUCKET_COUNT + sub_bucket - SUB_BUCKET_COUNT;
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKET_COUNT - 1;
+        long sub_bucket = bucket % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        long highest = ((sub_bucket + 1) << shift) - 1;
+
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+}
@@ -0,0 +1,88 @@
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Extension: A cache of the rendered pages of directory listings, keyed by directory and then by the canonical query of the page.
+ * <p>
+ * A directory's pages are dropped together as soon as the DirectoryWatcher reports a change in it, so a cached page is never stale
+ * and a hit costs no access to the file system at all. Directories which cannot be watched are not cached.
+ * Pages are stored in the map of their directory which was current when rendering started: if the directory changes meanwhile,
+ * that map has already been dropped, and so a page which may have missed the change is never served.
+ * The cache is bounded by the number of directories and pages per directory and is cleared when it is full.
+ */
+public class ListingCache implements DirectoryWatcher.Listener {
+    private static final int MAX_DIRECTORIES = 256;
+    private static final int MAX_PAGES = 16; // per directory
+
+    private ConcurrentHashMap<Path, Map<String, byte[]>> directories = new ConcurrentHashMap<>();
+    private DirectoryWatcher watcher;
+    private long max_page_bytes;
+
+    /**
+     * Initialise variables and listen for changes.
+     *
+     * @param watcher        what reports changes in directories.
+     * @param max_page_bytes pages larger than this are never cached.
+     */
+    public ListingCache(DirectoryWatcher watcher, long max_page_bytes) {
+        this.watcher = watcher;
+        this.max_page_bytes = max_page_bytes;
+        watcher.addListener(this);
+    }
+
+    /**
+     * Look up a rendered page.
+     *
+     * @param directory the listed directory.
+     * @param query     the canonical query of the page, see DirectoryListing.toQuery().
+     * @return the page or null in case of a miss.
+     */
+    public byte[] lookup(Path directory, String query) {
+        Map<String, byte[]> pages = directories.get(directory);
+
+        return pages == null ? null : pages.get(query);
+    }
+
+    /**
+     * Get where the pages of a directory are to be stored, watching the directory from now on.
+     * This has to be called before the directory is read, so that no change after reading it can go unnoticed.
+     *
+     * @param directory the listed directory.
+     * @return the pages of the directory, to put a page into once it is rendered, or null if the directory cannot be cached.
+     */
+    public Map<String, byte[]> getPages(Path directory) {
+        if (max_page_bytes <= 0 || !watcher.watch(directory)) {
+            return null;
+        }
+
+        if (directories.size() >= MAX_DIRECTORIES && !directories.containsKey(directory)) {
+            directories.clear();
+        }
+        Map<String, byte[]> pages = directories.computeIfAbsent(directory, d -> new ConcurrentHashMap<>());
+        if (pages.size() >= MAX_PAGES) {
+            pages.clear();
+        }
+        return pages;
+    }
+
+    /**
+     * Get the size of the largest page which is cached.
+     *
+     * @return the limit in bytes.
+     */
+    public long getMaxPageBytes() {
+        return max_page_bytes;
+    }
+
+    /**
+     * Drop the pages of a directory which has changed. Entries created, modified or deleted all change the listing.
+     *
+     * @param directory the directory which has changed.
+     * @param entry     the entry which has changed, or null.
+     */
+    @Override
+    public void changed(Path directory, Path entry) {
+        directories.remove(directory);
+    }
+}
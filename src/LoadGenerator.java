@@ -0,0 +1,501 @@
+import constants.LoadMode;
+import constants.RequestCode;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Extension: A load generator which drives the server over loopback from a number of kept-alive connections, each in a thread of its own,
+ * with a weighted mix of HEAD, GET, DELETE and OPTIONS requests, and reports the throughput and the latency percentiles.
+ * <p>
+ * In the closed loop (the default), every connection sends its next request as soon as the previous response has arrived, so the load adapts
+ * to the server. In the open loop, every connection sends its requests on a fixed schedule which adds up to the target rate, whether or not
+ * the server keeps up.
+ * <p>
+ * A generator which waits for a slow response before sending the next request does not send the requests it should have sent meanwhile,
+ * so it never measures how long those would have waited (coordinated omission). In the open loop, the latency of every request is therefore
+ * counted from the time the schedule meant to send it, not from the time it was sent, so that a stall shows up in every request it held up.
+ * A closed loop with a target rate is paced to that rate, and every response slower than the interval between requests is back-filled
+ * with the latencies of the requests it held up, as HdrHistogram's recordValueWithExpectedInterval does. Both reports show the corrected
+ * latencies next to the uncorrected ones, i.e. the time from sending a request to its response.
+ * <p>
+ * DELETE requests go to scratch files which the generator creates in the document root right before deleting them, so that they
+ * neither fail nor delete the documents being served. Requests sent during the warmup are not counted.
+ */
+public class LoadGenerator {
+    private static final String OPTION_PREFIX = "--";
+    private static final char OPTION_SEPARATOR = '=';
+    private static final String SCRATCH_PREFIX = "loadgen-";
+    private static final byte[] SCRATCH_CONTENT = "scratch file of the load generator\n".getBytes(StandardCharsets.US_ASCII);
+    private static final double[] PERCENTILES = {50, 75, 90, 99, 99.9, 99.99, 100};
+    private static final int SKIP_BUFFER_SIZE = 16 * 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private String document_root;
+    private int port;
+    private String host = "localhost";
+    private LoadMode mode = LoadMode.CLOSED;
+    private int connections = 16;
+    private double rate = 0; // requests per second over all connections, 0 for an unpaced closed loop
+    private long duration_millis = 10_000;
+    private long warmup_millis = 2000;
+    private RequestCode[] mix_codes = {RequestCode.GET, RequestCode.HEAD, RequestCode.OPTIONS};
+    private int[] mix_weights = {85, 10, 5};
+    private int mix_total;
+    private List<String> paths = new ArrayList<>();
+
+    private LatencyHistogram corrected = new LatencyHistogram();
+    private LatencyHistogram uncorrected = new LatencyHistogram();
+    private AtomicLongArray requests = new AtomicLongArray(RequestCode.values().length);
+    private AtomicLongArray status_classes = new AtomicLongArray(6); // 1xx..5xx by the first digit
+    private LongAdder errors = new LongAdder();
+    private LongAdder reconnects = new LongAdder();
+    private LongAdder bytes_received = new LongAdder();
+
+    /**
+     * Initialise the settings every run needs.
+     *
+     * @param document_root the directory the server serves documents from, where the default paths and the scratch files are.
+     * @param port          the port the server is listening on.
+     */
+    public LoadGenerator(String document_root, int port) {
+        this.document_root = document_root;
+        this.port = port;
+    }
+
+    /**
+     * Override one of the settings of the run from a command-line option of the form --name=value, e.g. --connections=64.
+     *
+     * @param option the command-line option.
+     * @return false if the option is not one of the load generator's.
+     * @throws IllegalArgumentException is thrown in case of a malformed value.
+     */
+    public boolean applyOption(String option) {
+        int i = option.indexOf(OPTION_SEPARATOR);
+
+        if (!option.startsWith(OPTION_PREFIX) || i < 0) {
+            throw new IllegalArgumentException("MALFORMED OPTION " + option);
+        }
+
+        String name = option.substring(OPTION_PREFIX.length(), i);
+        String value = option.substring(i + 1);
+
+        switch (name) {
+            case "host":
+                host = value;
+                break;
+            case "mode":
+                mode = LoadMode.convert(value);
+                if (mode == LoadMode.NONE) {
+                    throw new IllegalArgumentException("UNKNOWN LOAD MODE " + value);
+                }
+                break;
+            case "connections":
+                connections = Integer.parseInt(value);
+                break;
+            case "rate":
+                rate = Double.parseDouble(value);
+                break;
+            case "duration":
+                duration_millis = (long) (Double.parseDouble(value) * 1000);
+                break;
+            case "warmup":
+                warmup_millis = (long) (Double.parseDouble(value) * 1000);
+                break;
+            case "mix":
+                setMix(value);
+                break;
+            case "paths":
+                paths.clear();
+                for (String path : value.split(",")) {
+                    paths.add(path.startsWith("/") ? path : "/" + path);
+                }
+                break;
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Set the weights of the request codes from a list like GET:85,HEAD:10,OPTIONS:5,DELETE:0.
+     *
+     * @param mix the comma-separated code:weight pairs.
+     */
+    private void setMix(String mix) {
+        String[] entries = mix.split(",");
+
+        mix_codes = new RequestCode[entries.length];
+        mix_weights = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            int colon = entries[i].indexOf(':');
+            mix_codes[i] = RequestCode.convert(colon < 0 ? entries[i] : entries[i].substring(0, colon));
+            mix_weights[i] = colon < 0 ? 1 : Integer.parseInt(entries[i].substring(colon + 1));
+            if (mix_codes[i] == RequestCode.NONE || mix_weights[i] < 0) {
+                throw new IllegalArgumentException("MALFORMED MIX ENTRY " + entries[i]);
+            }
+        }
+    }
+
+    /**
+     * Check the settings, run the connections for the warmup and the measured duration, and print the report.
+     *
+     * @throws InterruptedException is thrown in case the run is interrupted.
+     */
+    public void run() throws InterruptedException {
+        if (connections < 1 || duration_millis <= 0) {
+            throw new IllegalArgumentException("THE RUN NEEDS AT LEAST ONE CONNECTION AND A DURATION");
+        }
+        if (mode == LoadMode.OPEN && rate <= 0) {
+            throw new IllegalArgumentException("THE OPEN LOOP NEEDS A TARGET RATE");
+        }
+        mix_total = 0;
+        for (int weight : mix_weights) {
+            mix_total += weight;
+        }
+        if (mix_total == 0) {
+            throw new IllegalArgumentException("THE MIX HAS NO WEIGHT");
+        }
+        if (paths.isEmpty()) {
+            findPaths();
+        }
+
+        long interval = rate > 0 ? (long) (connections * 1e9 / rate) : 0;
+        long start = System.nanoTime();
+        long measure_start = start + warmup_millis * 1_000_000L;
+        long end = measure_start + duration_millis * 1_000_000L;
+        Thread[] threads = new Thread[connections];
+
+        for (int i = 0; i < connections; i++) {
+            int id = i;
+            long first = start + interval * i / connections; // spread the connections' schedules over one interval
+            threads[i] = new Thread(() -> drive(id, first, interval, measure_start, end), "load-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        report(interval);
+    }
+
+    /**
+     * Use every regular file at the top of the document root, except for scratch files, as a target of HEAD, GET and OPTIONS requests.
+     */
+    private void findPaths() {
+        File[] files = new File(document_root).listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !file.getName().startsWith(SCRATCH_PREFIX)) {
+                    paths.add("/" + file.getName());
+                }
+            }
+        }
+        if (paths.isEmpty()) {
+            paths.add("/");
+        }
+    }
+
+    /**
+     * Send requests over one connection until the end of the run, reconnecting whenever the server closes it.
+     *
+     * @param id            the number of the connection.
+     * @param first         when the schedule of the connection starts, in System.nanoTime().
+     * @param interval      the time between two requests of the connection in nanoseconds, 0 for no pacing.
+     * @param measure_start when the warmup is over.
+     * @param end           when the run is over.
+     */
+    private void drive(int id, long first, long interval, long measure_start, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Client client = new Client();
+        long next = first;
+        long seq = 0;
+
+        while (true) {
+            long intended;
+            if (mode == LoadMode.OPEN) {
+                intended = next; // fixed no matter how late the previous response was
+                next += interval;
+            } else {
+                intended = Math.max(next, System.nanoTime());
+                next = intended + interval;
+            }
+            if (intended >= end) {
+                break;
+            }
+            sleepUntil(intended);
+
+            RequestCode code = pickCode(random);
+            String target;
+            if (code == RequestCode.DELETE) {
+                target = "/" + SCRATCH_PREFIX + id + "-" + seq++;
+                try {
+                    Files.write(new File(document_root, target.substring(1)).toPath(), SCRATCH_CONTENT);
+                } catch (IOException e) {
+                    errors.increment();
+                    continue;
+                }
+            } else {
+                target = paths.get(random.nextInt(paths.size()));
+            }
+
+            long sent = System.nanoTime();
+            int status;
+            try {
+                status = client.exchange(code, target);
+            } catch (IOException e) {
+                client.close();
+                status = -1;
+            }
+            long done = System.nanoTime();
+
+            if (intended < measure_start) {
+                continue;
+            }
+            if (status < 0) {
+                errors.increment();
+                continue;
+            }
+            requests.incrementAndGet(code.ordinal());
+            status_classes.incrementAndGet(Math.min(status / 100, status_classes.length() - 1));
+            uncorrected.record(done - sent);
+            recordCorrected(done - intended, mode == LoadMode.CLOSED ? interval : 0);
+        }
+        client.close();
+    }
+
+    /**
+     * Record a latency, and for a paced closed loop also the latencies of the requests it held up, one interval shorter each.
+     *
+     * @param nanos    the latency.
+     * @param interval the time between two requests of the connection, 0 when nothing is to be back-filled.
+     */
+    private void recordCorrected(long nanos, long interval) {
+        corrected.record(nanos);
+        if (interval > 0) {
+            for (long missing = nanos - interval; missing >= interval; missing -= interval) {
+                corrected.record(missing);
+            }
+        }
+    }
+
+    private RequestCode pickCode(ThreadLocalRandom random) {
+        int pick = random.nextInt(mix_total);
+        for (int i = 0; i < mix_codes.length; i++) {
+            pick -= mix_weights[i];
+            if (pick < 0) {
+                return mix_codes[i];
+            }
+        }
+        return mix_codes[mix_codes.length - 1];
+    }
+
+    private static void sleepUntil(long deadline) {
+        for (long left = deadline - System.nanoTime(); left > 0; left = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+        }
+    }
+
+    /**
+     * Print the throughput, the counts of the request codes and the response classes, and the latency percentiles.
+     *
+     * @param interval the time between two requests of a connection in nanoseconds, 0 for no pacing.
+     */
+    private void report(long interval) {
+        double seconds = duration_millis / 1000.0;
+        long completed = uncorrected.getCount();
+
+        System.out.printf(Locale.ROOT, "mode          %s loop, %d connections, %s, %.1f s after a %.1f s warmup%n", mode, connections,
+                rate > 0 ? String.format(Locale.ROOT, "target %.1f req/s", rate) : "unpaced", seconds, warmup_millis / 1000.0);
+        System.out.printf(Locale.ROOT, "requests      %d completed, %d errors, %d reconnects%n", completed, errors.sum(), reconnects.sum());
+        System.out.printf(Locale.ROOT, "throughput    %.1f req/s, %.2f MB/s%n", completed / seconds, bytes_received.sum() / seconds / (1024 * 1024));
+
+        StringBuilder counts = new StringBuilder();
+        for (RequestCode code : RequestCode.values()) {
+            if (requests.get(code.ordinal()) > 0) {
+                counts.append(' ').append(code).append(' ').append(requests.get(code.ordinal()));
+            }
+        }
+        System.out.println("requests by  " + counts);
+
+        counts.setLength(0);
+        for (int i = 1; i < status_classes.length(); i++) {
+            counts.append(' ').append(i).append("xx ").append(status_classes.get(i));
+        }
+        System.out.println("responses    " + counts);
+
+        System.out.println(mode == LoadMode.CLOSED && interval == 0
+                ? "latency (ms)  uncorrected (an unpaced closed loop has no schedule to correct against)"
+                : "latency (ms)    corrected  uncorrected");
+        for (double percentile : PERCENTILES) {
+            System.out.printf(Locale.ROOT, "  p%-9s %12.3f %12.3f%n", percentile == 100 ? "max" : percentile % 1 == 0 ? String.valueOf((long) percentile) : String.valueOf(percentile),
+                    corrected.getValueAtPercentile(percentile) / 1e6, uncorrected.getValueAtPercentile(percentile) / 1e6);
+        }
+    }
+
+    /**
+     * One kept-alive connection to the server, which sends a request and reads its response to the end.
+     */
+    private class Client {
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+        private byte[] skip_buffer = new byte[SKIP_BUFFER_SIZE];
+        private StringBuilder line = new StringBuilder();
+        private boolean connected_before = false;
+
+        /**
+         * Send a request and read the whole response.
+         *
+         * @param code   the request code.
+         * @param target the requested path.
+         * @return the status code of the response.
+         * @throws IOException is thrown in case the connection fails or the response is malformed.
+         */
+        int exchange(RequestCode code, String target) throws IOException {
+            if (socket == null) {
+                connect();
+            }
+            out.write((code + " " + target + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            String status_line = readLine();
+            if (status_line == null || !status_line.startsWith("HTTP/") || status_line.length() < 12) {
+                throw new IOException("MALFORMED STATUS LINE " + status_line);
+            }
+            int status = Integer.parseInt(status_line.substring(9, 12));
+
+            long content_length = -1;
+            boolean chunked = false;
+            boolean close = false;
+            for (String field = readLine(); field != null && !field.isEmpty(); field = readLine()) {
+                int colon = field.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = field.substring(0, colon).trim();
+                String value = field.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    content_length = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    close = value.equalsIgnoreCase("close");
+                }
+            }
+
+            boolean no_body = code == RequestCode.HEAD || status / 100 == 1 || status == 204 || status == 304;
+            if (no_body) {
+                // nothing follows the head
+            } else if (chunked) {
+                readChunks();
+            } else if (content_length >= 0) {
+                skip(content_length);
+            } else {
+                skip(Long.MAX_VALUE); // the body ends with the connection
+                close = true;
+            }
+
+            if (close) {
+                close();
+            }
+            return status;
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream(), SKIP_BUFFER_SIZE);
+            out = socket.getOutputStream();
+            if (connected_before) {
+                reconnects.increment();
+            }
+            connected_before = true;
+        }
+
+        private void readChunks() throws IOException {
+            while (true) {
+                String size_line = readLine();
+                if (size_line == null) {
+                    throw new IOException("CONNECTION CLOSED IN A CHUNKED BODY");
+                }
+                int extension = size_line.indexOf(';');
+                long size = Long.parseLong((extension < 0 ? size_line : size_line.substring(0, extension)).trim(), 16);
+                if (size == 0) {
+                    while (!readLine().isEmpty()) {
+                        // trailer fields
+                    }
+                    return;
+                }
+                skip(size);
+                readLine(); // the CRLF after the chunk
+            }
+        }
+
+        private void skip(long count) throws IOException {
+            while (count > 0) {
+                int n = in.read(skip_buffer, 0, (int) Math.min(count, skip_buffer.length));
+                if (n < 0) {
+                    if (count > Long.MAX_VALUE / 2) {
+                        return; // the body was read to the end of the connection
+                    }
+                    throw new IOException("CONNECTION CLOSED IN A BODY");
+                }
+                bytes_received.add(n);
+                count -= n;
+            }
+        }
+
+        /**
+         * Read a line of the head, without its CRLF.
+         *
+         * @return the line, or null if the connection has been closed before it.
+         * @throws IOException is thrown in case the connection fails.
+         */
+        private String readLine() throws IOException {
+            line.setLength(0);
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) {
+                    if (line.length() == 0) {
+                        return null;
+                    }
+                    break;
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            bytes_received.add(line.length() + 2);
+            return line.toString();
+        }
+
+        void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // the connection is gone either way
+                }
+                socket = null;
+            }
+        }
+    }
+}
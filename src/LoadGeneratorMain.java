@@ -0,0 +1,85 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This is where the main methods is for running the load generator, see LoadGenerator.
+ * <p>
+ * Unless told that the server is running already, it starts one in the same JVM on the given port, with the options which are not
+ * the load generator's (see ServerConfig), and drives it over loopback.
+ */
+public class LoadGeneratorMain {
+    /**
+     * This is used to index command-line argument variables instead of using numeric numbers due to magic number issue.
+     */
+    private static final int FIRST = 0;
+    private static final int SECOND = 1;
+
+    private static final String EXTERNAL_OPTION = "--external=";
+    private static final int DEFAULT_MAX_CLIENTS = Integer.MAX_VALUE;
+
+    /**
+     * Start the server unless it is external, run the load and print the report.
+     *
+     * @param args two command-line arguments required:
+     *             1. the directory from which the server serves documents, e.g. Resources/www,
+     *             2. the port on which the server listens.
+     *             These may be followed by optional --name=value settings of the load generator:
+     *             --mode=closed|open, --connections=count, --rate=requests_per_second, --duration=seconds, --warmup=seconds,
+     *             --mix=GET:85,HEAD:10,OPTIONS:5,DELETE:0, --paths=/index.html,/page2.html, --host=name,
+     *             --external=true (the server is running already),
+     *             and by the settings of the server it starts, e.g. --engine=nio (see ServerConfig).
+     */
+    public static void main(String[] args) {
+        LoadGenerator generator;
+        ServerConfig config;
+        boolean external = false;
+
+        try {
+            generator = new LoadGenerator(args[FIRST], Integer.parseInt(args[SECOND]));
+            File log = File.createTempFile("loadgen", ".log");
+            log.deleteOnExit();
+            config = new ServerConfig(args[FIRST], Integer.parseInt(args[SECOND]), log.getPath(), DEFAULT_MAX_CLIENTS);
+
+            for (int i = SECOND + 1; i < args.length; i++) {
+                if (args[i].startsWith(EXTERNAL_OPTION)) {
+                    external = Boolean.parseBoolean(args[i].substring(EXTERNAL_OPTION.length()));
+                } else if (!generator.applyOption(args[i])) {
+                    config.applyOption(args[i]);
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Usage: java LoadGeneratorMain <document_root> <port>"
+                    + " [--mode=closed|open] [--connections=count] [--rate=requests_per_second] [--duration=seconds] [--warmup=seconds]"
+                    + " [--mix=GET:85,HEAD:10,OPTIONS:5,DELETE:0] [--paths=/a,/b] [--host=name] [--external=true]"
+                    + " [server options, see ExtendedWebServerMain]");
+            return;
+        }
+
+        WebServer server = null;
+        try {
+            if (!external) {
+                server = startServer(config);
+            }
+            generator.run();
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+        }
+        if (server != null) {
+            server.stop(config.getShutdownTimeout());
+        }
+    }
+
+    /**
+     * Start the server in this JVM.
+     * It accepts connections as soon as this returns, so the load needs no probe connection to wait for it.
+     *
+     * @param config the settings of the server.
+     * @return the started server, which the caller stops once the load has run.
+     * @throws IOException is thrown in case the server cannot listen on its port.
+     */
+    private static WebServer startServer(ServerConfig config) throws IOException {
+        WebServer server = new WebServer(config);
+        server.start();
+        return server;
+    }
+}
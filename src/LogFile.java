@@ -1,26 +1,107 @@
+import constants.LogFormat;
+import constants.LogOverflowPolicy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
-import java.util.logging.FileHandler;
-import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Extension: This is used to log each time requests are made, indicating data/time, request type, response code etc.
+ * <p>
+ * Logging is asynchronous: the threads serving requests only add a compact record (time, kind, code or message, client address)
+ * to a lock-free LogRing, and a single background thread formats the records and writes them to the file in batches,
+ * flushing at most once per flush interval. When the ring is full, a record is either dropped (and counted) or waits for room,
+ * depending on the overflow policy. Warnings and severe-level messages are also echoed to the console.
+ * <p>
+ * The file is either plain text, one line per record, or binary: the magic bytes "WSLOG" and a version byte, followed by records of
+ * the time (8 bytes, milliseconds since the epoch), the kind (1 byte: info, warning, severe, request, response),
+ * the client address (1 length byte, then 0, 4 or 16 bytes) and the message or code (modified UTF-8 with a 2-byte length).
  */
 public class LogFile {
-    private Logger logger;
+    private static final byte INFO = 0;
+    private static final byte WARNING = 1;
+    private static final byte SEVERE = 2;
+    private static final byte REQUEST = 3;
+    private static final byte RESPONSE = 4;
+    private static final String[] LEVELS = {"INFO", "WARNING", "SEVERE", "INFO", "INFO"};
+
+    private static final byte[] BINARY_MAGIC = {'W', 'S', 'L', 'O', 'G', 1};
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_TEXT_LENGTH = 16 * 1024; // modified UTF-8 takes up to 3 bytes per char, within writeUTF's 64 KB
+    private static final long BLOCK_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private LogRing ring;
+    private LogFormat format;
+    private LogOverflowPolicy overflow_policy;
+    private long flush_interval_nanos;
+    private OutputStream out;
+    private Thread writer;
+    private Thread closer = new Thread(this::close, "log-closer");
+    private AtomicLong dropped = new AtomicLong();
+    private volatile long flushed = 0; // the ring position up to which records have been written and flushed
+    private volatile boolean closed = false;
+
+    private long cached_second = -1; // the writer's cache of the formatted date/time of the current second
+    private String cached_date;
 
     /**
-     * Configure the logger with handler and formatter.
+     * Configure the logger with the default settings, i.e. plain text, a buffer of 8192 records which blocks when it is full,
+     * and flushing once a second.
      *
      * @param file_path where log message will be written to.
      * @throws IOException is thrown in case of failure of reading file.
      */
     public LogFile(String file_path) throws IOException {
-        logger = Logger.getLogger("LogFile");
-        FileHandler file_handler = new FileHandler(file_path);
-        file_handler.setFormatter(new SimpleFormatter());
-        logger.addHandler(file_handler);
+        this(file_path, LogFormat.PLAIN, LogOverflowPolicy.BLOCK, 8192, 1000);
+    }
+
+    /**
+     * Configure the logger from the settings of the server.
+     *
+     * @param config the settings of the server.
+     * @throws IOException is thrown in case of failure of reading file.
+     */
+    public LogFile(ServerConfig config) throws IOException {
+        this(config.getLogPath(), config.getLogFormat(), config.getLogOverflowPolicy(), config.getLogBufferSize(), config.getLogFlushInterval());
+    }
+
+    /**
+     * Open the file and start the log writer thread.
+     *
+     * @param file_path       where log message will be written to.
+     * @param format          whether the file is plain text or binary.
+     * @param overflow_policy what happens to a record when the buffer is full.
+     * @param buffer_size     the number of records the buffer holds.
+     * @param flush_interval  how often the writer flushes the file, in milliseconds.
+     * @throws IOException is thrown in case of failure of reading file.
+     */
+    public LogFile(String file_path, LogFormat format, LogOverflowPolicy overflow_policy, int buffer_size, long flush_interval) throws IOException {
+        this.ring = new LogRing(buffer_size);
+        this.format = format;
+        this.overflow_policy = overflow_policy;
+        this.flush_interval_nanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flush_interval));
+        this.out = new BufferedOutputStream(new FileOutputStream(file_path), WRITE_BUFFER_SIZE);
+
+        if (format == LogFormat.BINARY) {
+            out = new DataOutputStream(out);
+            out.write(BINARY_MAGIC);
+        }
+
+        writer = new Thread(this::write, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(closer);
     }
 
     /**
@@ -29,7 +110,7 @@ public class LogFile {
      * @param msg information message.
      */
     public void logInfo(String msg) {
-        logger.info(msg);
+        record(INFO, msg, null);
     }
 
     /**
@@ -39,7 +120,7 @@ public class LogFile {
      * @param inet_address client's ip address.
      */
     public void logRequest(String request_code, InetAddress inet_address) {
-        logger.info("Receive: " + request_code + " from " + inet_address);
+        record(REQUEST, request_code, inet_address);
     }
 
     /**
@@ -49,7 +130,7 @@ public class LogFile {
      * @param inet_address  client's ip address.
      */
     public void logRespond(String response_code, InetAddress inet_address) {
-        logger.info("Response: " + response_code + " to " + inet_address);
+        record(RESPONSE, response_code, inet_address);
     }
 
     /**
@@ -58,7 +139,7 @@ public class LogFile {
      * @param msg warning message.
      */
     public void logWarning(String msg) {
-        logger.warning(msg);
+        record(WARNING, msg, null);
     }
 
     /**
@@ -67,6 +148,199 @@ public class LogFile {
      * @param msg severe-level message.
      */
     public void logSevere(String msg) {
-        logger.severe(msg);
+        record(SEVERE, msg, null);
+    }
+
+    /**
+     * Extension: Wait until every record logged so far has been written to the file and flushed.
+     */
+    public void flush() {
+        long target = ring.getTail();
+
+        while (flushed < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+        }
+    }
+
+    /**
+     * Extension: Write out whatever is left in the buffer, stop the log writer and close the file.
+     * Records logged afterwards are dropped.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Extension: Leave closing the log at shutdown to its owner, e.g. a server which drains its connections on shutdown and
+     * closes the log afterwards, so that what it logs while draining is not dropped.
+     */
+    public void keepOpenOnShutdown() {
+        try {
+            Runtime.getRuntime().removeShutdownHook(closer);
+        } catch (IllegalStateException e) {
+            // the shutdown has begun already
+        }
+    }
+
+    /**
+     * Extension: Get the number of records dropped so far because the buffer was full (or the log had been closed).
+     *
+     * @return the number of dropped records.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Add a record to the ring. Only the string concatenation of the message is left to the log writer.
+     * The writer is woken up each time another half of the ring has been filled, so that it drains the ring before its flush interval is up.
+     * If the writer has died, e.g. the disk is full, nothing drains the ring any more, so a record which does not fit is dropped
+     * whatever the overflow policy, rather than making the thread wait for ever.
+     *
+     * @param kind    the kind of record.
+     * @param text    the message or the request/response code.
+     * @param address the client's ip address, or null.
+     */
+    private void record(byte kind, String text, InetAddress address) {
+        long time = System.currentTimeMillis();
+        long pos;
+
+        while ((pos = ring.offer(time, kind, text, address)) < 0) {
+            if (closed || overflow_policy == LogOverflowPolicy.DROP || !writer.isAlive()) {
+                if (dropped.incrementAndGet() % ring.getCapacity() == 1) {
+                    LockSupport.unpark(writer); // the writer is behind, so get it going rather than wait for its flush interval
+                }
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+        }
+
+        if ((pos & (ring.getCapacity() / 2 - 1)) == 0) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * The log writer: drain the ring in batches, flush the file when the ring is empty or the flush interval is up,
+     * and otherwise sleep for the flush interval. Once the log is closed, drain what is left and close the file.
+     */
+    private void write() {
+        long last_flush = System.nanoTime();
+        long last_dropped = 0;
+        long written = 0;
+
+        try {
+            while (true) {
+                boolean closing = closed; // read before draining, so that nothing logged before close() is missed
+                int slot;
+                int batch = 0;
+
+                while ((slot = ring.peek()) >= 0) {
+                    writeRecord(ring.getTime(slot), ring.getKind(slot), ring.getText(slot), ring.getAddress(slot));
+                    ring.release(slot);
+                    batch++;
+                }
+                written += batch;
+
+                long num_dropped = dropped.get();
+                if (num_dropped != last_dropped) {
+                    writeRecord(System.currentTimeMillis(), WARNING, (num_dropped - last_dropped) + " LOG RECORDS HAVE BEEN DROPPED", null);
+                    last_dropped = num_dropped;
+                }
+
+                long now = System.nanoTime();
+                if (batch == 0 || now - last_flush >= flush_interval_nanos) {
+                    out.flush();
+                    flushed = written;
+                    last_flush = now;
+                }
+
+                if (closing && batch == 0) {
+                    break;
+                }
+                if (batch == 0) {
+                    LockSupport.parkNanos(flush_interval_nanos);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("LogFile: " + e.getMessage());
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("LogFile: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write one record in the format of the file, echoing warnings and severe-level messages to the console.
+     *
+     * @param time    when the record was made, in milliseconds since the epoch.
+     * @param kind    the kind of record.
+     * @param text    the message or the request/response code.
+     * @param address the client's ip address, or null.
+     * @throws IOException is thrown in case of failure of writing the file.
+     */
+    private void writeRecord(long time, byte kind, String text, InetAddress address) throws IOException {
+        if (text == null) {
+            text = "null";
+        }
+
+        if (format == LogFormat.BINARY) {
+            DataOutputStream data = (DataOutputStream) out;
+            byte[] address_bytes = address != null ? address.getAddress() : new byte[0];
+
+            data.writeLong(time);
+            data.writeByte(kind);
+            data.writeByte(address_bytes.length);
+            data.write(address_bytes);
+            data.writeUTF(text.length() > MAX_TEXT_LENGTH ? text.substring(0, MAX_TEXT_LENGTH) : text);
+        } else {
+            String line = formatDate(time) + " " + LEVELS[kind] + " " + formatMessage(kind, text, address) + System.lineSeparator();
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+        }
+
+        if (kind == WARNING || kind == SEVERE) {
+            System.err.println(LEVELS[kind] + ": " + text);
+        }
+    }
+
+    /**
+     * Format the date/time of a record, reusing the formatted second for all records made within the same second.
+     *
+     * @param time milliseconds since the epoch.
+     * @return the date/time with milliseconds.
+     */
+    private String formatDate(long time) {
+        long second = time / 1000;
+        long millis = time % 1000;
+
+        if (second != cached_second) {
+            cached_date = DATE_FORMAT.format(Instant.ofEpochSecond(second));
+            cached_second = second;
+        }
+
+        return cached_date + (millis < 10 ? ".00" : millis < 100 ? ".0" : ".") + millis;
+    }
+
+    private static String formatMessage(byte kind, String text, InetAddress address) {
+        switch (kind) {
+            case REQUEST:
+                return "Receive: " + text + " from " + address;
+            case RESPONSE:
+                return "Response: " + text + " to " + address;
+            default:
+                return text;
+        }
     }
 }
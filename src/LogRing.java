@@ -0,0 +1,127 @@
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Extension: A bounded, lock-free ring buffer of log records, which any number of threads add to and a single log writer drains.
+ * <p>
+ * The records are kept in preallocated parallel arrays, so adding one allocates nothing. Each slot has a sequence number which tells
+ * whose turn it is: a thread claims the next position with a single compare-and-set, fills the slot and then publishes it by advancing
+ * the slot's sequence; the writer takes published slots in order and hands them back by advancing the sequence by one lap.
+ */
+public class LogRing {
+    private int capacity;
+    private int mask;
+    private AtomicLongArray sequences;
+    private AtomicLong tail = new AtomicLong(); // the next position to be claimed
+    private long head = 0;                      // the next position to be taken, only used by the writer
+
+    private long[] times;
+    private byte[] kinds;
+    private String[] texts;
+    private InetAddress[] addresses;
+
+    /**
+     * Initialise the slots.
+     *
+     * @param capacity the number of records the ring holds, rounded up to a power of two.
+     */
+    public LogRing(int capacity) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.sequences = new AtomicLongArray(this.capacity);
+        this.times = new long[this.capacity];
+        this.kinds = new byte[this.capacity];
+        this.texts = new String[this.capacity];
+        this.addresses = new InetAddress[this.capacity];
+
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add a record unless the ring is full.
+     *
+     * @param time    when the record was made, in milliseconds since the epoch.
+     * @param kind    the kind of record, see LogFile.
+     * @param text    the message or the request/response code.
+     * @param address the client's ip address, or null.
+     * @return the position the record was added at, or -1 if the ring is full.
+     */
+    public long offer(long time, byte kind, String text, InetAddress address) {
+        long pos = tail.get();
+
+        while (true) {
+            int i = (int) pos & mask;
+            long seq = sequences.get(i);
+
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    times[i] = time;
+                    kinds[i] = kind;
+                    texts[i] = text;
+                    addresses[i] = address;
+                    sequences.set(i, pos + 1); // publish: the writer reads the slot only after seeing this
+                    return pos;
+                }
+                pos = tail.get();
+            } else if (seq < pos) {
+                return -1; // the slot still holds the record from one lap ago
+            } else {
+                pos = tail.get(); // another thread has claimed the position meanwhile
+            }
+        }
+    }
+
+    /**
+     * Writer only: find the next record, if it has been published yet.
+     *
+     * @return the slot of the record, to be read with the getters and handed back with release(), or -1 if there is none.
+     */
+    public int peek() {
+        int i = (int) head & mask;
+        return sequences.get(i) == head + 1 ? i : -1;
+    }
+
+    /**
+     * Writer only: hand a slot back once its record has been written, so that it can be claimed again in the next lap.
+     *
+     * @param slot the slot returned by peek().
+     */
+    public void release(int slot) {
+        texts[slot] = null;
+        addresses[slot] = null;
+        sequences.set(slot, head + capacity);
+        head++;
+    }
+
+    /**
+     * Get the number of positions claimed so far, i.e. the position up to which records have been added or are being added.
+     *
+     * @return the position after the last claimed one.
+     */
+    public long getTail() {
+        return tail.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getTime(int slot) {
+        return times[slot];
+    }
+
+    public byte getKind(int slot) {
+        return kinds[slot];
+    }
+
+    public String getText(int slot) {
+        return texts[slot];
+    }
+
+    public InetAddress getAddress(int slot) {
+        return addresses[slot];
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Extension: A file mapped into memory once and shared by every response which sends it, see MappedFileCache.
+ * <p>
+ * The mapping is reference-counted: the cache holds one reference for as long as the file is cached, and every response holds one
+ * from the moment it takes a region of the file until the region has gone to the socket. The file is unmapped when the last
+ * reference is released, so it is never unmapped while a response is still being written from it, however long ago it was evicted.
+ * Regions are only ever handed to channel writes, which the kernel copies from the page cache, so a file which is truncated while
+ * mapped makes the write fail rather than fault in Java code.
+ */
+public class MappedFile {
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invoke_cleaner = null;
+
+        try {
+            Class<?> unsafe_class = Class.forName("sun.misc.Unsafe");
+            Field field = unsafe_class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invoke_cleaner = unsafe_class.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // unmapping is left to the garbage collector
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invoke_cleaner;
+    }
+
+    private String resource_path;
+    private long last_modified;
+    private long size;
+    private MappedByteBuffer buffer;
+    private int references = 1; // the cache's (or, for a file which is not cached, the caller's)
+
+    private MappedFile(FileMetadata metadata, MappedByteBuffer buffer) {
+        this.resource_path = metadata.getResourcePath();
+        this.last_modified = metadata.getLastModified();
+        this.size = metadata.getSize();
+        this.buffer = buffer;
+    }
+
+    /**
+     * Map a file read-only.
+     *
+     * @param metadata the metadata of the file, which has to be no larger than Integer.MAX_VALUE.
+     * @return the mapped file, or null if the file has changed since its metadata was read.
+     * @throws IOException is thrown in case of failure of opening or mapping the file.
+     */
+    public static MappedFile map(FileMetadata metadata) throws IOException {
+        try (FileChannel file = FileChannel.open(metadata.getPath(), StandardOpenOption.READ)) {
+            if (file.size() != metadata.getSize()) {
+                return null;
+            }
+            return new MappedFile(metadata, file.map(FileChannel.MapMode.READ_ONLY, 0, metadata.getSize()));
+        }
+    }
+
+    /**
+     * Check whether the mapping is of the version of the file which the metadata describes.
+     *
+     * @param metadata the current metadata of the file.
+     * @return true if the file has not changed since it was mapped.
+     */
+    public boolean isCurrent(FileMetadata metadata) {
+        return last_modified == metadata.getLastModified() && size == metadata.getSize();
+    }
+
+    /**
+     * Take a reference to the mapping, unless it has been unmapped already.
+     *
+     * @return true if the mapping can be used until release() is called, false if it is gone.
+     */
+    public synchronized boolean retain() {
+        if (references == 0) {
+            return false;
+        }
+        references++;
+        return true;
+    }
+
+    /**
+     * Give a reference back, unmapping the file if it was the last one.
+     */
+    public void release() {
+        MappedByteBuffer unmapped;
+
+        synchronized (this) {
+            if (references == 0 || --references > 0) {
+                return;
+            }
+            unmapped = buffer;
+            buffer = null;
+        }
+
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, unmapped);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // left to the garbage collector
+            }
+        }
+    }
+
+    /**
+     * Get a region of the file to write to a channel, with its own position and limit so that concurrent responses do not interfere.
+     * The caller has to hold a reference until the region has been written.
+     *
+     * @param position where in the file the region starts.
+     * @param count    the number of bytes of the region.
+     * @return the region.
+     */
+    public ByteBuffer region(long position, long count) {
+        return buffer.duplicate().position((int) position).limit((int) (position + count));
+    }
+
+    public String getResourcePath() {
+        return resource_path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+}
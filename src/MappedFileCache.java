@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extension: The large files of the document root which are served from memory-mapped regions (see MappedFile), keyed by resolved path.
+ * <p>
+ * Files too large for the ContentCache but at least as large as the threshold are mapped on their first request and then shared by
+ * every response which sends them, so a hit opens no file and copies nothing through the heap: the regions go from the page cache
+ * straight to the socket. The mapped bytes are bounded by a budget and the least recently used files are evicted to stay within it.
+ * A file is evicted as soon as the DirectoryWatcher reports a change to it or it is deleted through a DELETE request;
+ * it is unmapped once the last response sending it has finished.
+ */
+public class MappedFileCache implements DirectoryWatcher.Listener {
+    private static final boolean ACCESS_ORDER = true;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private LinkedHashMap<String, MappedFile> files = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, ACCESS_ORDER);
+    private DirectoryWatcher watcher;
+    private long threshold;
+    private long max_bytes;
+    private long cur_bytes = 0;
+    private LogFile log_file;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong maps = new AtomicLong();
+
+    /**
+     * Initialise variables and listen for changes.
+     *
+     * @param watcher   what reports changes in directories.
+     * @param threshold files smaller than this are read as usual, 0 turns mapping off.
+     * @param max_bytes the most bytes mapped at the same time by the cache.
+     * @param log_file  where failures to map are logged.
+     */
+    public MappedFileCache(DirectoryWatcher watcher, long threshold, long max_bytes, LogFile log_file) {
+        this.watcher = watcher;
+        this.threshold = threshold;
+        this.max_bytes = max_bytes;
+        this.log_file = log_file;
+        watcher.addListener(this);
+    }
+
+    /**
+     * Check whether a file is to be served from a mapping.
+     *
+     * @param size the size of the file.
+     * @return true if it is neither too small nor too large to be mapped.
+     */
+    public boolean accepts(long size) {
+        return threshold > 0 && size >= threshold && size <= Math.min(max_bytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the mapping of a file, mapping it if it is not mapped yet or has changed since.
+     * The caller holds a reference to the mapping and has to release it once the response has been written.
+     *
+     * @param metadata the current metadata of the file.
+     * @return the mapping, or null if the file is not to be mapped or cannot be.
+     */
+    public MappedFile acquire(FileMetadata metadata) {
+        if (!metadata.isFile() || !accepts(metadata.getSize())) {
+            return null;
+        }
+
+        String resource_path = metadata.getResourcePath();
+        MappedFile file;
+
+        synchronized (this) {
+            file = files.get(resource_path);
+        }
+        if (file != null && file.isCurrent(metadata) && file.retain()) {
+            hits.incrementAndGet();
+            return file;
+        }
+        if (file != null) {
+            evict(resource_path, file);
+        }
+
+        try {
+            file = MappedFile.map(metadata);
+        } catch (IOException e) {
+            log_file.logWarning("IOException: " + e.getMessage());
+            return null;
+        }
+        if (file == null) {
+            return null;
+        }
+        maps.incrementAndGet();
+
+        Path directory = metadata.getPath().getParent();
+        if (metadata.isCanonical() && directory != null && watcher.watch(directory)) {
+            file.retain(); // one for the cache, one for the caller, taken before the cache can evict it again
+            if (!put(resource_path, file)) {
+                file.release();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Put a mapping into the cache, evicting the least recently used ones until it fits.
+     *
+     * @param resource_path the resolved path of the file.
+     * @param file          the mapping.
+     * @return false if another mapping of the file has been put meanwhile, in which case this one belongs to the caller alone.
+     */
+    private boolean put(String resource_path, MappedFile file) {
+        List<MappedFile> evicted = new ArrayList<>();
+
+        synchronized (this) {
+            if (files.containsKey(resource_path)) {
+                return false;
+            }
+
+            Iterator<Map.Entry<String, MappedFile>> it = files.entrySet().iterator();
+            while (cur_bytes + file.getSize() > max_bytes && it.hasNext()) {
+                MappedFile eldest = it.next().getValue();
+                it.remove();
+                cur_bytes -= eldest.getSize();
+                evicted.add(eldest);
+            }
+
+            files.put(resource_path, file);
+            cur_bytes += file.getSize();
+        }
+
+        for (MappedFile eldest : evicted) {
+            eldest.release();
+        }
+        return true;
+    }
+
+    /**
+     * Drop a file, e.g. after it has been deleted through a DELETE request.
+     *
+     * @param resource_path the resolved path of the file.
+     */
+    public void invalidate(String resource_path) {
+        MappedFile file;
+
+        synchronized (this) {
+            file = files.get(resource_path);
+        }
+        if (file != null) {
+            evict(resource_path, file);
+        }
+    }
+
+    private void evict(String resource_path, MappedFile file) {
+        synchronized (this) {
+            if (!files.remove(resource_path, file)) {
+                return;
+            }
+            cur_bytes -= file.getSize();
+        }
+        file.release();
+    }
+
+    /**
+     * Drop the files which have changed, or every file under the directory if the event does not tell which one.
+     *
+     * @param directory the directory which has changed.
+     * @param entry     the entry which has changed, or null.
+     */
+    @Override
+    public void changed(Path directory, Path entry) {
+        if (entry != null) {
+            invalidate(entry.toString());
+            return;
+        }
+
+        List<String> stale = new ArrayList<>();
+        synchronized (this) {
+            for (String resource_path : files.keySet()) {
+                if (Path.of(resource_path).startsWith(directory)) {
+                    stale.add(resource_path);
+                }
+            }
+        }
+        for (String resource_path : stale) {
+            invalidate(resource_path);
+        }
+    }
+
+    /**
+     * Drop every file, e.g. when the server stops, so that the mappings are released once no response refers to them any more.
+     */
+    public void clear() {
+        List<String> all;
+
+        synchronized (this) {
+            all = new ArrayList<>(files.keySet());
+        }
+        for (String resource_path : all) {
+            invalidate(resource_path);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMaps() {
+        return maps.get();
+    }
+
+    public synchronized int getNumFiles() {
+        return files.size();
+    }
+
+    public synchronized long getCurBytes() {
+        return cur_bytes;
+    }
+}
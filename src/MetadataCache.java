@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extension: An index of the metadata (see FileMetadata) of the paths of the document root, keyed by resolved path,
+ * so that answering a request does not stat the file system.
+ * <p>
+ * The index is warmed at start-up by walking the document root in the background and is kept current by the DirectoryWatcher:
+ * an entry is dropped as soon as its directory reports a change to it, and re-read on the next request for it.
+ * Paths which do not exist are indexed as well, so that requests for them do not stat either, but apart from the others in a small map
+ * of their own, so that requests for made-up names neither fill the index nor push out the paths which do exist.
+ * That map is bounded by the clock algorithm, an approximation of LRU: a lookup merely marks its entry as referenced, and once the map is full,
+ * a hand sweeping round it evicts the first entry which has not been referenced since the hand last passed it, clearing the marks on the way.
+ * Reads are lock-free (ConcurrentHashMap lookups, also for missing paths); only misses touch the file system.
+ * Only paths whose directory is watched and which contain no symbolic link are indexed, since changes to anything else would go unnoticed.
+ * Requested paths are resolved against the document root and normalised, so that a request cannot reach outside the document root with "..".
+ * The metadata is also kept by the requested path as it is, so that a hit resolves nothing: it is served if its entry is still indexed.
+ * Once that map is full, the names of missing paths and those whose entries are no longer indexed are evicted, and if that does not
+ * free enough, arbitrary ones.
+ */
+public class MetadataCache implements DirectoryWatcher.Listener, Runnable {
+    private static final int MAX_MISSING_ENTRIES = 4096;
+    private static final int BY_NAME_EVICTION_SHARE = 8; // the share of the names evicted at once when the map is full
+
+    /**
+     * The metadata of a path which does not exist, with the mark of the clock algorithm.
+     */
+    private static final class Missing {
+        private final FileMetadata metadata;
+        private volatile boolean referenced = false;
+
+        private Missing(FileMetadata metadata) {
+            this.metadata = metadata;
+        }
+    }
+
+    private ConcurrentHashMap<Path, FileMetadata> entries = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<Path, Missing> missing = new ConcurrentHashMap<>();
+    private Iterator<Map.Entry<Path, Missing>> clock_hand; // guarded by missing_eviction
+    private final Object missing_eviction = new Object();
+    private ConcurrentHashMap<String, FileMetadata> by_name = new ConcurrentHashMap<>();
+    private AtomicLong changes = new AtomicLong();
+    private Path root;
+    private DirectoryWatcher watcher;
+    private int max_entries;
+    private LogFile log_file;
+
+    /**
+     * Initialise variables and listen for changes.
+     *
+     * @param document_root the directory the server serves files from.
+     * @param watcher       what reports changes in directories.
+     * @param max_entries   the most paths to index, 0 turns the index off.
+     * @param log_file      where the warming is logged.
+     */
+    public MetadataCache(String document_root, DirectoryWatcher watcher, int max_entries, LogFile log_file) {
+        Path root = Paths.get(document_root).toAbsolutePath().normalize();
+
+        try {
+            root = root.toRealPath(); // so that a document root reached through a symbolic link is still indexed
+        } catch (IOException e) {
+            log_file.logWarning("IOException: " + e.getMessage());
+        }
+
+        this.root = root;
+        this.watcher = watcher;
+        this.max_entries = max_entries;
+        this.log_file = log_file;
+        watcher.addListener(this);
+    }
+
+    /**
+     * Start warming the index in the background by walking the document root, unless the index is turned off.
+     */
+    public void warm() {
+        if (max_entries > 0) {
+            Thread thread = new Thread(this, "metadata-warmer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Walk the document root, watching every directory and indexing every path in it, until the index is full.
+     */
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                    if (entries.size() >= max_entries || !watcher.watch(directory)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    index(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (entries.size() >= max_entries) {
+                        return FileVisitResult.SKIP_SIBLINGS;
+                    }
+                    index(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log_file.logWarning("IOException: " + e.getMessage());
+        }
+
+        log_file.logInfo("METADATA OF " + entries.size() + " PATHS HAS BEEN INDEXED IN " + (System.nanoTime() - start) / 1_000_000 + " MS");
+    }
+
+    /**
+     * Get the metadata of a requested path, reading and indexing it if it is not indexed yet.
+     *
+     * @param resource_name the name of the requested file from the client, i.e. the path of the request.
+     * @return the metadata, which tells that the path does not exist if it lies outside the document root.
+     */
+    public FileMetadata lookup(String resource_name) {
+        FileMetadata metadata = by_name.get(resource_name);
+
+        if (metadata != null && isIndexed(metadata)) {
+            return metadata;
+        }
+
+        Path path = resolve(resource_name);
+
+        if (path == null) {
+            return FileMetadata.missing(root.resolve("-")); // never indexed nor served
+        }
+
+        metadata = entries.get(path);
+        if (metadata == null) {
+            metadata = getMissing(path);
+        }
+        if (metadata == null) {
+            metadata = index(path);
+        }
+
+        if (by_name.size() >= max_entries + MAX_MISSING_ENTRIES) {
+            evictNames();
+        }
+        by_name.put(resource_name, metadata);
+        return metadata;
+    }
+
+    /**
+     * Check whether the metadata is still the indexed version of its path.
+     *
+     * @param metadata the metadata.
+     * @return true if it is indexed.
+     */
+    private boolean isIndexed(FileMetadata metadata) {
+        return metadata.exists() ? entries.get(metadata.getPath()) == metadata : getMissing(metadata.getPath()) == metadata;
+    }
+
+    /**
+     * Make room in the map of requested names: first evict the names of missing paths, which a flood of made-up names consists of,
+     * and those whose entries are no longer indexed, then, if that has not freed a share of the map, arbitrary names until it has.
+     */
+    private void evictNames() {
+        int target = by_name.size() - (max_entries + MAX_MISSING_ENTRIES) / BY_NAME_EVICTION_SHARE;
+        Iterator<FileMetadata> names = by_name.values().iterator();
+
+        while (names.hasNext()) {
+            FileMetadata metadata = names.next();
+            if (!metadata.exists() || entries.get(metadata.getPath()) != metadata) {
+                names.remove();
+            }
+        }
+        names = by_name.values().iterator();
+        while (by_name.size() > target && names.hasNext()) {
+            names.next();
+            names.remove();
+        }
+    }
+
+    /**
+     * Resolve the path of a request against the document root.
+     *
+     * @param resource_name the path of the request, e.g. /dir/file.html.
+     * @return the absolute, normalised path, or null if it lies outside the document root or is malformed.
+     */
+    private Path resolve(String resource_name) {
+        int i = 0;
+        while (i < resource_name.length() && resource_name.charAt(i) == '/') {
+            i++;
+        }
+
+        try {
+            Path path = root.resolve(resource_name.substring(i)).normalize();
+            return path.startsWith(root) ? path : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the metadata of a path and index it, if its directory is watched: a path which exists unless the index is full,
+     * one which does not in the map of missing paths.
+     * The number of changes is taken before reading, and the entry is taken back out if a change has been reported meanwhile,
+     * since the change may have come after reading but before indexing and so not have dropped the entry.
+     *
+     * @param path the absolute, normalised path.
+     * @return the metadata.
+     */
+    private FileMetadata index(Path path) {
+        Path directory = path.equals(root) ? root : path.getParent();
+        boolean watched = max_entries > 0 && directory != null && watcher.watch(directory);
+        long changes_before = changes.get();
+        FileMetadata metadata = FileMetadata.read(path);
+
+        if (!watched || !metadata.isCanonical()) {
+            return metadata;
+        }
+        if (!metadata.exists()) {
+            putMissing(path, metadata);
+            if (changes.get() != changes_before) {
+                removeMissing(path);
+            }
+        } else if (entries.size() < max_entries) {
+            entries.put(path, metadata);
+            if (changes.get() != changes_before) {
+                entries.remove(path, metadata);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Get the metadata of a missing path and mark it as referenced, writing the mark only if it is not set already.
+     *
+     * @param path the absolute, normalised path.
+     * @return the metadata, or null if the path is not in the map of missing paths.
+     */
+    private FileMetadata getMissing(Path path) {
+        Missing entry = missing.get(path);
+
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry.metadata;
+    }
+
+    /**
+     * Add a missing path, and evict others by the clock algorithm while the map holds more than its share.
+     * Only adding takes a lock, which only contends with the requests which have just read a missing path from the file system.
+     *
+     * @param path     the absolute, normalised path.
+     * @param metadata its metadata.
+     */
+    private void putMissing(Path path, FileMetadata metadata) {
+        int max_missing = Math.min(max_entries, MAX_MISSING_ENTRIES);
+
+        missing.put(path, new Missing(metadata));
+        if (missing.size() <= max_missing) {
+            return;
+        }
+
+        synchronized (missing_eviction) {
+            for (int steps = 2 * missing.size(); missing.size() > max_missing && steps > 0; steps--) { // two rounds always evict
+                if (clock_hand == null || !clock_hand.hasNext()) {
+                    clock_hand = missing.entrySet().iterator();
+                    if (!clock_hand.hasNext()) {
+                        return;
+                    }
+                }
+
+                Missing entry = clock_hand.next().getValue();
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else {
+                    clock_hand.remove();
+                }
+            }
+        }
+    }
+
+    private void removeMissing(Path path) {
+        missing.remove(path);
+    }
+
+    /**
+     * Drop a path at once, e.g. after it has been deleted through a DELETE request, rather than waiting for the watcher to report it.
+     *
+     * @param metadata the metadata of the path.
+     */
+    public void invalidate(FileMetadata metadata) {
+        changes.incrementAndGet();
+        entries.remove(metadata.getPath());
+        removeMissing(metadata.getPath());
+    }
+
+    /**
+     * Drop what has changed: the entry reported and the directory itself, whose modification time has changed with it.
+     * If the event does not tell which entry has changed (or the directory is gone), everything under the directory is dropped.
+     *
+     * @param directory the directory which has changed.
+     * @param entry     the entry which has changed, or null.
+     */
+    @Override
+    public void changed(Path directory, Path entry) {
+        changes.incrementAndGet();
+        entries.remove(directory);
+
+        if (entry != null) {
+            entries.remove(entry);
+            removeMissing(entry);
+            if (!Files.isDirectory(entry)) {
+                return;
+            }
+            directory = entry; // a directory which has been replaced or moved here may bring a whole subtree with it
+        }
+
+        for (Path path : entries.keySet()) {
+            if (path.startsWith(directory)) {
+                entries.remove(path);
+            }
+        }
+        for (Path path : missing.keySet()) {
+            if (path.startsWith(directory)) {
+                missing.remove(path);
+            }
+        }
+    }
+
+    /**
+     * Get the directory which requested paths are resolved against.
+     *
+     * @return the absolute, real path of the document root.
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Get the number of indexed paths.
+     *
+     * @return the size of the index.
+     */
+    public int getSize() {
+        return entries.size();
+    }
+}
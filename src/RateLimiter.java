@@ -0,0 +1,160 @@
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Extension: Limits how fast every client (by IP address) may open connections, with a token bucket per client,
+ * so that a single client cannot take up every connection the server may serve.
+ * <p>
+ * A client's bucket holds up to burst tokens and refills at the configured rate; every connection takes one token, and a client whose
+ * bucket is empty is turned away with 429 Too Many Requests until it has refilled. The buckets are spread over a fixed number of stripes
+ * by the hash of the address, each a small access-ordered LinkedHashMap under its own lock, so that acceptors rarely contend and a decision
+ * is a lock, a hash lookup and a few arithmetic operations.
+ * <p>
+ * A bucket which has not been touched for as long as it takes to refill completely is full, i.e. no different from one which does not exist,
+ * so it is dropped: whenever a stripe takes on a new client, it first drops its least recently seen buckets as long as they have been idle for that long.
+ * Every stripe also holds at most its share of the configured number of clients, beyond which the least recently seen client is dropped
+ * (and starts afresh with a full bucket), so memory stays bounded however many distinct clients connect.
+ */
+public class RateLimiter {
+    private static final int STRIPES = 64; // a power of two
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * The token bucket of one client.
+     */
+    private static final class Bucket {
+        private double tokens;
+        private long updated;
+    }
+
+    /**
+     * The buckets of the clients whose addresses hash to one stripe, least recently seen first.
+     */
+    private static final class Stripe extends LinkedHashMap<InetAddress, Bucket> {
+        private static final long serialVersionUID = 1L;
+
+        private int max_entries;
+
+        Stripe(int max_entries) {
+            super(16, 0.75f, true);
+            this.max_entries = max_entries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<InetAddress, Bucket> eldest) {
+            return size() > max_entries;
+        }
+    }
+
+    private double tokens_per_nano;
+    private double burst;
+    private long idle_nanos;
+    private Stripe[] stripes;
+    private LongAdder limited = new LongAdder();
+
+    /**
+     * Initialise variables.
+     *
+     * @param rate        the connections per second every client may open in the long run, 0 or less turns the limiter off.
+     * @param burst       how many connections a client may open at once after being idle, at least 1.
+     * @param max_clients the most clients whose buckets are kept.
+     */
+    public RateLimiter(double rate, double burst, int max_clients) {
+        if (rate > 0) {
+            this.tokens_per_nano = rate / NANOS_PER_SECOND;
+            this.burst = Math.max(1, burst);
+            this.idle_nanos = (long) Math.ceil(this.burst / tokens_per_nano);
+            this.stripes = new Stripe[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new Stripe(Math.max(1, max_clients / STRIPES));
+            }
+        }
+    }
+
+    /**
+     * Take a token from the client's bucket if it has one.
+     *
+     * @param address the client's ip address.
+     * @return 0 if the client may connect, otherwise how many nanoseconds it has to wait until it may.
+     */
+    public long tryAcquire(InetAddress address) {
+        if (stripes == null) {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+        int hash = address.hashCode() * 0x9E3779B9; // the high bits of IPv4 addresses vary the least
+        Stripe stripe = stripes[hash >>> (Integer.SIZE - Integer.numberOfTrailingZeros(STRIPES))];
+
+        synchronized (stripe) {
+            Bucket bucket = stripe.get(address);
+            if (bucket == null) {
+                dropIdle(stripe, now);
+                bucket = new Bucket();
+                bucket.tokens = burst;
+                stripe.put(address, bucket);
+            } else {
+                bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.updated) * tokens_per_nano);
+            }
+            bucket.updated = now;
+
+            if (bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                return 0;
+            }
+            limited.increment();
+            return Math.max(1, (long) Math.ceil((1 - bucket.tokens) / tokens_per_nano));
+        }
+    }
+
+    /**
+     * Drop the least recently seen buckets of a stripe for as long as they have been idle long enough to be full again.
+     *
+     * @param stripe the stripe, whose lock is held.
+     * @param now    the current System.nanoTime().
+     */
+    private void dropIdle(Stripe stripe, long now) {
+        Iterator<Bucket> buckets = stripe.values().iterator();
+
+        while (buckets.hasNext() && now - buckets.next().updated >= idle_nanos) {
+            buckets.remove();
+        }
+    }
+
+    /**
+     * Whether connections are limited at all.
+     *
+     * @return false if the limiter lets every connection through.
+     */
+    public boolean isEnabled() {
+        return stripes != null;
+    }
+
+    /**
+     * Get the number of connections turned away so far.
+     *
+     * @return the count.
+     */
+    public long getLimited() {
+        return limited.sum();
+    }
+
+    /**
+     * Get the number of clients whose buckets are kept.
+     *
+     * @return the count.
+     */
+    public int getClients() {
+        int count = 0;
+
+        for (int i = 0; stripes != null && i < STRIPES; i++) {
+            synchronized (stripes[i]) {
+                count += stripes[i].size();
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,412 @@
+import constants.RequestCode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Extension: A parsed HTTP request head, i.e. the request line (request code, target and version) and the header fields.
+ * <p>
+ * The head is not copied out of the buffer it was read into: the request only remembers where each part starts and ends,
+ * so that parsing allocates nothing. The request code is mapped straight from the bytes, the header fields the server itself needs
+ * (Connection and Content-Length) are interpreted while parsing, and a String is only created when the target or another field is asked for.
+ * Extension: A head whose body cannot be delimited safely (see hasInvalidFraming()) is marked as such, so that it is rejected
+ * rather than its body being taken for the next request on the connection.
+ * A request is reused for the next request on the same connection, so its parts are only valid until then.
+ */
+public class Request {
+    private static final int VERSION_NONE = 0;
+    private static final int VERSION_1_0 = 10;
+    private static final int VERSION_1_1 = 11;
+    private static final int VERSION_OTHER = 1;
+    private static final int INITIAL_HEADERS = 16;
+
+    private static final byte[] HTTP_1_0 = "HTTP/1.0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_1_1 = "HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION = "connection".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "close".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEEP_ALIVE = "keep-alive".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf;
+    private RequestCode code;
+    private int code_start;
+    private int code_length;
+    private int target_start;
+    private int target_length;
+    private String target;
+    private String path;
+    private int version;
+
+    private int num_headers;
+    private int[] header_offsets = new int[INITIAL_HEADERS * 4]; // name start, name end, value start, value end per field
+    private boolean connection_close;
+    private boolean connection_keep_alive;
+    private long content_length;
+    private boolean invalid_framing;
+
+    /**
+     * Create an empty request for a RequestParser to fill.
+     */
+    public Request() {
+        reset();
+    }
+
+    /**
+     * Create a request from a request line alone, e.g. for benchmarks or responses which are not read from a socket.
+     *
+     * @param request_line the first line of the request.
+     */
+    public Request(String request_line) {
+        byte[] bytes = request_line.getBytes(StandardCharsets.UTF_8);
+
+        reset();
+        parseRequestLine(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Forget everything about the previous request on the connection.
+     */
+    public void reset() {
+        code = RequestCode.NONE;
+        code_length = 0;
+        target_length = -1;
+        target = null;
+        path = null;
+        version = VERSION_NONE;
+        num_headers = 0;
+        connection_close = false;
+        connection_keep_alive = false;
+        content_length = 0;
+        invalid_framing = false;
+    }
+
+    /**
+     * Split the request line into the request code, the target and the HTTP version (the latter two may be missing).
+     * Parts are separated by any amount of spaces or tabs.
+     *
+     * @param buf  the buffer the line is in.
+     * @param from where the line starts.
+     * @param to   where the line ends, excluding <CR><LF>.
+     */
+    public void parseRequestLine(byte[] buf, int from, int to) {
+        this.buf = buf;
+
+        int i = skipSpaces(buf, from, to);
+        int j = skipToken(buf, i, to);
+        code_start = i;
+        code_length = j - i;
+        code = RequestCode.convert(buf, i, j - i);
+
+        i = skipSpaces(buf, j, to);
+        j = skipToken(buf, i, to);
+        if (i < to) {
+            target_start = i;
+            target_length = j - i;
+        }
+
+        i = skipSpaces(buf, j, to);
+        j = skipToken(buf, i, to);
+        if (i < to) {
+            version = equals(buf, i, j - i, HTTP_1_1) ? VERSION_1_1 : equals(buf, i, j - i, HTTP_1_0) ? VERSION_1_0 : VERSION_OTHER;
+        }
+    }
+
+    /**
+     * Add a header field line of the form "Name: value". Lines without a colon are ignored.
+     * Connection and Content-Length are interpreted straight away, since every request needs them.
+     * Extension: So is Transfer-Encoding, which the server does not read bodies in, and which therefore invalidates the framing of the request,
+     * as do a malformed Content-Length and several which differ.
+     *
+     * @param buf  the buffer the line is in.
+     * @param from where the line starts.
+     * @param to   where the line ends, excluding <CR><LF>.
+     */
+    public void addHeader(byte[] buf, int from, int to) {
+        int colon = from;
+        while (colon < to && buf[colon] != ':') {
+            colon++;
+        }
+        if (colon == from || colon == to) {
+            return;
+        }
+
+        int name_end = colon;
+        while (name_end > from && isSpace(buf[name_end - 1])) {
+            name_end--;
+        }
+        int value_start = skipSpaces(buf, colon + 1, to);
+        int value_end = to;
+        while (value_end > value_start && isSpace(buf[value_end - 1])) {
+            value_end--;
+        }
+
+        if (num_headers * 4 == header_offsets.length) {
+            header_offsets = Arrays.copyOf(header_offsets, header_offsets.length * 2);
+        }
+        int k = num_headers++ * 4;
+        header_offsets[k] = from;
+        header_offsets[k + 1] = name_end;
+        header_offsets[k + 2] = value_start;
+        header_offsets[k + 3] = value_end;
+
+        if (equalsIgnoreCase(buf, from, name_end - from, CONNECTION)) {
+            connection_close |= containsIgnoreCase(buf, value_start, value_end, CLOSE);
+            connection_keep_alive |= containsIgnoreCase(buf, value_start, value_end, KEEP_ALIVE);
+        } else if (equalsIgnoreCase(buf, from, name_end - from, CONTENT_LENGTH)) {
+            long length = parseLength(buf, value_start, value_end);
+            boolean repeated = getContentLengthCount() > 1;
+
+            invalid_framing |= length < 0 || repeated && length != content_length;
+            content_length = Math.max(0, length);
+        } else if (equalsIgnoreCase(buf, from, name_end - from, TRANSFER_ENCODING)) {
+            invalid_framing = true;
+        }
+    }
+
+    /**
+     * Move every remembered position, after the buffer has been compacted or replaced by a larger one underneath the request.
+     *
+     * @param buf   the buffer the head is in now.
+     * @param delta how far the bytes have moved.
+     */
+    public void move(byte[] buf, int delta) {
+        this.buf = buf;
+        code_start += delta;
+        target_start += delta;
+        for (int k = 0; k < num_headers * 4; k++) {
+            header_offsets[k] += delta;
+        }
+    }
+
+    /**
+     * Get the value of a header field, creating a String for it.
+     *
+     * @param name the name of the header field in lower case.
+     * @return the value or null if the client did not send the field.
+     */
+    public String getHeader(String name) {
+        return getHeader(name.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Get the value of a header field whose name has been encoded beforehand, so that only a field which is there creates a String.
+     *
+     * @param lower_name the name of the header field in lower case, as ASCII bytes.
+     * @return the value or null if the client did not send the field.
+     */
+    public String getHeader(byte[] lower_name) {
+        for (int k = 0; k < num_headers * 4; k += 4) {
+            if (equalsIgnoreCase(buf, header_offsets[k], header_offsets[k + 1] - header_offsets[k], lower_name)) {
+                return new String(buf, header_offsets[k + 2], header_offsets[k + 3] - header_offsets[k + 2], StandardCharsets.ISO_8859_1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether the request line came with an HTTP version, i.e. whether header fields follow it.
+     *
+     * @return true if there is a version.
+     */
+    public boolean hasVersion() {
+        return version != VERSION_NONE;
+    }
+
+    /**
+     * HTTP/1.1 connections persist unless the client asks to close them, HTTP/1.0 connections only persist if the client asks for it.
+     *
+     * @return true if the client wants the connection kept alive after the response.
+     */
+    public boolean isKeepAlive() {
+        if (version == VERSION_1_1) {
+            return !connection_close;
+        }
+        return version == VERSION_1_0 && connection_keep_alive;
+    }
+
+    /**
+     * Extension: Check whether the client understands the chunked transfer coding, which HTTP/1.1 requires of every client.
+     *
+     * @return true if the response may be sent in chunks.
+     */
+    public boolean acceptsChunked() {
+        return version == VERSION_1_1;
+    }
+
+    /**
+     * Get the size of the body which follows the head, so that it can be skipped before the next request on the connection.
+     *
+     * @return the size of the body, 0 if there is none or the field is malformed.
+     */
+    public long getContentLength() {
+        return content_length;
+    }
+
+    /**
+     * Extension: Check whether the end of the body cannot be told safely: the request has a Transfer-Encoding (e.g. chunked),
+     * a Content-Length which is not a non-negative decimal number, or several Content-Length fields which differ.
+     * Such a request has to be rejected and its connection closed, since guessing where its body ends could let the body pass
+     * for the next request on the connection (request smuggling).
+     *
+     * @return true if the request must be rejected.
+     */
+    public boolean hasInvalidFraming() {
+        return invalid_framing;
+    }
+
+    private int getContentLengthCount() {
+        int count = 0;
+
+        for (int k = 0; k < num_headers * 4; k += 4) {
+            if (equalsIgnoreCase(buf, header_offsets[k], header_offsets[k + 1] - header_offsets[k], CONTENT_LENGTH)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public RequestCode getCode() {
+        return code;
+    }
+
+    /**
+     * Get the request code as text, which only needs a new String if the server does not know the code.
+     *
+     * @return the request code.
+     */
+    public String getRequestCode() {
+        if (code != RequestCode.NONE) {
+            return code.toString();
+        }
+        return new String(buf, code_start, code_length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Get the target of the request, decoding it the first time it is asked for.
+     *
+     * @return the target or null if the request line has none.
+     */
+    public String getTarget() {
+        if (target == null && target_length >= 0) {
+            target = new String(buf, target_start, target_length, StandardCharsets.UTF_8);
+        }
+        return target;
+    }
+
+    /**
+     * Extension: Get the path of the target, i.e. the target without its query, with percent-encoded octets decoded (e.g. %20 to a space).
+     * Malformed escapes are kept as they are.
+     *
+     * @return the path or null if the request line has no target.
+     */
+    public String getPath() {
+        if (path == null && target_length >= 0) {
+            byte[] decoded = new byte[target_length];
+            int end = target_start + target_length;
+            int length = 0;
+
+            for (int i = target_start; i < end && buf[i] != '?'; i++) {
+                int hi;
+                int lo;
+                if (buf[i] == '%' && i + 2 < end && (hi = Character.digit(buf[i + 1], 16)) >= 0 && (lo = Character.digit(buf[i + 2], 16)) >= 0) {
+                    decoded[length++] = (byte) (hi << 4 | lo);
+                    i += 2;
+                } else {
+                    decoded[length++] = buf[i];
+                }
+            }
+            path = new String(decoded, 0, length, StandardCharsets.UTF_8);
+        }
+        return path;
+    }
+
+    /**
+     * Extension: Get the query of the target, i.e. what follows the '?', still percent-encoded.
+     *
+     * @return the query or null if the target has none.
+     */
+    public String getQuery() {
+        for (int i = target_start, end = target_start + target_length; i < end; i++) {
+            if (buf[i] == '?') {
+                return new String(buf, i + 1, end - i - 1, StandardCharsets.ISO_8859_1);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static int skipSpaces(byte[] buf, int i, int to) {
+        while (i < to && isSpace(buf[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipToken(byte[] buf, int i, int to) {
+        while (i < to && !isSpace(buf[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean equals(byte[] buf, int from, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buf[from + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] buf, int from, int length, byte[] lower) {
+        if (length != lower.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            byte b = buf[from + i];
+            if ((b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b) != lower[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(byte[] buf, int from, int to, byte[] lower) {
+        for (int i = from; i + lower.length <= to; i++) {
+            if (equalsIgnoreCase(buf, i, lower.length, lower)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse the value of Content-Length, which has to consist of decimal digits only.
+     *
+     * @param buf  the buffer the value is in.
+     * @param from where the value starts.
+     * @param to   where the value ends.
+     * @return the length, or -1 if the value is empty, malformed (e.g. negative) or too large.
+     */
+    private static long parseLength(byte[] buf, int from, int to) {
+        long length = 0;
+
+        if (from == to) {
+            return -1;
+        }
+        for (int i = from; i < to; i++) {
+            if (buf[i] < '0' || buf[i] > '9' || length > (Long.MAX_VALUE - 9) / 10) {
+                return -1;
+            }
+            length = length * 10 + (buf[i] - '0');
+        }
+        return length;
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Extension: An incremental, byte-level parser of the request heads arriving on one connection, shared by both engines.
+ * <p>
+ * Bytes are read into a single buffer which is reused for every request on the connection. Every call to parse() only scans the bytes
+ * which have arrived since the previous call, remembering where the current line started, until the blank line which ends the head.
+ * What the client has already sent of its next (pipelined) request stays in the buffer for the next call.
+ */
+public class RequestParser {
+    private static final int INITIAL_BUFFER_SIZE = 2048;
+    private static final int MAX_REQUEST_SIZE = 16 * 1024;
+
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private ByteBuffer view = ByteBuffer.wrap(buf);
+    private int start = 0;      // where the current request starts
+    private int limit = 0;      // where the bytes which have arrived end
+    private int scan_pos = 0;   // how far the bytes have been scanned
+    private int line_start = 0; // where the line being scanned starts
+    private long body_remaining = 0;
+    private boolean request_line_read = false;
+    private Request request = new Request();
+
+    /**
+     * Read whatever the client has sent so far from a blocking stream, waiting for at least one byte.
+     *
+     * @param in the socket's input stream.
+     * @return the number of bytes read, or -1 if the client has closed the connection.
+     * @throws DisconnectedException is thrown in case the request head is larger than the server accepts.
+     * @throws IOException           is thrown in case of connection failed.
+     */
+    public int fill(InputStream in) throws DisconnectedException, IOException {
+        makeRoom();
+
+        int len = in.read(buf, limit, buf.length - limit);
+        if (len > 0) {
+            limit += len;
+        }
+        return len;
+    }
+
+    /**
+     * Read whatever the client has sent so far from a (non-blocking) channel.
+     *
+     * @param channel the socket's channel.
+     * @return the number of bytes read, or -1 if the client has closed the connection.
+     * @throws DisconnectedException is thrown in case the request head is larger than the server accepts.
+     * @throws IOException           is thrown in case of connection failed.
+     */
+    public int fill(ReadableByteChannel channel) throws DisconnectedException, IOException {
+        makeRoom();
+
+        view.limit(buf.length).position(limit);
+        int len = channel.read(view);
+        if (len > 0) {
+            limit += len;
+        }
+        return len;
+    }
+
+    /**
+     * Make sure there is room in the buffer for another read: first by moving the current request to the front of the buffer,
+     * then by growing the buffer up to the largest request head the server accepts.
+     *
+     * @throws DisconnectedException is thrown in case the request head is larger than the server accepts.
+     */
+    private void makeRoom() throws DisconnectedException {
+        if (limit < buf.length) {
+            return;
+        }
+
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, limit - start);
+            request.move(buf, -start);
+            limit -= start;
+            scan_pos -= start;
+            line_start -= start;
+            start = 0;
+        } else if (buf.length < MAX_REQUEST_SIZE) {
+            buf = Arrays.copyOf(buf, Math.min(buf.length * 2, MAX_REQUEST_SIZE));
+            view = ByteBuffer.wrap(buf);
+            request.move(buf, 0);
+        } else {
+            throw new DisconnectedException(" ... request head is too large ... ");
+        }
+    }
+
+    /**
+     * Scan the newly arrived bytes line by line, after skipping what is left of the body of the previous request.
+     * Blank lines before the request line are ignored; the head ends with the next empty line,
+     * or straight after the request line if the client did not give an HTTP version (and so sends no header fields).
+     *
+     * @return true once the whole request head has arrived, see getRequest().
+     */
+    public boolean parse() {
+        if (body_remaining > 0) {
+            int skipped = (int) Math.min(body_remaining, limit - scan_pos);
+            body_remaining -= skipped;
+            scan_pos += skipped;
+            start = scan_pos;
+            line_start = scan_pos;
+            if (body_remaining > 0) { // all that has arrived is body, so the buffer can be reused from the front
+                start = limit = scan_pos = line_start = 0;
+                return false;
+            }
+        }
+
+        for (; scan_pos < limit; scan_pos++) {
+            if (buf[scan_pos] != '\n') {
+                continue;
+            }
+
+            int line_end = scan_pos > line_start && buf[scan_pos - 1] == '\r' ? scan_pos - 1 : scan_pos;
+            int from = line_start;
+            line_start = scan_pos + 1;
+
+            if (!request_line_read) {
+                if (line_end > from) {
+                    request.parseRequestLine(buf, from, line_end);
+                    request_line_read = true;
+                    if (!request.hasVersion()) {
+                        return headComplete();
+                    }
+                } else {
+                    start = line_start;
+                }
+            } else if (line_end == from) {
+                return headComplete();
+            } else {
+                request.addHeader(buf, from, line_end);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Remember the body which follows the head, so that it is skipped before the next request is looked for.
+     *
+     * @return always true.
+     */
+    private boolean headComplete() {
+        scan_pos = line_start;
+        body_remaining = request.getContentLength();
+        return true;
+    }
+
+    /**
+     * Get ready for the next request on the connection, keeping the bytes which have arrived after the previous head.
+     */
+    public void nextRequest() {
+        start = scan_pos;
+        line_start = scan_pos;
+        request_line_read = false;
+        request.reset();
+
+        if (start == limit && body_remaining == 0) {
+            start = limit = scan_pos = line_start = 0;
+        }
+    }
+
+    /**
+     * Check whether the client has already sent (part of) its next request, i.e. whether the caller had better carry on
+     * than flush the responses it has batched up.
+     *
+     * @return true if there are bytes which have not been parsed yet.
+     */
+    public boolean hasBuffered() {
+        return scan_pos < limit;
+    }
+
+    /**
+     * Extension: Check whether any of the next request has arrived, even if it has been scanned already, e.g. before closing a connection
+     * which seems to be idle.
+     *
+     * @return true if there are bytes of a request which has not been responded to.
+     */
+    public boolean hasPartialRequest() {
+        return start < limit;
+    }
+
+    public Request getRequest() {
+        return request;
+    }
+}
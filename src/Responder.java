@@ -1,102 +1,475 @@
+import constants.ContentEncoding;
 import constants.FileType;
 import constants.RequestCode;
+import constants.ResponseCode;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.OutputStream;
-import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPOutputStream;
 
-import static constants.FileType.GIF;
-import static constants.FileType.JPEG;
-import static constants.FileType.PNG;
+import static constants.ResponseCode.BAD_REQUEST;
 import static constants.ResponseCode.NOT_FOUND;
 import static constants.ResponseCode.NOT_IMPLEMENTED;
+import static constants.ResponseCode.NOT_MODIFIED;
+import static constants.ResponseCode.PARTIAL_CONTENT;
+import static constants.ResponseCode.RANGE_NOT_SATISFIABLE;
+import static constants.ResponseCode.SERVICE_UNAVAILABLE;
+import static constants.ResponseCode.TOO_MANY_REQUESTS;
 import static constants.ResponseCode.WORKING_OKAY;
 
 /**
  * This class handles with HTTP requests which comprises of two components: header and document body.
- * There is only one accessible (public) method which is processRequest().
+ * There are only three accessible (public) methods: processRequest(), respondServiceUnavailable() and respondTooManyRequests().
+ * <p>
+ * Extension: Responses are written to the stream without flushing it, so that the caller can batch the responses to pipelined requests
+ * into as few socket writes as possible and flush once there is no further request waiting.
+ * Headers are assembled from pre-encoded templates (see ResponseHeader) and the fixed pages are rendered to bytes once,
+ * so that no response needs string building or a charset encoder apart from echoing the name of a file which is not found.
  */
 public class Responder {
-    private static final String TEXT_HTML = "text/html";
-    private static final String CR_LF = "\r\n"; // use of <CR><LF> to delimit header fields and header from content.
     private static final int CHUNK_SIZE = 1500;
+    private static final int STREAM_CHUNK_SIZE = 8192;
+    private static final int MIN_COMPRESS_LENGTH = 256; // below this, the gzip framing eats most of what compression saves
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final byte[] RETRY_AFTER = "Retry-After: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CR_LF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RANGE = "range".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ACCEPT_ENCODING = "accept-encoding".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VARY = "Vary: Accept-Encoding\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IF_RANGE = "if-range".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IF_NONE_MATCH = "if-none-match".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IF_MODIFIED_SINCE = "if-modified-since".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ACCEPT_RANGES = "Accept-Ranges: bytes\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String BOUNDARY = "webserver-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private static final byte[] MULTIPART_CONTENT_TYPE = ("Content-Type: multipart/byteranges; boundary=" + BOUNDARY + "\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MULTIPART_BOUNDARY = ("\r\n--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MULTIPART_END = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] METRICS_CONTENT_TYPE = "Content-Type: text/plain; version=0.0.4\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] OPTIONS_PAGE = ("<!DOCTYPE HTML PUBLIC \"-//IETF//DTD HTML 2.0//EN\"><html>"
+            + "<head><title> Server-Supported HTTP Methods</title></head>"
+            + "<body><h1>HTTP methods which the server serves</h1><p>HEAD</p><p>GET</p><p>DELETE</p><p>OPTIONS</p></body>"
+            + "</html>").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOT_FOUND_PAGE_START = ("<!DOCTYPE HTML PUBLIC \"-//IETF//DTD HTML 2.0//EN\"><html>"
+            + "<head><title>" + NOT_FOUND.toString() + "</title></head>"
+            + "<body><h1>" + NOT_FOUND.toString() + "</h1><p>The requested URL ").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOT_FOUND_PAGE_END = (" was not found on this server.</p></body>"
+            + "</html>").getBytes(StandardCharsets.UTF_8);
 
-    private Socket conn;
-    private String document_root;
-    private PrintWriter print_writer;
+    private OutputStream out;
+    private WritableByteChannel channel;
+    private GatheringOutputStream gathering;
+    private InetAddress client_address;
+    private ServerContext context;
     private LogFile log_file;
+    private ContentCache content_cache;
+    private MetadataCache metadata_cache;
+    private MappedFileCache mapped_file_cache;
+    private ListingCache listing_cache;
+    private int retry_after;
+    private ServerMetrics metrics;
+    private String metrics_path;
+    private long bytes_sent = 0;
+    private Request request;
+    private ResponseHeader header = new ResponseHeader();
+    private ChunkedOutputStream chunked_out;
+    private ByteBuffer copy_buffer;
+    private boolean keep_alive;
+    private boolean write_failed;
 
     /**
-     * Initialise variables: connection socket, path of the document and path of the log file.
+     * Initialise variables: where the response goes, who it goes to, path of the document, the log file and the content cache.
+     * The response is written to a stream rather than to a socket so that the event-loop engine can render it into a buffer.
      *
-     * @param conn          established connection with a client.
-     * @param document_root a path where the server serves a document to a client.
-     * @param logger        used to track information of the requests into a file.
+     * @param out            where the response is written to, i.e. the socket's (buffered) output stream or a buffer,
+     *                       into which regions of mapped files are put rather than copied if it is a GatheringOutputStream.
+     * @param channel        the channel behind out which file bodies can be sent to without copying them through the heap, or null if there is none.
+     * @param client_address the client's ip address.
+     * @param context        what the handlers of all connections share, i.e. the document root, the log file and the caches.
      */
-    public Responder(Socket conn, String document_root, LogFile logger) {
-        this.conn = conn;
-        this.document_root = document_root;
-        this.log_file = logger;
+    public Responder(OutputStream out, WritableByteChannel channel, InetAddress client_address, ServerContext context) {
+        this.out = out;
+        this.channel = channel;
+        this.gathering = out instanceof GatheringOutputStream ? (GatheringOutputStream) out : null;
+        this.client_address = client_address;
+        this.context = context;
+        this.log_file = context.getLogFile();
+        this.content_cache = context.getContentCache();
+        this.metadata_cache = context.getMetadataCache();
+        this.mapped_file_cache = context.getMappedFileCache();
+        this.listing_cache = context.getListingCache();
+        this.retry_after = context.getConfig().getRetryAfter();
+        this.metrics = context.getMetrics();
+        this.metrics_path = context.getConfig().getMetricsPath();
     }
 
     /**
      * Get response header containing information about the resource identified in the request (if the file exists at the specified location in the document root).
+     * <p>
+     * Extension: The header is assembled in the responder's reused buffer, so it is only valid until the next call.
      *
      * @param response_code   response code from the response.
-     * @param content_type    the type of the requested resource.
+     * @param file_type       the type of the requested resource.
      * @param resource_length the size of the requested resource.
-     * @return
+     * @return the header, to which further fields can be added.
      */
-    private String getHeader(String response_code, String content_type, long resource_length) {
-        return "HTTP/1.1 " + response_code + CR_LF
-                + "Content-Type: " + content_type + CR_LF
-                + "Content-Length: " + resource_length + CR_LF;
+    private ResponseHeader getHeader(ResponseCode response_code, FileType file_type, long resource_length) {
+        return header.status(response_code).contentType(file_type).contentLength(resource_length);
     }
 
     /**
-     * Extension: Return a request file (e.g. GIF, JPEG, PNG, etc.) in binary.
+     * Extension: Finish the header with the Connection field and the blank line which separates it from the body, and send it.
      *
-     * @param resource_path the name of the requested file from the client.
+     * @param header the header fields built by getHeader().
+     */
+    private void sendHeader(ResponseHeader header) {
+        try {
+            bytes_sent += header.writeTo(out, keep_alive);
+        } catch (IOException e) {
+            keep_alive = false;
+            write_failed = true;
+            log_file.logWarning("IOException: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Extension: Send the header of a response whose body is generated while it is sent, so that its length is not known beforehand,
+     * and get the stream to write the body to. The body is sent in chunks (Transfer-Encoding: chunked) and has to be ended with finishStream().
+     * An HTTP/1.0 client gets the body as it is instead, which the closing of the connection ends.
+     * The chunk buffer is allocated with the first such response and reused for all later ones.
+     *
+     * @param header the header fields built by getHeader() without a Content-Length.
+     * @return the stream for the body.
+     */
+    private ChunkedOutputStream sendStreamHeader(ResponseHeader header) {
+        boolean chunked = request != null && request.acceptsChunked();
+
+        if (chunked) {
+            header.chunked();
+        } else {
+            keep_alive = false;
+        }
+        sendHeader(header);
+
+        if (chunked_out == null) {
+            chunked_out = new ChunkedOutputStream(STREAM_CHUNK_SIZE);
+        }
+        return chunked_out.reset(out, chunked);
+    }
+
+    /**
+     * Extension: End a body started with sendStreamHeader(), i.e. send the rest of it and the last chunk.
+     *
+     * @param body the stream for the body.
      */
-    private void sendResource(String resource_path) {
+    private void finishStream(ChunkedOutputStream body) {
         try {
-            InputStream in = new FileInputStream(resource_path);
-            OutputStream out = conn.getOutputStream();
+            body.finish();
+        } catch (IOException e) {
+            keep_alive = false;
+            write_failed = true;
+            log_file.logWarning("IOException: " + e.getMessage());
+        }
+        bytes_sent += body.getBytesWritten();
+    }
 
-            byte[] buf = new byte[CHUNK_SIZE];
+    /**
+     * Extension: Get the header of a 200 response with a whole file, which tells the client that it may ask for ranges of it
+     * and gives the validators with which it can ask whether its copy is still up to date.
+     * The response to a compressible file depends on the codings the client accepts, which caches are told by Vary.
+     *
+     * @param file_type       the type of the requested file.
+     * @param resource_length the size of the requested file.
+     * @param validators      the ETag and Last-Modified of the file.
+     * @return the header, to which further fields can be added.
+     */
+    private ResponseHeader getFileHeader(FileType file_type, long resource_length, FileValidators validators) {
+        getHeader(WORKING_OKAY, file_type, resource_length).append(ACCEPT_RANGES).append(validators.getFields());
+        return file_type.isCompressible() ? header.append(VARY) : header;
+    }
+
+    /**
+     * Extension: Get the header of a 200 response with a compressed variant of a file.
+     *
+     * @param file_type       the type of the file.
+     * @param variant_length  the size of the compressed variant.
+     * @param encoding        the content coding of the variant.
+     * @param validators      the ETag and Last-Modified of the file, of which those of the variant are sent, see FileValidators.forEncoding().
+     * @return the header, to which further fields can be added.
+     */
+    private ResponseHeader getVariantHeader(FileType file_type, long variant_length, ContentEncoding encoding, FileValidators validators) {
+        return getHeader(WORKING_OKAY, file_type, variant_length).append(encoding.getContentEncodingField()).append(VARY)
+                .append(validators.forEncoding(encoding).getFields());
+    }
+
+    /**
+     * Extension: Return a request file (e.g. GIF, JPEG, PNG, etc.) in binary, or the part of it which the client has asked for.
+     * A large file is sent from its shared mapping (see MappedFileCache) if the response goes to a channel or into a GatheringOutputStream.
+     * Otherwise, if the socket has a channel, the file goes straight from the file channel to it (zero-copy, i.e. sendfile),
+     * or else it is read into the stream's pooled buffers (GatheringOutputStream) or copied through the responder's heap buffer. Either way it is read from the given position on, never from its start.
+     * If the file turns out to be shorter than the header promised, the connection is closed afterwards since the client cannot tell otherwise.
+     *
+     * @param metadata the metadata of the requested file.
+     * @param position where in the file to start.
+     * @param count    the number of bytes to send.
+     */
+    private void sendResource(FileMetadata metadata, long position, long count) {
+        String resource_path = metadata.getResourcePath();
+        MappedFile mapped = channel != null || gathering != null ? mapped_file_cache.acquire(metadata) : null;
+
+        try {
+            long sent;
+
+            if (mapped != null) {
+                sent = sendMapped(mapped, position, count);
+            } else if (channel != null) {
+                out.flush(); // whatever is buffered, i.e. the header, has to reach the socket before the file does
+                sent = transferResource(resource_path, position, count);
+            } else {
+                sent = copyResource(resource_path, position, count);
+            }
+            if (sent < count) {
+                keep_alive = false;
+            }
+        } catch (NoSuchFileException e) {
+            keep_alive = false; // the header promised a body which cannot be sent, so the client can only tell by the connection closing
+            log_file.logWarning(resource_path + " IS NOT FOUND");
+        } catch (IOException e) {
+            keep_alive = false;
+            write_failed = true;
+            log_file.logWarning("IOException: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Extension: Send a region of a mapped file. Into a GatheringOutputStream, the region is only recorded together with the reference
+     * to the file, which the stream gives back once the region has been written. To a channel, the region is written at once.
+     *
+     * @param mapped   the mapped file, of which the caller holds a reference which this method takes over.
+     * @param position where in the file to start.
+     * @param count    the number of bytes to send.
+     * @return the number of bytes sent.
+     * @throws IOException is thrown in case of failure of writing to the socket.
+     */
+    private long sendMapped(MappedFile mapped, long position, long count) throws IOException {
+        if (gathering != null) {
+            gathering.append(mapped, mapped.region(position, count));
+            bytes_sent += count;
+            return count;
+        }
+
+        try {
+            ByteBuffer region = mapped.region(position, count);
+
+            out.flush(); // whatever is buffered, i.e. the header, has to reach the socket before the file does
+            while (region.hasRemaining()) {
+                bytes_sent += channel.write(region);
+            }
+            return count;
+        } finally {
+            mapped.release();
+        }
+    }
+
+    /**
+     * Extension: Hand the file (or a part of it) over to the kernel, which copies it to the socket without it passing through user space.
+     * transferTo may send less than asked for, so keep going from where it stopped (unless the file has shrunk meanwhile).
+     *
+     * @param resource_path the name of the requested file from the client.
+     * @param position      where in the file to start.
+     * @param count         the number of bytes to send.
+     * @return the number of bytes sent.
+     * @throws IOException is thrown in case of failure of reading the file or writing to the socket.
+     */
+    private long transferResource(String resource_path, long position, long count) throws IOException {
+        try (FileChannel file = FileChannel.open(Paths.get(resource_path), StandardOpenOption.READ)) {
+            long end = position + count;
+
+            while (position < end) {
+                long sent = file.transferTo(position, end - position, channel);
+                if (sent == 0 && position >= file.size()) {
+                    break;
+                }
+                position += sent;
+                bytes_sent += sent;
+            }
+            return count - (end - position);
+        }
+    }
+
+    /**
+     * Copy the file (or a part of it) to the output stream chunk by chunk, with positioned reads.
+     * <p>
+     * Extension: A GatheringOutputStream takes the open file over and streams it chunk by chunk while the response is written, so that
+     * the event loop neither reads a large file in one go nor holds it in memory; any other stream gets it through a heap buffer
+     * which the responder keeps for all its responses.
+     *
+     * @param resource_path the name of the requested file from the client.
+     * @param position      where in the file to start.
+     * @param count         the number of bytes to send.
+     * @return the number of bytes sent, or to be sent by the GatheringOutputStream.
+     * @throws IOException is thrown in case of failure of reading the file or writing to the stream.
+     */
+    private long copyResource(String resource_path, long position, long count) throws IOException {
+        if (gathering != null) {
+            gathering.append(FileChannel.open(Paths.get(resource_path), StandardOpenOption.READ), position, count);
+            bytes_sent += count;
+            return count;
+        }
+
+        try (FileChannel file = FileChannel.open(Paths.get(resource_path), StandardOpenOption.READ)) {
+            if (copy_buffer == null) {
+                copy_buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            }
+            ByteBuffer buf = copy_buffer;
+            long end = position + count;
             int len;
-            while ((len = in.read(buf)) != -1) {
-                out.write(buf, 0, len);
+
+            while (position < end) {
+                buf.clear().limit((int) Math.min(CHUNK_SIZE, end - position));
+                if ((len = file.read(buf, position)) < 0) {
+                    break;
+                }
+                out.write(buf.array(), 0, len);
+                position += len;
+                bytes_sent += len;
             }
+            return count - (end - position);
+        }
+    }
 
-            out.close();
-            in.close();
-        } catch (FileNotFoundException e) {
-            log_file.logWarning(resource_path + " IS NOT FOUND");
+    /**
+     * Extension: Send a header or a body which is already in memory, i.e. a cached file or a generated page.
+     *
+     * @param body the bytes to send.
+     */
+    private void sendBody(byte[] body) {
+        sendBody(body, 0, body.length);
+    }
+
+    /**
+     * Extension: Send a part of a body which is already in memory, i.e. a range of a cached file.
+     *
+     * @param body   the bytes to send from.
+     * @param offset where the part starts.
+     * @param length the length of the part.
+     */
+    private void sendBody(byte[] body, int offset, int length) {
+        try {
+            out.write(body, offset, length);
+            bytes_sent += length;
+        } catch (IOException e) {
+            keep_alive = false;
+            write_failed = true;
+            log_file.logWarning("IOException: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Extension: Get a requested file from the content cache, reading it into the cache first if it is not there yet.
+     * The header is built once when the file is read, so a cache hit costs neither string building nor a stat of the file,
+     * whose modification time comes from the metadata cache.
+     *
+     * @param metadata the metadata of the requested file.
+     * @return the cached file, or null if the file does not exist, is not a regular file or is too large to be cached.
+     */
+    private CachedContent lookupContent(FileMetadata metadata) {
+        String resource_path = metadata.getResourcePath();
+        CachedContent content = content_cache.lookup(resource_path, metadata.getLastModified());
+
+        if (content != null || !metadata.isFile() || !content_cache.accepts(metadata.getSize())) {
+            return content;
+        }
+
+        try {
+            byte[] body = Files.readAllBytes(metadata.getPath());
+            FileValidators validators = body.length == metadata.getSize() ? metadata.getValidators()
+                    : new FileValidators(metadata.getLastModified(), body.length); // changed meanwhile, the watcher will tell
+            content = new CachedContent(getFileHeader(metadata.getFileType(), body.length, validators).toByteArray(),
+                    body, metadata.getLastModified(), validators);
+            content_cache.put(resource_path, content);
+
+            return content;
         } catch (IOException e) {
             log_file.logWarning("IOException: " + e.getMessage());
+            return null;
         }
     }
 
+    /**
+     * Extension: Get the validators of a requested file, those kept with it if it is cached, otherwise those of its current metadata.
+     *
+     * @param content  the cached file, or null.
+     * @param metadata the metadata of the file.
+     * @return the validators.
+     */
+    private FileValidators getValidators(CachedContent content, FileMetadata metadata) {
+        return content != null ? content.getValidators() : metadata.getValidators();
+    }
+
+    /**
+     * Extension: Check the conditional header fields of the request against the validators of the requested file.
+     *
+     * @param validators the ETag and Last-Modified of the file.
+     * @return true if the client's copy is up to date, so that 304 Not Modified is to be returned.
+     */
+    private boolean isNotModified(FileValidators validators) {
+        return validators.isNotModified(request.getHeader(IF_NONE_MATCH), request.getHeader(IF_MODIFIED_SINCE));
+    }
+
     /**
      * Return a requested HTTP 200 response header containing the information about the resource identified in the request (if the file exists at the specified location in the document root) to client.
+     * <p>
+     * Extension: If the client's copy of the representation which would be sent (see selectEncoding()) is still up to date,
+     * return 304 Not Modified instead.
+     * For a directory, return the header of its listing.
      *
      * @param resource_name the name of the request file from the client.
      */
     private void respondHEAD(String resource_name) {
-        File resource = new File(document_root + resource_name);
+        FileMetadata metadata = metadata_cache.lookup(resource_name);
+
+        if (metadata.isDirectory()) {
+            respondListing(resource_name, metadata, false);
+            return;
+        } else if (!metadata.isFile()) {
+            respondNotFound(resource_name, false);
+            return;
+        }
+
+        CachedContent content = lookupContent(metadata);
+        FileValidators validators = getValidators(content, metadata);
+        ContentEncoding encoding = selectEncoding(request, metadata);
 
-        if (resource.exists()) {
-            print_writer.println(getHeader(WORKING_OKAY.toString(), getFileExtension(resource_name), resource.length()));
+        if (isNotModified(validators.forEncoding(encoding))) {
+            respondNotModified(validators.forEncoding(encoding), metadata.getFileType());
+        } else if (encoding != ContentEncoding.NONE && respondCompressed(metadata, content, validators, encoding, false)) {
+            // the header of the compressed variant has been sent
+        } else if (content != null) {
+            sendHeader(header.fields(content.getHeader()));
 
-            log_file.logRespond(WORKING_OKAY.toString(), conn.getInetAddress());
+            logRespond(WORKING_OKAY);
         } else {
-            respondNotFound(resource_name);
+            sendHeader(getFileHeader(metadata.getFileType(), metadata.getSize(), validators));
+
+            logRespond(WORKING_OKAY);
         }
     }
 
@@ -105,11 +478,13 @@ public class Responder {
      * This method supports for the case that a directory may have a '.', but the filename itself doesn't (e.g. /path/to.a/file).
      * <p>
      * original resource: https://stackoverflow.com/questions/3571223/how-do-i-get-the-file-extension-of-a-file-in-java.
+     * <p>
+     * Extension: The type is returned rather than the text of its Content-Type, whose header field the type has pre-encoded.
      *
      * @param file_name the name of the requested file.
-     * @return the extension of the file.
+     * @return the type of the file, NONE if the server does not know the extension.
      */
-    private String getFileExtension(String file_name) {
+    private FileType getFileType(String file_name) {
         String extension = "";
 
         int i = file_name.lastIndexOf('.'),
@@ -119,35 +494,312 @@ public class Responder {
             extension = file_name.substring(i + 1);
         }
 
-        switch (FileType.convert(extension)) {
-            case HTML:
-                return TEXT_HTML;
-            case GIF:
-            case JPEG:
-            case PNG:
-                return extension;
-            default:
-        }
-
-        return "";
+        return FileType.convert(extension);
     }
 
     /**
      * Similarly to respondHEAD() as for the HEAD request,
      * return a requested header followed by requested file data (if the file exists at the specified location in the document root) to client.
+     * <p>
+     * Extension: If the client asks for ranges of the file, only those are sent, see respondRanges(),
+     * unless If-Range names another version of the file than the current one, in which case the whole file is sent,
+     * compressed if the client accepts it (see selectEncoding()).
+     * If the client's copy of the representation which would be sent is still up to date, return 304 Not Modified without it.
+     * For a directory, return a page of its listing, see respondListing().
      *
      * @param resource_name the name of the request file from the client.
      */
     private void respondGET(String resource_name) {
-        File resource = new File(document_root + resource_name);
+        FileMetadata metadata = metadata_cache.lookup(resource_name);
+
+        if (metadata.isDirectory()) {
+            respondListing(resource_name, metadata, true);
+            return;
+        } else if (!metadata.isFile()) {
+            respondNotFound(resource_name, true);
+            return;
+        }
+
+        CachedContent content = lookupContent(metadata);
+        FileValidators validators = getValidators(content, metadata);
+        long size = content != null ? content.getBody().length : metadata.getSize();
+        String range = request.getHeader(RANGE);
+        long[] ranges = range != null && validators.matchesIfRange(request.getHeader(IF_RANGE)) ? ByteRanges.parse(range, size) : null;
+        ContentEncoding encoding = ranges != null ? ContentEncoding.NONE : selectEncoding(request, metadata);
+
+        if (isNotModified(validators.forEncoding(encoding))) {
+            respondNotModified(validators.forEncoding(encoding), metadata.getFileType());
+        } else if (ranges != null) {
+            respondRanges(metadata, content, size, ranges, validators);
+        } else if (encoding != ContentEncoding.NONE && respondCompressed(metadata, content, validators, encoding, true)) {
+            // the compressed variant has been sent
+        } else if (content != null) {
+            sendHeader(header.fields(content.getHeader()));
+            sendBody(content.getBody());
+
+            logRespond(WORKING_OKAY);
+        } else {
+            sendHeader(getFileHeader(metadata.getFileType(), size, validators));
+            sendResource(metadata, 0, size);
+
+            logRespond(WORKING_OKAY);
+        }
+    }
+
+    /**
+     * Extension: Return a page of the generated index of a directory, which the query of the request selects, see DirectoryListing.
+     * A cached page is sent with its Content-Length; otherwise the page is streamed in chunks while it is rendered
+     * and kept in the listing cache afterwards, unless it is too large, until the DirectoryWatcher reports a change in the directory.
+     * If the directory cannot be read while the page is being sent, the connection is closed, since the status has gone already.
+     *
+     * @param resource_name the name of the requested directory from the client.
+     * @param metadata      the metadata of the directory.
+     * @param with_page     false for a HEAD request, whose response must not have a body.
+     */
+    private void respondListing(String resource_name, FileMetadata metadata, boolean with_page) {
+        Path directory = metadata.getPath();
+        DirectoryListing listing = DirectoryListing.parse(request.getQuery());
+        String query = listing.toQuery();
+        byte[] page = listing_cache.lookup(directory, query);
+
+        if (page != null) {
+            sendHeader(getHeader(WORKING_OKAY, FileType.HTML, page.length));
+            if (with_page) {
+                sendBody(page);
+            }
+
+            logRespond(WORKING_OKAY);
+            return;
+        }
+
+        Map<String, byte[]> pages = listing_cache.getPages(directory); // before the directory is read, see ListingCache
+        ChunkedOutputStream body = sendStreamHeader(header.status(WORKING_OKAY).contentType(FileType.HTML));
+
+        if (with_page) {
+            CapturingOutputStream capture = new CapturingOutputStream(body, pages != null ? listing_cache.getMaxPageBytes() : 0);
+
+            try {
+                listing.render(directory, resource_name, capture);
+                finishStream(body);
+
+                if (pages != null && (page = capture.toByteArray()) != null) {
+                    pages.put(query, page);
+                }
+            } catch (IOException e) {
+                keep_alive = false;
+                write_failed = true;
+                bytes_sent += body.getBytesWritten();
+                log_file.logWarning("IOException: " + e.getMessage());
+            }
+        }
+
+        logRespond(WORKING_OKAY);
+    }
+
+    /**
+     * Extension: Choose the best content coding which the client accepts for a compressible file (see FileType) and in which the file can be sent,
+     * i.e. whose variant is cached, has a precompressed sibling in the document root, e.g. index.html.gz, not older than the file,
+     * or can be compressed by the server itself (only gzip, Brotli is only ever served from a sibling), see makeVariant().
+     * The coding is chosen before the conditional header fields are checked, since they refer to the representation which would be sent.
+     *
+     * @param request  the request for the file.
+     * @param metadata the metadata of the file.
+     * @return the content coding, or NONE if the file is to be sent as it is.
+     */
+    private ContentEncoding selectEncoding(Request request, FileMetadata metadata) {
+        String accept_encoding = request.getHeader(ACCEPT_ENCODING);
+        long size = metadata.getSize();
+
+        if (accept_encoding == null || !metadata.getFileType().isCompressible()) {
+            return ContentEncoding.NONE;
+        }
+
+        for (ContentEncoding encoding : ContentEncoding.PREFERENCE) {
+            if (encoding.isAcceptedBy(accept_encoding)
+                    && (content_cache.contains(ContentCache.getVariantKey(metadata.getResourcePath(), encoding), metadata.getLastModified())
+                    || getSibling(request, metadata, encoding) != null
+                    || encoding.isEncodable() && size >= MIN_COMPRESS_LENGTH && content_cache.accepts(size))) {
+                return encoding;
+            }
+        }
+        return ContentEncoding.NONE;
+    }
+
+    /**
+     * Extension: Return a compressible file compressed with the content coding chosen by selectEncoding().
+     * Variants are kept in the content cache next to the file and are dropped with it when the file changes,
+     * so a hot page is compressed once per version rather than once per request. Siblings too large to cache are sent from disk.
+     * Ranges always refer to the uncompressed file, so requests for ranges are not compressed.
+     *
+     * @param metadata   the metadata of the file.
+     * @param content    the cached file, or null.
+     * @param validators the ETag and Last-Modified of the file.
+     * @param encoding   the content coding.
+     * @param with_body  false for a HEAD request, whose response must not have a body.
+     * @return true if the compressed variant has been sent, false if it could not be made and the file is to be sent as it is.
+     */
+    private boolean respondCompressed(FileMetadata metadata, CachedContent content, FileValidators validators, ContentEncoding encoding,
+                                      boolean with_body) {
+        FileType file_type = metadata.getFileType();
+        CachedContent variant = content_cache.lookup(ContentCache.getVariantKey(metadata.getResourcePath(), encoding), metadata.getLastModified());
+        FileMetadata sibling = variant == null ? getSibling(request, metadata, encoding) : null;
+
+        if (sibling != null && !content_cache.accepts(sibling.getSize())) {
+            long length = sibling.getSize();
+
+            sendHeader(getVariantHeader(file_type, length, encoding, validators));
+            if (with_body) {
+                sendResource(sibling, 0, length);
+            }
+
+            logRespond(WORKING_OKAY);
+            return true;
+        }
 
-        if (resource.exists()) {
-            print_writer.println(getHeader(WORKING_OKAY.toString(), getFileExtension(resource_name), resource.length()));
-            sendResource(document_root + resource_name);
+        if (variant == null) {
+            variant = makeVariant(metadata, content, sibling, encoding, validators);
+        }
+        if (variant == null) {
+            return false;
+        }
+        sendHeader(header.fields(variant.getHeader()));
+        if (with_body) {
+            sendBody(variant.getBody());
+        }
 
-            log_file.logRespond(WORKING_OKAY.toString(), conn.getInetAddress());
+        logRespond(WORKING_OKAY);
+        return true;
+    }
+
+    /**
+     * Extension: Find the precompressed sibling of a file for a content coding, e.g. index.html.gz for gzip.
+     *
+     * @param request  the request for the file.
+     * @param metadata the metadata of the file.
+     * @param encoding the content coding.
+     * @return the metadata of the sibling, or null if there is none or it is older than the file (and so may be stale).
+     */
+    private FileMetadata getSibling(Request request, FileMetadata metadata, ContentEncoding encoding) {
+        FileMetadata sibling = metadata_cache.lookup(request.getPath() + encoding.getExtension());
+
+        return sibling.isFile() && sibling.getLastModified() >= metadata.getLastModified() ? sibling : null;
+    }
+
+    /**
+     * Extension: Make the compressed variant of a file, from its precompressed sibling or by compressing it with gzip, and cache it.
+     * The file is only compressed if it is large enough to gain from it and small enough to be cached,
+     * since a variant which cannot be kept would have to be compressed again for every request.
+     *
+     * @param metadata   the metadata of the file.
+     * @param content    the cached file, whose bytes are compressed rather than reading the file again, or null.
+     * @param sibling    the metadata of the precompressed sibling, or null if there is none.
+     * @param encoding   the content coding of the variant.
+     * @param validators the ETag and Last-Modified of the file.
+     * @return the variant, or null if there is none for this coding.
+     */
+    private CachedContent makeVariant(FileMetadata metadata, CachedContent content, FileMetadata sibling,
+                                      ContentEncoding encoding, FileValidators validators) {
+        long size = metadata.getSize();
+
+        try {
+            byte[] body;
+
+            if (sibling != null) {
+                body = Files.readAllBytes(sibling.getPath());
+            } else if (encoding.isEncodable() && size >= MIN_COMPRESS_LENGTH && content_cache.accepts(size)) {
+                body = compress(content != null ? content.getBody() : Files.readAllBytes(metadata.getPath()));
+            } else {
+                return null;
+            }
+
+            CachedContent variant = new CachedContent(getVariantHeader(metadata.getFileType(), body.length, encoding, validators).toByteArray(),
+                    body, metadata.getLastModified(), validators.forEncoding(encoding));
+            content_cache.put(ContentCache.getVariantKey(metadata.getResourcePath(), encoding), variant);
+
+            return variant;
+        } catch (IOException e) {
+            log_file.logWarning("IOException: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Extension: Compress the content of a file with gzip.
+     *
+     * @param body the content of the file.
+     * @return the compressed content.
+     * @throws IOException is never thrown by the in-memory streams, but declared by them.
+     */
+    private static byte[] compress(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2);
+
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, CHUNK_SIZE)) {
+            gzip.write(body);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Extension: Return only the requested ranges of a file, so that a download can be resumed or a video sought without sending what comes before.
+     * A single range is sent as the body of a 206 Partial Content response with its Content-Range,
+     * several ranges as the parts of a multipart/byteranges body, each with its own Content-Type and Content-Range.
+     * If none of the ranges lies within the file, return 416 Range Not Satisfiable with the size of the file instead.
+     *
+     * @param metadata   the metadata of the requested file.
+     * @param content    the cached file, or null if the file is to be read from disk.
+     * @param size       the size of the file.
+     * @param ranges     the first and last byte of each range in turn, see ByteRanges.
+     * @param validators the ETag and Last-Modified of the file, which a 206 response carries as well.
+     */
+    private void respondRanges(FileMetadata metadata, CachedContent content, long size, long[] ranges, FileValidators validators) {
+        FileType file_type = metadata.getFileType();
+
+        if (ranges.length == 0) {
+            sendHeader(getHeader(RANGE_NOT_SATISFIABLE, file_type, 0).contentRange(-1, -1, size));
+
+            logRespond(RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        if (ranges.length == 2) {
+            sendHeader(getHeader(PARTIAL_CONTENT, file_type, ranges[1] - ranges[0] + 1).contentRange(ranges[0], ranges[1], size)
+                    .append(validators.getFields()));
+            sendRange(metadata, content, ranges[0], ranges[1]);
         } else {
-            respondNotFound(resource_name);
+            byte[][] part_headers = new byte[ranges.length / 2][];
+            long content_length = MULTIPART_END.length;
+
+            for (int i = 0; i < part_headers.length; i++) {
+                part_headers[i] = header.fields(MULTIPART_BOUNDARY).contentType(file_type)
+                        .contentRange(ranges[2 * i], ranges[2 * i + 1], size).append(CR_LF).toByteArray();
+                content_length += part_headers[i].length + ranges[2 * i + 1] - ranges[2 * i] + 1;
+            }
+
+            sendHeader(header.status(PARTIAL_CONTENT).append(MULTIPART_CONTENT_TYPE).contentLength(content_length)
+                    .append(validators.getFields()));
+            for (int i = 0; i < part_headers.length; i++) {
+                sendBody(part_headers[i]);
+                sendRange(metadata, content, ranges[2 * i], ranges[2 * i + 1]);
+            }
+            sendBody(MULTIPART_END);
+        }
+
+        logRespond(PARTIAL_CONTENT);
+    }
+
+    /**
+     * Extension: Send one range of a file, from memory if the file is cached and otherwise with a positioned read from disk.
+     *
+     * @param metadata the metadata of the requested file.
+     * @param content  the cached file, or null.
+     * @param first    the first byte of the range.
+     * @param last     the last byte of the range (inclusive).
+     */
+    private void sendRange(FileMetadata metadata, CachedContent content, long first, long last) {
+        if (content != null) {
+            sendBody(content.getBody(), (int) first, (int) (last - first + 1));
+        } else {
+            sendResource(metadata, first, last - first + 1);
         }
     }
 
@@ -158,32 +810,87 @@ public class Responder {
      * @param resource_name the name of the request-to-be-deleted file from the client.
      */
     private void respondDELETE(String resource_name) {
-        File resource = new File(document_root + resource_name);
+        FileMetadata metadata = metadata_cache.lookup(resource_name);
 
-        if (resource.exists()) {
-            print_writer.println(getHeader(WORKING_OKAY.toString(), getFileExtension(resource_name), 0));
+        if (metadata.exists()) {
+            sendHeader(getHeader(WORKING_OKAY, metadata.getFileType(), 0));
+            logRespond(WORKING_OKAY);
 
-            log_file.logWarning(resource_name
-                    + (resource.delete() ? " HAS BEEN DELETED SUCCESSFULLY" : " HAS FAILED TO BE DELETED SUCCESSFULLY"));
+            if (new File(metadata.getResourcePath()).delete()) {
+                metadata_cache.invalidate(metadata);
+                mapped_file_cache.invalidate(metadata.getResourcePath());
+                content_cache.invalidate(metadata.getResourcePath());
+                for (ContentEncoding encoding : ContentEncoding.PREFERENCE) {
+                    content_cache.invalidate(ContentCache.getVariantKey(metadata.getResourcePath(), encoding));
+                }
+                log_file.logWarning(resource_name + " HAS BEEN DELETED SUCCESSFULLY");
+            } else {
+                log_file.logWarning(resource_name + " HAS FAILED TO BE DELETED SUCCESSFULLY");
+            }
         } else {
-            respondNotFound(resource_name);
+            respondNotFound(resource_name, true);
         }
     }
 
+    /**
+     * Extension: If the client's copy of a file is still up to date,
+     * return 304 Not Modified with the validators of the file, but without the file and without a Content-Length, since there is never a body.
+     * The validators and Vary are those which the 200 response with the same representation would have.
+     *
+     * @param validators the ETag and Last-Modified of the representation, see FileValidators.forEncoding().
+     * @param file_type  the type of the file, which tells whether the representation depends on Accept-Encoding.
+     */
+    private void respondNotModified(FileValidators validators, FileType file_type) {
+        header.status(NOT_MODIFIED).append(validators.getFields());
+        sendHeader(file_type.isCompressible() ? header.append(VARY) : header);
+
+        logRespond(NOT_MODIFIED);
+    }
+
     /**
      * Extension: Returns the HTTP methods that the server supports.
      */
     private void respondOPTIONS() {
-        String page = "<!DOCTYPE HTML PUBLIC \"-//IETF//DTD HTML 2.0//EN\"><html>"
-                + "<head><title> Server-Supported HTTP Methods</title></head>"
-                + "<body><h1>HTTP methods which the server serves</h1><p>HEAD</p><p>GET</p><p>DELETE</p><p>OPTIONS</p></body>"
-                + "</html>";
+        sendHeader(getHeader(WORKING_OKAY, FileType.HTML, OPTIONS_PAGE.length));
+        sendBody(OPTIONS_PAGE);
 
-        print_writer.println(getHeader(WORKING_OKAY.toString(), TEXT_HTML, page.length()));
+        logRespond(WORKING_OKAY);
+    }
 
-        print_writer.println(page);
+    /**
+     * Extension: Return the server's metrics in the Prometheus text format, see ServerMetrics.
+     * The page is streamed in chunks as it is rendered, rather than rendered in full to learn its length first.
+     *
+     * @param with_page false for a HEAD request, whose response must not have a body.
+     */
+    private void respondMetrics(boolean with_page) {
+        ChunkedOutputStream body = sendStreamHeader(header.status(WORKING_OKAY).append(METRICS_CONTENT_TYPE));
+
+        if (with_page) {
+            PrintWriter page = new PrintWriter(new OutputStreamWriter(body, StandardCharsets.US_ASCII));
+            metrics.render(page);
+            page.flush();
+
+            if (page.checkError()) {
+                keep_alive = false;
+                write_failed = true;
+                log_file.logWarning("IOException: FAILED TO WRITE THE METRICS");
+            } else {
+                finishStream(body);
+            }
+        }
 
-        log_file.logRespond(WORKING_OKAY.toString(), conn.getInetAddress());
+        logRespond(WORKING_OKAY);
+    }
+
+    /**
+     * Extension: Log a response and count it in the metrics, together with the bytes sent for it.
+     *
+     * @param response_code the response code of the response.
+     */
+    private void logRespond(ResponseCode response_code) {
+        log_file.logRespond(response_code.toString(), client_address);
+        metrics.countResponse(response_code, bytes_sent);
     }
 
     /**
@@ -191,18 +898,19 @@ public class Responder {
      * then return 404 File Not Found response header followed by HTML page (the latter for a GET request only) to client.
      *
      * @param resource_name the name of the not-found file from the client.
+     * @param with_page     false for a HEAD request, whose response must not have a body.
      */
-    private void respondNotFound(String resource_name) {
-        String page = "<!DOCTYPE HTML PUBLIC \"-//IETF//DTD HTML 2.0//EN\"><html>"
-                + "<head><title>" + NOT_FOUND.toString() + "</title></head>"
-                + "<body><h1>" + NOT_FOUND.toString() + "</h1><p>The requested URL " + resource_name + " was not found on this server.</p></body>"
-                + "</html>";
-
-        print_writer.println(getHeader(NOT_FOUND.toString(), getFileExtension(resource_name), page.length()));
+    private void respondNotFound(String resource_name, boolean with_page) {
+        byte[] name = resource_name.getBytes(StandardCharsets.UTF_8);
 
-        print_writer.println(page);
+        sendHeader(getHeader(NOT_FOUND, getFileType(resource_name), NOT_FOUND_PAGE_START.length + name.length + NOT_FOUND_PAGE_END.length));
+        if (with_page) {
+            sendBody(NOT_FOUND_PAGE_START);
+            sendBody(name);
+            sendBody(NOT_FOUND_PAGE_END);
+        }
 
-        log_file.logRespond(NOT_FOUND.toString(), conn.getInetAddress());
+        logRespond(NOT_FOUND);
     }
 
     /**
@@ -212,46 +920,155 @@ public class Responder {
      * @param unrecognised_code code which has never been implemented in the server.
      */
     private void respondNotImplemented(String unrecognised_code) {
-        print_writer.println(getHeader(NOT_IMPLEMENTED.toString(), TEXT_HTML, 0));
+        sendHeader(getHeader(NOT_IMPLEMENTED, FileType.HTML, 0));
 
         log_file.logInfo("REQUEST CODE " + unrecognised_code + " IS NOT SUPPORTED BY THE SERVER");
-        log_file.logRespond(NOT_IMPLEMENTED.toString(), conn.getInetAddress());
+        logRespond(NOT_IMPLEMENTED);
+    }
+
+    /**
+     * Extension: If the server is too busy to take on the connection,
+     * return 503 Service Unavailable response header without body message, without reading the request.
+     * Retry-After tells the client how long to back off before it tries again.
+     */
+    public void respondServiceUnavailable() {
+        keep_alive = false;
+
+        sendHeader(getHeader(SERVICE_UNAVAILABLE, FileType.HTML, 0).field(RETRY_AFTER, retry_after));
+
+        logRespond(SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Extension: If the client opens connections faster than the rate limit allows,
+     * return 429 Too Many Requests response header without body message, without reading the request.
+     * Retry-After tells the client when its next connection will be let through.
+     *
+     * @param wait_nanos how long the client has to wait, which Retry-After rounds up to whole seconds.
+     */
+    public void respondTooManyRequests(long wait_nanos) {
+        long retry_after_seconds = Math.max(1, (wait_nanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND);
+        keep_alive = false;
+
+        sendHeader(getHeader(TOO_MANY_REQUESTS, FileType.HTML, 0).field(RETRY_AFTER, retry_after_seconds));
+
+        logRespond(TOO_MANY_REQUESTS);
+    }
+
+    /**
+     * Extension: If the request line lacks the target of the request, or the end of its body cannot be told safely
+     * (see Request.hasInvalidFraming()), return 400 Bad Request without body message.
+     * The connection is closed afterwards since the server cannot be sure where the next request starts.
+     */
+    private void respondBadRequest() {
+        keep_alive = false;
+
+        sendHeader(getHeader(BAD_REQUEST, FileType.HTML, 0));
+
+        logRespond(BAD_REQUEST);
+    }
+
+    /**
+     * Extension: Check whether responding to a request may have to wait for the file system rather than being served from the caches,
+     * i.e. it deletes a file, lists a directory whose page is not cached, reads a file into the content cache,
+     * or makes the compressed variant which the client would get (see selectEncoding()) by compressing the file or reading its sibling,
+     * so that the event-loop engine responds to it on a worker rather than stalling every other connection of the loop.
+     * Only the metadata of the paths is looked up, which the metadata cache answers without a stat once the paths are indexed.
+     * A request for ranges, which is never compressed, may be offloaded for its variant all the same.
+     *
+     * @param request request message from a client.
+     * @return true if the response is better rendered off the event loop.
+     */
+    public boolean mayBlock(Request request) {
+        RequestCode code = request.getCode();
+        String target = request.getPath();
+
+        if (code == RequestCode.DELETE) {
+            return true;
+        }
+        if ((code != RequestCode.GET && code != RequestCode.HEAD) || target == null || target.equals(metrics_path)) {
+            return false;
+        }
+
+        FileMetadata metadata = context.getMetadataCache().lookup(target);
+        if (metadata.isDirectory()) {
+            return listing_cache.lookup(metadata.getPath(), DirectoryListing.parse(request.getQuery()).toQuery()) == null;
+        }
+        if (!metadata.isFile()) {
+            return false;
+        }
+        if (content_cache.accepts(metadata.getSize()) && !content_cache.contains(metadata.getResourcePath(), metadata.getLastModified())) {
+            return true;
+        }
+
+        ContentEncoding encoding = selectEncoding(request, metadata);
+        return encoding != ContentEncoding.NONE
+                && !content_cache.contains(ContentCache.getVariantKey(metadata.getResourcePath(), encoding), metadata.getLastModified());
     }
 
     /**
      * Check whether the textual request from client corresponds to HEAD, GET and DELETE request
      * and then respond appropriately with successful messages or error messages when non-existent services or resources are requested.
      * If the received request is not supported, then send back 501 File Not Implemented response to the client.
+     * <p>
+     * Extension: Every response is framed by its Content-Length, so the connection can stay open for further requests.
+     * GET and HEAD requests for the metrics path are answered with the server's metrics instead of a file.
+     * GET and HEAD requests for files may be conditional on the client's copy being out of date (If-None-Match, If-Modified-Since).
+     * A request is served entirely from the document root current when it arrives, even if the root is swapped meanwhile.
      *
-     * @param request request message from a client.
+     * @param request    request message from a client.
+     * @param keep_alive whether the connection is to stay open after the response, as far as the caller is concerned.
+     * @return true if the connection stays open for another request.
      * @throws IOException is thrown in case of connection failed.
      */
-    public void processRequest(String request) throws IOException {
-        print_writer = new PrintWriter(this.conn.getOutputStream(), true);
+    public boolean processRequest(Request request, boolean keep_alive) throws IOException {
+        long start = System.nanoTime();
+        String request_code = request.getRequestCode();
+        RequestCode code = request.getCode();
+        String target = request.getPath();
 
-        String[] request_header = request.split("\\s+");
-        String request_code = request_header[0];
+        this.metadata_cache = context.getMetadataCache(); // the document root may have been swapped since the last request
+        this.keep_alive = keep_alive;
+        this.write_failed = false;
+        this.bytes_sent = 0;
+        this.request = request;
+        log_file.logRequest(request_code, client_address);
+        metrics.countRequest(code);
 
-        log_file.logRequest(request_code, conn.getInetAddress());
+        if (request.hasInvalidFraming() || target == null && code != RequestCode.OPTIONS && code != RequestCode.NONE) {
+            respondBadRequest();
+        } else {
+            switch (code) {
+                case HEAD:
+                    if (target.equals(metrics_path)) {
+                        respondMetrics(false);
+                    } else {
+                        respondHEAD(target);
+                    }
+                    break;
+                case GET:
+                    if (target.equals(metrics_path)) {
+                        respondMetrics(true);
+                    } else {
+                        respondGET(target);
+                    }
+                    break;
+                case DELETE:
+                    respondDELETE(target);
+                    break;
+                case OPTIONS:
+                    respondOPTIONS();
+                    break;
+                default:
+                    respondNotImplemented(request_code);
+            }
+        }
 
-        switch (RequestCode.convert(request_code)) {
-            case HEAD:
-                respondHEAD(request_header[1]);
-                break;
-            case GET:
-                respondGET(request_header[1]);
-                break;
-            case DELETE:
-                respondDELETE(request_header[1]);
-                break;
-            case OPTIONS:
-                respondOPTIONS();
-            default:
-                respondNotImplemented(request_code);
+        metrics.recordResponseTime(System.nanoTime() - start);
+        if (write_failed) {
+            throw new IOException("failed to write the response");
         }
 
-        print_writer.close();
+        return this.keep_alive;
     }
-
-
 }
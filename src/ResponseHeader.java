@@ -0,0 +1,200 @@
+import constants.FileType;
+import constants.ResponseCode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Extension: A response header assembled from pre-encoded byte templates in a buffer which is reused for every response.
+ * <p>
+ * The status lines (ResponseCode), the Content-Type fields (FileType) and the names of the other fields are encoded once, so building a header
+ * only copies bytes; numbers such as the Content-Length are written into the buffer digit by digit, without creating a String.
+ * The header is ended by the Connection field and the blank line which separates it from the body.
+ */
+public class ResponseHeader {
+    private static final int INITIAL_SIZE = 256;
+
+    private static final byte[] CONTENT_LENGTH = "Content-Length: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_RANGE = "Content-Range: bytes ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSFER_ENCODING_CHUNKED = "Transfer-Encoding: chunked\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CR_LF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEEP_ALIVE = "Connection: keep-alive\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "Connection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf = new byte[INITIAL_SIZE];
+    private int length = 0;
+
+    /**
+     * Start a new header with its status line, dropping whatever the buffer held before.
+     *
+     * @param response_code the response code of the response.
+     * @return this header, to add the next field to.
+     */
+    public ResponseHeader status(ResponseCode response_code) {
+        length = 0;
+        return append(response_code.getStatusLine());
+    }
+
+    /**
+     * Start a new header with fields which have been rendered before, e.g. those kept with a cached file.
+     *
+     * @param fields the pre-rendered status line and fields, see toByteArray().
+     * @return this header, to add the next field to.
+     */
+    public ResponseHeader fields(byte[] fields) {
+        length = 0;
+        return append(fields);
+    }
+
+    /**
+     * Add the Content-Type field of a type of file.
+     *
+     * @param file_type the type of the resource.
+     * @return this header, to add the next field to.
+     */
+    public ResponseHeader contentType(FileType file_type) {
+        return append(file_type.getContentTypeField());
+    }
+
+    /**
+     * Add the Content-Length field.
+     *
+     * @param content_length the size of the body.
+     * @return this header, to add the next field to.
+     */
+    public ResponseHeader contentLength(long content_length) {
+        return field(CONTENT_LENGTH, content_length);
+    }
+
+    /**
+     * Add the Transfer-Encoding field of a body which is sent in chunks (see ChunkedOutputStream), in place of the Content-Length.
+     *
+     * @return this header, to add the next field to.
+     */
+    public ResponseHeader chunked() {
+        return append(TRANSFER_ENCODING_CHUNKED);
+    }
+
+    /**
+     * Add a field whose value is a number.
+     *
+     * @param name  the pre-encoded name of the field including ": ".
+     * @param value the value of the field, which must not be negative.
+     * @return this header, to add the next field to.
+     */
+    public ResponseHeader field(byte[] name, long value) {
+        append(name);
+        appendNumber(value);
+
+        return append(CR_LF);
+    }
+
+    /**
+     * Add the Content-Range field of a part of a file, or of a range which cannot be satisfied.
+     *
+     * @param first the first byte of the part, or -1 if no part of the file can be sent.
+     * @param last  the last byte of the part (inclusive).
+     * @param size  the size of the whole file.
+     * @return this header, to add the next field to.
+     */
+    public ResponseHeader contentRange(long first, long last, long size) {
+        append(CONTENT_RANGE);
+        if (first < 0) {
+            ensureCapacity(1);
+            buf[length++] = '*';
+        } else {
+            appendNumber(first);
+            ensureCapacity(1);
+            buf[length++] = '-';
+            appendNumber(last);
+        }
+        ensureCapacity(1);
+        buf[length++] = '/';
+        appendNumber(size);
+
+        return append(CR_LF);
+    }
+
+    /**
+     * Add a field whose value is ASCII text, e.g. a date, copying the characters without a charset encoder.
+     *
+     * @param name  the pre-encoded name of the field including ": ".
+     * @param value the value of the field.
+     * @return this header, to add the next field to.
+     */
+    public ResponseHeader field(byte[] name, String value) {
+        append(name);
+        ensureCapacity(value.length() + CR_LF.length);
+
+        for (int i = 0; i < value.length(); i++) {
+            buf[length++] = (byte) value.charAt(i);
+        }
+
+        return append(CR_LF);
+    }
+
+    /**
+     * Add a whole pre-encoded field (or several of them) including the trailing <CR><LF>.
+     *
+     * @param field the pre-encoded field.
+     * @return this header, to add the next field to.
+     */
+    public ResponseHeader append(byte[] field) {
+        ensureCapacity(field.length);
+        System.arraycopy(field, 0, buf, length, field.length);
+        length += field.length;
+
+        return this;
+    }
+
+    /**
+     * Get a copy of the fields added so far, to be kept and restarted from with fields().
+     *
+     * @return the status line and fields without the end of the header.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, length);
+    }
+
+    /**
+     * Finish the header with the Connection field and the blank line, and write it out in one go.
+     *
+     * @param out        where the response is written to.
+     * @param keep_alive whether the connection stays open after the response.
+     * @return the number of bytes written.
+     * @throws IOException is thrown in case of failure of writing to the stream.
+     */
+    public int writeTo(OutputStream out, boolean keep_alive) throws IOException {
+        append(keep_alive ? KEEP_ALIVE : CLOSE);
+        out.write(buf, 0, length);
+        return length;
+    }
+
+    private void appendNumber(long value) {
+        ensureCapacity(20); // Long.MAX_VALUE has 19 digits
+
+        int end = length + digits(value);
+        for (int i = end - 1; i >= length; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length = end;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (length + needed > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + needed));
+        }
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,599 @@
+import constants.DispatchMode;
+import constants.LogFormat;
+import constants.LogOverflowPolicy;
+import constants.SaturationPolicy;
+import constants.ServerEngine;
+
+/**
+ * Extension: This holds the start-up settings of the server so that new tuning knobs do not keep growing the WebServer constructor.
+ * The four basic settings are given to the constructor, the rest have sensible defaults and can be overridden by name=value options.
+ */
+public class ServerConfig {
+    private static final String OPTION_PREFIX = "--";
+    private static final char OPTION_SEPARATOR = '=';
+
+    private String document_root;
+    private int port;
+    private String log_path;
+    private int max_clients;
+
+    private ServerEngine engine = ServerEngine.BLOCKING;
+    private int event_loops = Runtime.getRuntime().availableProcessors();
+    private int acceptors = 1;
+    private int backlog = 1024;
+    private boolean reuse_port = true;
+    private boolean tcp_no_delay = true;
+    private int send_buffer = 0;
+    private int receive_buffer = 0;
+    private DispatchMode dispatch_mode = DispatchMode.FIXED;
+    private int pool_size = Runtime.getRuntime().availableProcessors() * 2;
+    private int max_pool_size = Runtime.getRuntime().availableProcessors() * 8;
+    private int queue_depth = 128;
+    private SaturationPolicy saturation_policy = SaturationPolicy.BLOCK;
+    private int keep_alive_timeout = 5000;
+    private int max_keep_alive_requests = 100;
+    private long cache_bytes = 64L * 1024 * 1024;
+    private long cache_max_entry_bytes = 1024L * 1024;
+    private int metadata_entries = 100000;
+    private long mmap_threshold = 1024L * 1024;
+    private long mmap_bytes = 1024L * 1024 * 1024;
+    private long buffer_pool_bytes = 32L * 1024 * 1024;
+    private boolean buffer_leak_detection = false;
+    private LogFormat log_format = LogFormat.PLAIN;
+    private LogOverflowPolicy log_overflow_policy = LogOverflowPolicy.BLOCK;
+    private int log_buffer_size = 8192;
+    private long log_flush_interval = 1000;
+    private int retry_after = 1;
+    private double rate_limit = 0;
+    private double rate_limit_burst = 0;
+    private int rate_limit_clients = 1_000_000;
+    private String metrics_path = "/_metrics";
+    private long shutdown_timeout = 30_000;
+
+    /**
+     * Initialise the settings every server needs.
+     *
+     * @param document_root path where the server serves a requested file to a client.
+     * @param port          socket port which the server will be listening to.
+     * @param log_path      the path which log uses to track information of the requests into a file.
+     * @param max_clients   the maximum number of client connection requests which server can serve at the time.
+     */
+    public ServerConfig(String document_root, int port, String log_path, int max_clients) {
+        this.document_root = document_root;
+        this.port = port;
+        this.log_path = log_path;
+        this.max_clients = max_clients;
+    }
+
+    /**
+     * Override one of the optional settings from a command-line option of the form --name=value, e.g. --pool=16.
+     *
+     * @param option the command-line option.
+     * @throws IllegalArgumentException is thrown in case of an unknown option or a malformed value.
+     */
+    public void applyOption(String option) {
+        int i = option.indexOf(OPTION_SEPARATOR);
+
+        if (!option.startsWith(OPTION_PREFIX) || i < 0) {
+            throw new IllegalArgumentException("MALFORMED OPTION " + option);
+        }
+
+        String name = option.substring(OPTION_PREFIX.length(), i);
+        String value = option.substring(i + 1);
+
+        switch (name) {
+            case "engine":
+                engine = ServerEngine.convert(value);
+                if (engine == ServerEngine.NONE) {
+                    throw new IllegalArgumentException("UNKNOWN ENGINE " + value);
+                }
+                break;
+            case "event-loops":
+                event_loops = Integer.parseInt(value);
+                break;
+            case "acceptors":
+                acceptors = Integer.parseInt(value);
+                break;
+            case "backlog":
+                backlog = Integer.parseInt(value);
+                break;
+            case "reuse-port":
+                reuse_port = Boolean.parseBoolean(value);
+                break;
+            case "tcp-no-delay":
+                tcp_no_delay = Boolean.parseBoolean(value);
+                break;
+            case "send-buffer":
+                send_buffer = Integer.parseInt(value);
+                break;
+            case "receive-buffer":
+                receive_buffer = Integer.parseInt(value);
+                break;
+            case "dispatch":
+                dispatch_mode = DispatchMode.convert(value);
+                if (dispatch_mode == DispatchMode.NONE) {
+                    throw new IllegalArgumentException("UNKNOWN DISPATCH MODE " + value);
+                }
+                break;
+            case "pool":
+                pool_size = Integer.parseInt(value);
+                break;
+            case "max-pool":
+                max_pool_size = Integer.parseInt(value);
+                break;
+            case "queue":
+                queue_depth = Integer.parseInt(value);
+                break;
+            case "saturation":
+                saturation_policy = SaturationPolicy.convert(value);
+                if (saturation_policy == SaturationPolicy.NONE) {
+                    throw new IllegalArgumentException("UNKNOWN SATURATION POLICY " + value);
+                }
+                break;
+            case "keep-alive-timeout":
+                keep_alive_timeout = Integer.parseInt(value);
+                break;
+            case "max-keep-alive-requests":
+                max_keep_alive_requests = Integer.parseInt(value);
+                break;
+            case "cache-bytes":
+                cache_bytes = Long.parseLong(value);
+                break;
+            case "cache-max-entry":
+                cache_max_entry_bytes = Long.parseLong(value);
+                break;
+            case "metadata-entries":
+                metadata_entries = Integer.parseInt(value);
+                break;
+            case "mmap-threshold":
+                mmap_threshold = Long.parseLong(value);
+                break;
+            case "mmap-bytes":
+                mmap_bytes = Long.parseLong(value);
+                break;
+            case "buffer-pool-bytes":
+                buffer_pool_bytes = Long.parseLong(value);
+                break;
+            case "buffer-leak-detection":
+                buffer_leak_detection = Boolean.parseBoolean(value);
+                break;
+            case "log-format":
+                log_format = LogFormat.convert(value);
+                if (log_format == LogFormat.NONE) {
+                    throw new IllegalArgumentException("UNKNOWN LOG FORMAT " + value);
+                }
+                break;
+            case "log-overflow":
+                log_overflow_policy = LogOverflowPolicy.convert(value);
+                if (log_overflow_policy == LogOverflowPolicy.NONE) {
+                    throw new IllegalArgumentException("UNKNOWN LOG OVERFLOW POLICY " + value);
+                }
+                break;
+            case "log-buffer":
+                log_buffer_size = Integer.parseInt(value);
+                break;
+            case "log-flush-interval":
+                log_flush_interval = Long.parseLong(value);
+                break;
+            case "retry-after":
+                retry_after = Integer.parseInt(value);
+                break;
+            case "rate-limit":
+                rate_limit = Double.parseDouble(value);
+                break;
+            case "rate-limit-burst":
+                rate_limit_burst = Double.parseDouble(value);
+                break;
+            case "rate-limit-clients":
+                rate_limit_clients = Integer.parseInt(value);
+                break;
+            case "shutdown-timeout":
+                shutdown_timeout = Long.parseLong(value);
+                break;
+            case "metrics-path":
+                metrics_path = value.isEmpty() ? null : value;
+                break;
+            default:
+                throw new IllegalArgumentException("UNKNOWN OPTION " + option);
+        }
+    }
+
+    public String getDocumentRoot() {
+        return document_root;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getLogPath() {
+        return log_path;
+    }
+
+    public int getMaxClients() {
+        return max_clients;
+    }
+
+    public ServerEngine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(ServerEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Only used by the nio engine: the number of selector threads connections are spread over.
+     *
+     * @return the number of event loops.
+     */
+    public int getEventLoops() {
+        return event_loops;
+    }
+
+    public void setEventLoops(int event_loops) {
+        this.event_loops = event_loops;
+    }
+
+    /**
+     * The number of threads accepting connections, see Acceptor.
+     *
+     * @return the number of acceptors.
+     */
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public void setAcceptors(int acceptors) {
+        this.acceptors = acceptors;
+    }
+
+    /**
+     * How many connections the kernel may queue for each listening socket before they are accepted.
+     *
+     * @return the backlog, 0 or less for the JDK's default.
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * Whether several acceptors each get a listening socket of their own bound with SO_REUSEPORT (where the platform has it),
+     * rather than all of them sharing one.
+     *
+     * @return true to use SO_REUSEPORT.
+     */
+    public boolean isReusePort() {
+        return reuse_port;
+    }
+
+    public void setReusePort(boolean reuse_port) {
+        this.reuse_port = reuse_port;
+    }
+
+    /**
+     * Whether Nagle's algorithm is turned off on accepted sockets, so that a response is sent without waiting for the client's ACK
+     * of the previous segment.
+     *
+     * @return the TCP_NODELAY setting of accepted sockets.
+     */
+    public boolean isTcpNoDelay() {
+        return tcp_no_delay;
+    }
+
+    public void setTcpNoDelay(boolean tcp_no_delay) {
+        this.tcp_no_delay = tcp_no_delay;
+    }
+
+    /**
+     * The size of the kernel's send buffer of every accepted socket.
+     *
+     * @return the SO_SNDBUF size in bytes, 0 or less for the system's default.
+     */
+    public int getSendBuffer() {
+        return send_buffer;
+    }
+
+    public void setSendBuffer(int send_buffer) {
+        this.send_buffer = send_buffer;
+    }
+
+    /**
+     * The size of the kernel's receive buffer of every accepted socket, set on the listening socket so that it applies from the handshake on.
+     *
+     * @return the SO_RCVBUF size in bytes, 0 or less for the system's default.
+     */
+    public int getReceiveBuffer() {
+        return receive_buffer;
+    }
+
+    public void setReceiveBuffer(int receive_buffer) {
+        this.receive_buffer = receive_buffer;
+    }
+
+    public DispatchMode getDispatchMode() {
+        return dispatch_mode;
+    }
+
+    public void setDispatchMode(DispatchMode dispatch_mode) {
+        this.dispatch_mode = dispatch_mode;
+    }
+
+    public int getPoolSize() {
+        return pool_size;
+    }
+
+    public void setPoolSize(int pool_size) {
+        this.pool_size = pool_size;
+    }
+
+    /**
+     * Only used by the elastic dispatch mode: the pool never grows beyond this size.
+     *
+     * @return the maximum number of worker threads.
+     */
+    public int getMaxPoolSize() {
+        return Math.max(max_pool_size, pool_size);
+    }
+
+    public void setMaxPoolSize(int max_pool_size) {
+        this.max_pool_size = max_pool_size;
+    }
+
+    public int getQueueDepth() {
+        return queue_depth;
+    }
+
+    public void setQueueDepth(int queue_depth) {
+        this.queue_depth = queue_depth;
+    }
+
+    public SaturationPolicy getSaturationPolicy() {
+        return saturation_policy;
+    }
+
+    public void setSaturationPolicy(SaturationPolicy saturation_policy) {
+        this.saturation_policy = saturation_policy;
+    }
+
+    /**
+     * How long a kept-alive connection may sit idle between two requests before the server closes it.
+     *
+     * @return the idle timeout in milliseconds.
+     */
+    public int getKeepAliveTimeout() {
+        return keep_alive_timeout;
+    }
+
+    public void setKeepAliveTimeout(int keep_alive_timeout) {
+        this.keep_alive_timeout = keep_alive_timeout;
+    }
+
+    /**
+     * How many requests a single connection may make before the server closes it, 1 turns keep-alive off.
+     *
+     * @return the maximum number of requests per connection.
+     */
+    public int getMaxKeepAliveRequests() {
+        return max_keep_alive_requests;
+    }
+
+    public void setMaxKeepAliveRequests(int max_keep_alive_requests) {
+        this.max_keep_alive_requests = max_keep_alive_requests;
+    }
+
+    /**
+     * The byte budget of the static content cache, 0 turns caching off.
+     *
+     * @return the budget in bytes.
+     */
+    public long getCacheBytes() {
+        return cache_bytes;
+    }
+
+    public void setCacheBytes(long cache_bytes) {
+        this.cache_bytes = cache_bytes;
+    }
+
+    /**
+     * Files larger than this are never put into the static content cache.
+     *
+     * @return the size limit in bytes.
+     */
+    public long getCacheMaxEntryBytes() {
+        return cache_max_entry_bytes;
+    }
+
+    public void setCacheMaxEntryBytes(long cache_max_entry_bytes) {
+        this.cache_max_entry_bytes = cache_max_entry_bytes;
+    }
+
+    /**
+     * The most paths of the document root whose metadata is indexed, 0 turns the index off.
+     *
+     * @return the number of paths.
+     */
+    public int getMetadataEntries() {
+        return metadata_entries;
+    }
+
+    public void setMetadataEntries(int metadata_entries) {
+        this.metadata_entries = metadata_entries;
+    }
+
+    /**
+     * Files at least this large (and too large for the content cache) are served from memory-mapped regions, 0 turns mapping off.
+     *
+     * @return the size threshold in bytes.
+     */
+    public long getMmapThreshold() {
+        return mmap_threshold;
+    }
+
+    public void setMmapThreshold(long mmap_threshold) {
+        this.mmap_threshold = mmap_threshold;
+    }
+
+    /**
+     * The most bytes of files mapped at the same time.
+     *
+     * @return the budget in bytes.
+     */
+    public long getMmapBytes() {
+        return mmap_bytes;
+    }
+
+    public void setMmapBytes(long mmap_bytes) {
+        this.mmap_bytes = mmap_bytes;
+    }
+
+    /**
+     * The most bytes of idle direct buffers which the buffer pool keeps for reuse.
+     *
+     * @return the budget in bytes.
+     */
+    public long getBufferPoolBytes() {
+        return buffer_pool_bytes;
+    }
+
+    public void setBufferPoolBytes(long buffer_pool_bytes) {
+        this.buffer_pool_bytes = buffer_pool_bytes;
+    }
+
+    /**
+     * Whether pooled buffers which are never given back are tracked down and logged, for debugging.
+     *
+     * @return true if leak detection is on.
+     */
+    public boolean isBufferLeakDetection() {
+        return buffer_leak_detection;
+    }
+
+    public void setBufferLeakDetection(boolean buffer_leak_detection) {
+        this.buffer_leak_detection = buffer_leak_detection;
+    }
+
+    public LogFormat getLogFormat() {
+        return log_format;
+    }
+
+    public void setLogFormat(LogFormat log_format) {
+        this.log_format = log_format;
+    }
+
+    public LogOverflowPolicy getLogOverflowPolicy() {
+        return log_overflow_policy;
+    }
+
+    public void setLogOverflowPolicy(LogOverflowPolicy log_overflow_policy) {
+        this.log_overflow_policy = log_overflow_policy;
+    }
+
+    /**
+     * The number of log records which can wait for the log writer, rounded up to a power of two.
+     *
+     * @return the size of the log buffer in records.
+     */
+    public int getLogBufferSize() {
+        return log_buffer_size;
+    }
+
+    public void setLogBufferSize(int log_buffer_size) {
+        this.log_buffer_size = log_buffer_size;
+    }
+
+    /**
+     * How often the log writer flushes the log file while records keep coming in; it also flushes whenever it runs out of records.
+     *
+     * @return the flush interval in milliseconds.
+     */
+    public long getLogFlushInterval() {
+        return log_flush_interval;
+    }
+
+    public void setLogFlushInterval(long log_flush_interval) {
+        this.log_flush_interval = log_flush_interval;
+    }
+
+    /**
+     * How long a client turned away with 503 Service Unavailable is asked to wait before it tries again.
+     *
+     * @return the Retry-After delay in seconds.
+     */
+    public int getRetryAfter() {
+        return retry_after;
+    }
+
+    public void setRetryAfter(int retry_after) {
+        this.retry_after = retry_after;
+    }
+
+    /**
+     * How many connections per second every client (by IP address) may open in the long run, see RateLimiter.
+     *
+     * @return the rate, 0 or less for no limit.
+     */
+    public double getRateLimit() {
+        return rate_limit;
+    }
+
+    public void setRateLimit(double rate_limit) {
+        this.rate_limit = rate_limit;
+    }
+
+    /**
+     * How many connections a client may open at once after being idle.
+     *
+     * @return the size of every client's token bucket, 0 or less for as many as the rate allows per second.
+     */
+    public double getRateLimitBurst() {
+        return rate_limit_burst > 0 ? rate_limit_burst : Math.max(1, rate_limit);
+    }
+
+    public void setRateLimitBurst(double rate_limit_burst) {
+        this.rate_limit_burst = rate_limit_burst;
+    }
+
+    /**
+     * The most clients the rate limiter keeps track of, beyond which the least recently seen ones start afresh.
+     *
+     * @return the number of clients.
+     */
+    public int getRateLimitClients() {
+        return rate_limit_clients;
+    }
+
+    public void setRateLimitClients(int rate_limit_clients) {
+        this.rate_limit_clients = rate_limit_clients;
+    }
+
+    /**
+     * The reserved path on which the server answers GET and HEAD with its metrics instead of a file, null turns the metrics off.
+     *
+     * @return the metrics path, e.g. /_metrics.
+     */
+    public String getMetricsPath() {
+        return metrics_path;
+    }
+
+    public void setMetricsPath(String metrics_path) {
+        this.metrics_path = metrics_path;
+    }
+
+    /**
+     * How long a stopping server waits for the requests in flight to finish before it closes their connections, see WebServer.stop().
+     *
+     * @return the drain deadline in milliseconds.
+     */
+    public long getShutdownTimeout() {
+        return shutdown_timeout;
+    }
+
+    public void setShutdownTimeout(long shutdown_timeout) {
+        this.shutdown_timeout = shutdown_timeout;
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Paths;
+
+/**
+ * Extension: This bundles what every handler of every connection shares, i.e. where documents are served from, the log and the caches,
+ * so that they are created once by the WebServer and handed down to each ConnectionHandler and Responder in one piece.
+ * <p>
+ * The document root can be swapped while the server is running (see swapDocumentRoot()). Only the MetadataCache resolves requested paths
+ * against the document root; everything else is keyed by resolved paths, so swapping the MetadataCache swaps the document root.
+ * It also tells the handlers when the server is draining its connections before it stops.
+ */
+public class ServerContext {
+    private ServerConfig config;
+    private volatile String document_root;
+    private LogFile log_file;
+    private ContentCache content_cache;
+    private DirectoryWatcher directory_watcher;
+    private volatile MetadataCache metadata_cache;
+    private MappedFileCache mapped_file_cache;
+    private BufferPool buffer_pool;
+    private ListingCache listing_cache;
+    private AdmissionControl admission_control;
+    private RateLimiter rate_limiter;
+    private ServerMetrics metrics;
+    private volatile boolean draining = false;
+
+    /**
+     * Initialise variables.
+     *
+     * @param config   the settings of the server.
+     * @param log_file used to track information of the requests into a file.
+     */
+    public ServerContext(ServerConfig config, LogFile log_file) {
+        this.config = config;
+        this.document_root = config.getDocumentRoot();
+        this.log_file = log_file;
+        this.content_cache = new ContentCache(config.getCacheBytes(), config.getCacheMaxEntryBytes());
+        this.directory_watcher = new DirectoryWatcher(log_file);
+        this.metadata_cache = new MetadataCache(document_root, directory_watcher, config.getMetadataEntries(), log_file);
+        this.metadata_cache.warm();
+        this.mapped_file_cache = new MappedFileCache(directory_watcher, config.getMmapThreshold(), config.getMmapBytes(), log_file);
+        this.listing_cache = new ListingCache(directory_watcher, Math.min(config.getCacheMaxEntryBytes(), config.getCacheBytes()));
+        this.buffer_pool = new BufferPool(config.getBufferPoolBytes(), config.isBufferLeakDetection(), log_file);
+        this.admission_control = new AdmissionControl(config.getMaxClients());
+        this.rate_limiter = new RateLimiter(config.getRateLimit(), config.getRateLimitBurst(), config.getRateLimitClients());
+        this.metrics = new ServerMetrics(admission_control, rate_limiter, content_cache, mapped_file_cache, buffer_pool, log_file);
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    public String getDocumentRoot() {
+        return document_root;
+    }
+
+    public LogFile getLogFile() {
+        return log_file;
+    }
+
+    public ContentCache getContentCache() {
+        return content_cache;
+    }
+
+    public DirectoryWatcher getDirectoryWatcher() {
+        return directory_watcher;
+    }
+
+    public MetadataCache getMetadataCache() {
+        return metadata_cache;
+    }
+
+    public MappedFileCache getMappedFileCache() {
+        return mapped_file_cache;
+    }
+
+    public BufferPool getBufferPool() {
+        return buffer_pool;
+    }
+
+    public ListingCache getListingCache() {
+        return listing_cache;
+    }
+
+    public AdmissionControl getAdmissionControl() {
+        return admission_control;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rate_limiter;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Serve documents from another directory from now on, without restarting the server.
+     * <p>
+     * The index of the new document root is built and warmed first, so the first requests after the swap do not all miss it.
+     * It then replaces the old one in a single volatile write: every request which starts afterwards is served from the new document root,
+     * and a request which is being served keeps the index it started with (see Responder.processRequest()), so no request sees a mix of both.
+     * The directories of the old document root are no longer watched, and what the caches hold of them is dropped.
+     *
+     * @param new_root the directory to serve documents from.
+     * @throws IOException is thrown in case the new document root is not a directory.
+     */
+    public synchronized void swapDocumentRoot(String new_root) throws IOException {
+        if (!Files.isDirectory(Paths.get(new_root))) {
+            throw new NotDirectoryException(new_root);
+        }
+
+        MetadataCache old_cache = metadata_cache;
+        MetadataCache new_cache = new MetadataCache(new_root, directory_watcher, config.getMetadataEntries(), log_file);
+        if (config.getMetadataEntries() > 0) {
+            new_cache.run(); // warm it on this thread, before any request is served from it
+        }
+
+        metadata_cache = new_cache;
+        document_root = new_root;
+        log_file.logInfo("DOCUMENT ROOT HAS BEEN SWAPPED FROM " + old_cache.getRoot() + " TO " + new_cache.getRoot());
+
+        directory_watcher.removeListener(old_cache);
+        directory_watcher.unwatch(old_cache.getRoot(), new_cache.getRoot());
+    }
+
+    /**
+     * Tell the handlers that the server is stopping, so that they close their connections after the requests in flight.
+     */
+    public void startDraining() {
+        draining = true;
+    }
+
+    /**
+     * Check whether the server is stopping.
+     *
+     * @return true once the connections are to be closed after the requests in flight.
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Release what outlives the connections once the server has stopped: stop watching directories, drop the mapped files and
+     * write out and close the log.
+     */
+    public void close() {
+        directory_watcher.close();
+        mapped_file_cache.clear();
+        log_file.close();
+    }
+}
@@ -0,0 +1,246 @@
+import constants.RequestCode;
+import constants.ResponseCode;
+
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Extension: The instrumentation of the server, i.e. request counts by request code, response counts by response code, bytes sent,
+ * and latency histograms of accept-to-first-byte and of producing each response.
+ * <p>
+ * Counters are LongAdders indexed by the ordinal of the code and latencies go into LatencyHistograms, so that recording is allocation-free
+ * and spreads over many cells rather than contending on one. The connection, cache and log statistics are read from where they are kept.
+ * render() writes everything in the Prometheus text format, which the Responder streams on the configured metrics path.
+ */
+public class ServerMetrics {
+    private static final long[] BUCKET_BOUNDS_NANOS = {
+            100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L,
+            10_000_000L, 25_000_000L, 50_000_000L,
+            100_000_000L, 250_000_000L, 500_000_000L,
+            1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L};
+    private static final String[] BUCKET_LABELS = new String[BUCKET_BOUNDS_NANOS.length];
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS_NANOS.length; i++) {
+            BUCKET_LABELS[i] = BigDecimal.valueOf(BUCKET_BOUNDS_NANOS[i], 9).stripTrailingZeros().toPlainString(); // in seconds
+        }
+    }
+
+    private LongAdder[] requests = newCounters(RequestCode.values().length);
+    private LongAdder[] responses = newCounters(ResponseCode.values().length);
+    private LongAdder bytes_sent = new LongAdder();
+    private LatencyHistogram first_byte = new LatencyHistogram();
+    private LatencyHistogram response_time = new LatencyHistogram();
+    private IntSupplier queue_depth = () -> 0;
+    private Acceptor[] acceptors = new Acceptor[0];
+
+    private AdmissionControl admission_control;
+    private RateLimiter rate_limiter;
+    private ContentCache content_cache;
+    private MappedFileCache mapped_file_cache;
+    private BufferPool buffer_pool;
+    private LogFile log_file;
+
+    /**
+     * Initialise variables.
+     *
+     * @param admission_control where the connection statistics are kept.
+     * @param rate_limiter      where the rate limiting statistics are kept.
+     * @param content_cache     where the cache statistics are kept.
+     * @param mapped_file_cache where the statistics of the mapped files are kept.
+     * @param buffer_pool       where the occupancy of the buffer pool is kept.
+     * @param log_file          where the number of dropped log records is kept.
+     */
+    public ServerMetrics(AdmissionControl admission_control, RateLimiter rate_limiter, ContentCache content_cache,
+                         MappedFileCache mapped_file_cache, BufferPool buffer_pool, LogFile log_file) {
+        this.admission_control = admission_control;
+        this.rate_limiter = rate_limiter;
+        this.content_cache = content_cache;
+        this.mapped_file_cache = mapped_file_cache;
+        this.buffer_pool = buffer_pool;
+        this.log_file = log_file;
+    }
+
+    /**
+     * Count a request, unknown request codes are counted as NONE.
+     *
+     * @param request_code the request code of the request.
+     */
+    public void countRequest(RequestCode request_code) {
+        requests[request_code.ordinal()].increment();
+    }
+
+    /**
+     * Count a response and the bytes sent for it.
+     *
+     * @param response_code the response code of the response.
+     * @param bytes         the number of bytes of the header and body.
+     */
+    public void countResponse(ResponseCode response_code, long bytes) {
+        responses[response_code.ordinal()].increment();
+        bytes_sent.add(bytes);
+    }
+
+    /**
+     * Record how long a response took, from the complete request head to the response being handed to the socket
+     * (or to the event loop's write buffer).
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    public void recordResponseTime(long nanos) {
+        response_time.record(nanos);
+    }
+
+    /**
+     * Record how long it took from accepting a connection until the first byte of the first response went to the socket.
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    public void recordFirstByte(long nanos) {
+        first_byte.record(nanos);
+    }
+
+    /**
+     * Tell where the number of accepted connections waiting for a worker or an event loop can be read from, depending on the engine.
+     *
+     * @param queue_depth the gauge of the accept queue.
+     */
+    public void setQueueDepth(IntSupplier queue_depth) {
+        this.queue_depth = queue_depth;
+    }
+
+    /**
+     * Get the number of accepted connections waiting for a worker or an event loop right now.
+     *
+     * @return the depth of the accept queue.
+     */
+    public int getQueueDepth() {
+        return queue_depth.getAsInt();
+    }
+
+    /**
+     * Tell which acceptors the accepted connections are counted by.
+     *
+     * @param acceptors the acceptors of the engine.
+     */
+    public void setAcceptors(Acceptor[] acceptors) {
+        this.acceptors = acceptors;
+    }
+
+    /**
+     * Render all metrics in the Prometheus text exposition format (version 0.0.4).
+     * <p>
+     * The page is written as it is rendered, so it can be streamed to the client in chunks without being assembled first.
+     *
+     * @param page where to render to.
+     */
+    public void render(PrintWriter page) {
+        header(page, "webserver_requests_total", "counter", "Requests received, by request code.");
+        for (RequestCode e : RequestCode.values()) {
+            page.print("webserver_requests_total{method=\"");
+            page.print(e == RequestCode.NONE ? "other" : e.toString());
+            page.print("\"} ");
+            page.print(requests[e.ordinal()].sum());
+            page.print('\n');
+        }
+
+        header(page, "webserver_responses_total", "counter", "Responses sent, by response code.");
+        for (ResponseCode e : ResponseCode.values()) {
+            page.print("webserver_responses_total{code=\"");
+            page.print(e.toString().substring(0, 3));
+            page.print("\"} ");
+            page.print(responses[e.ordinal()].sum());
+            page.print('\n');
+        }
+
+        sample(page, "webserver_sent_bytes_total", "counter", "Bytes of response headers and bodies sent.", bytes_sent.sum());
+        sample(page, "webserver_active_connections", "gauge", "Connections being served.", admission_control.getCurrent());
+        sample(page, "webserver_peak_connections", "gauge", "Most connections served at the same time.", admission_control.getPeak());
+        sample(page, "webserver_admitted_connections_total", "counter", "Connections admitted.", admission_control.getAdmitted());
+        sample(page, "webserver_rejected_connections_total", "counter", "Connections turned away with 503.", admission_control.getRejected());
+        sample(page, "webserver_rate_limited_connections_total", "counter", "Connections turned away with 429 by the per-client rate limit.",
+                rate_limiter.getLimited());
+        sample(page, "webserver_rate_limited_clients", "gauge", "Clients whose token buckets the rate limiter keeps.", rate_limiter.getClients());
+        header(page, "webserver_accepted_connections_total", "counter", "Connections accepted, by acceptor (the accept rate is its rate()).");
+        for (Acceptor acceptor : acceptors) {
+            page.print("webserver_accepted_connections_total{acceptor=\"");
+            page.print(acceptor.getId());
+            page.print("\"} ");
+            page.print(acceptor.getAccepted());
+            page.print('\n');
+        }
+        sample(page, "webserver_accept_queue_depth", "gauge", "Accepted connections waiting for a worker or an event loop.", queue_depth.getAsInt());
+        sample(page, "webserver_cache_hits_total", "counter", "Content cache hits.", content_cache.getHits());
+        sample(page, "webserver_cache_misses_total", "counter", "Content cache misses.", content_cache.getMisses());
+        sample(page, "webserver_cache_evictions_total", "counter", "Content cache evictions.", content_cache.getEvictions());
+        sample(page, "webserver_cache_bytes", "gauge", "Bytes held by the content cache.", content_cache.getCurBytes());
+        sample(page, "webserver_mapped_hits_total", "counter", "Responses sent from an existing file mapping.", mapped_file_cache.getHits());
+        sample(page, "webserver_mapped_maps_total", "counter", "Files mapped into memory.", mapped_file_cache.getMaps());
+        sample(page, "webserver_mapped_files", "gauge", "Files held mapped by the mapped file cache.", mapped_file_cache.getNumFiles());
+        sample(page, "webserver_mapped_bytes", "gauge", "Bytes of files held mapped by the mapped file cache.", mapped_file_cache.getCurBytes());
+
+        header(page, "webserver_buffer_pool_idle_buffers", "gauge", "Direct buffers waiting in the buffer pool, by size class.");
+        int[] size_classes = BufferPool.getSizeClasses();
+        for (int i = 0; i < size_classes.length; i++) {
+            page.print("webserver_buffer_pool_idle_buffers{size=\"");
+            page.print(size_classes[i]);
+            page.print("\"} ");
+            page.print(buffer_pool.getIdle(i));
+            page.print('\n');
+        }
+        sample(page, "webserver_buffer_pool_leased_buffers", "gauge", "Direct buffers taken from the buffer pool and not given back yet.",
+                buffer_pool.getLeased());
+        sample(page, "webserver_buffer_pool_allocated_total", "counter", "Direct buffers allocated because the pool had none idle.",
+                buffer_pool.getAllocated());
+        sample(page, "webserver_buffer_pool_leaks_total", "counter", "Direct buffers lost without being given back (leak detection only).",
+                buffer_pool.getLeaks());
+        sample(page, "webserver_log_dropped_records_total", "counter", "Log records dropped because the log buffer was full.", log_file.getDropped());
+
+        histogram(page, "webserver_first_byte_seconds", "Time from accepting a connection to the first byte of its first response.", first_byte);
+        histogram(page, "webserver_response_seconds", "Time from a complete request head to its response being handed to the socket.", response_time);
+    }
+
+    private static void header(PrintWriter page, String name, String type, String help) {
+        page.print("# HELP " + name + ' ' + help + '\n');
+        page.print("# TYPE " + name + ' ' + type + '\n');
+    }
+
+    private static void sample(PrintWriter page, String name, String type, String help, long value) {
+        header(page, name, type, help);
+        page.print(name + ' ' + value + '\n');
+    }
+
+    /**
+     * Render a histogram with cumulative buckets from 100 microseconds to 10 seconds.
+     *
+     * @param page      where to render to.
+     * @param name      the name of the metric.
+     * @param help      the description of the metric.
+     * @param histogram the recorded latencies.
+     */
+    private static void histogram(PrintWriter page, String name, String help, LatencyHistogram histogram) {
+        long count = histogram.getCount();
+
+        header(page, name, "histogram", help);
+        for (int i = 0; i < BUCKET_BOUNDS_NANOS.length; i++) {
+            page.print(name + "_bucket{le=\"" + BUCKET_LABELS[i] + "\"} "
+                    + Math.min(count, histogram.getCountAtOrBelow(BUCKET_BOUNDS_NANOS[i])) + '\n');
+        }
+        page.print(name + "_bucket{le=\"+Inf\"} " + count + '\n');
+        page.print(name + "_sum " + histogram.getSum() / NANOS_PER_SECOND + '\n');
+        page.print(name + "_count " + count + '\n');
+    }
+
+    private static LongAdder[] newCounters(int size) {
+        LongAdder[] counters = new LongAdder[size];
+
+        for (int i = 0; i < size; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+}
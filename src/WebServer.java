@@ -1,72 +1,442 @@
+import constants.SaturationPolicy;
+
 import java.io.IOException;
 
-import java.net.ServerSocket;
+import java.lang.management.ManagementFactory;
 import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 
 /**
  * As the name suggests, this is the server class whose responsibility is to serve requests from clients.
  * Extension: the server is able to support multiple concurrent client connection requests up to a specified limit.
+ * Extension: the server is started and stopped explicitly (or by the JVM's shutdown hook), drains its connections before it stops,
+ * and can swap its document root while it is running; both controls are also exported over JMX (see WebServerMBean).
  * <p>
  * original source: https://studres.cs.st-andrews.ac.uk/CS5001/Examples/L07-10_IO_and_Networking/CS5001_ClientServerExample/src/Server.java.
  */
-public class WebServer {
-    private static int num_cur_clients = 0;
+public class WebServer implements WebServerMBean {
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+    private static final long DRAIN_POLL_MILLIS = 50;
+    private static final long FORCE_WAIT_MILLIS = 1000;
+
+    private ServerConfig config;
+    private ServerContext context;
+    private ExecutorService workers;
+    private EventLoopServer event_loop_server;
+    private Acceptor[] acceptors = new Acceptor[0];
+    private Thread shutdown_hook;
+    private CountDownLatch stopped = new CountDownLatch(1);
 
     /**
-     * Update the number of current client connection requests which the server can serve.
+     * Create the server with the default dispatch settings, see ServerConfig.
      *
-     * @param num the number of the current client connection requests.
+     * @param document_root path where the server serves a requested file to a client.
+     * @param port          socket port which the server will be listening to.
+     * @param log_path      the path which log uses to track information of the requests into a file.
+     * @param max_clients   the maximum number of client connection requests which server can serve at the time.
      */
-    public static void setNumCurClients(int num) {
-        num_cur_clients = num;
+    public WebServer(String document_root, int port, String log_path, int max_clients) {
+        this(new ServerConfig(document_root, port, log_path, max_clients));
     }
 
     /**
-     * Get the number of current client connection requests which the server can serve.
+     * Create the server with the engine chosen in the settings, so that both engines can be compared on the same document root.
+     * Extension: The server does not serve before it is started, see serve() or start().
      *
-     * @return the number of the current client connection requests.
+     * @param config the settings of the server.
      */
-    public static int getNumCurClients() {
-        return num_cur_clients;
+    public WebServer(ServerConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Start the server and serve until it has been stopped, e.g. by the shutdown hook or over JMX.
+     */
+    public void serve() {
+        try {
+            start();
+            await();
+        } catch (IOException ioe) {
+            Logger.getLogger(WebServer.class.getName()).severe("Ooops " + ioe.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Extension: Start the engine chosen in the settings and return as soon as the server accepts connections.
+     * The server exports its statistics and controls over JMX, and stops gracefully within the shutdown timeout when the JVM shuts down,
+     * e.g. on SIGTERM, after which it closes the log itself.
+     *
+     * @throws IOException is thrown in case the server socket fails, e.g. the port is taken.
+     */
+    public synchronized void start() throws IOException {
+        if (context != null) {
+            throw new IllegalStateException("THE SERVER HAS BEEN STARTED ALREADY");
+        }
+        context = new ServerContext(config, new LogFile(config));
+
+        try {
+            switch (config.getEngine()) {
+                case NIO:
+                    event_loop_server = new EventLoopServer(config, context);
+                    acceptors = event_loop_server.start();
+                    break;
+                case BLOCKING:
+                default:
+                    acceptors = startBlocking(config, context);
+            }
+        } catch (IOException ioe) {
+            if (workers != null) {
+                workers.shutdown();
+            }
+            context.close();
+            throw ioe;
+        }
+        exportStatistics(getPort(), context, this);
+
+        context.getLogFile().keepOpenOnShutdown();
+        shutdown_hook = new Thread(() -> stop(config.getShutdownTimeout()), "shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdown_hook);
+    }
+
+    /**
+     * Extension: Stop the server gracefully.
+     * 1. Close the listening sockets, so that new clients are refused.
+     * 2. Drain the connections: requests in flight are answered with Connection: close, and connections which wait for their next request are closed.
+     * 3. Once every connection has been closed, or the timeout has expired, close the connections left regardless and stop the threads.
+     * 4. Release the caches and the directory watcher, and write out and close the log.
+     * Stopping a server which has not been started or has been stopped before does nothing.
+     *
+     * @param timeout_millis how long the connections may take to finish their requests in flight before they are closed regardless.
+     * @return true if every connection finished in time.
+     */
+    @Override
+    public synchronized boolean stop(long timeout_millis) {
+        if (context == null || stopped.getCount() == 0) {
+            return true;
+        }
+        LogFile logFile = context.getLogFile();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeout_millis));
+        boolean drained = false;
+
+        logFile.logInfo("WebServer stopping ... draining " + context.getAdmissionControl().getCurrent() + " connections ...");
+        for (Acceptor acceptor : acceptors) {
+            acceptor.close();
+        }
+        context.startDraining();
+        if (event_loop_server != null) {
+            event_loop_server.drain();
+        }
+
+        try {
+            while (!(drained = context.getAdmissionControl().getCurrent() == 0) && System.nanoTime() < deadline) {
+                Thread.sleep(DRAIN_POLL_MILLIS);
+            }
+            if (!drained) {
+                logFile.logWarning("WebServer: " + context.getAdmissionControl().getCurrent()
+                        + " CONNECTIONS HAVE NOT FINISHED IN TIME AND ARE CLOSED");
+            }
+
+            for (Acceptor acceptor : acceptors) {
+                acceptor.interrupt();
+                acceptor.join(FORCE_WAIT_MILLIS);
+            }
+            if (workers != null) {
+                for (Runnable never_run : workers.shutdownNow()) { // the running handlers are interrupted, which closes their channels
+                    ((ConnectionHandler) never_run).reject();
+                }
+                workers.awaitTermination(FORCE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            if (event_loop_server != null) {
+                event_loop_server.stop(FORCE_WAIT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        unexportStatistics(getPort(), context);
+        logFile.logInfo("WebServer stopped ... on port " + getPort() + " ...");
+        context.close();
+
+        if (Thread.currentThread() != shutdown_hook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdown_hook);
+            } catch (IllegalStateException e) {
+                // the shutdown has begun already, and the hook finds the server stopped
+            }
+        }
+        stopped.countDown();
+        return drained;
+    }
+
+    /**
+     * Wait until the server has been stopped.
+     *
+     * @throws InterruptedException is thrown in case the wait is interrupted.
+     */
+    public void await() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Get the port which the server listens on: once started, the one it has bound, so that a server configured with port 0
+     * (e.g. in benchmarks) tells which ephemeral port it got; before that, the configured one.
+     *
+     * @return the port.
+     */
+    public int getPort() {
+        Acceptor[] started = acceptors;
+        return started.length > 0 ? started[0].getPort() : config.getPort();
+    }
+
+    @Override
+    public String getDocumentRoot() {
+        ServerContext started = context;
+        return started != null ? started.getDocumentRoot() : config.getDocumentRoot();
+    }
+
+    /**
+     * Extension: Serve documents from another directory from now on, without restarting the server, see ServerContext.swapDocumentRoot().
+     *
+     * @param document_root the directory to serve documents from.
+     * @throws IOException is thrown in case the directory does not exist.
+     */
+    @Override
+    public void swapDocumentRoot(String document_root) throws IOException {
+        ServerContext started = context;
+        if (started == null) {
+            throw new IllegalStateException("THE SERVER HAS NOT BEEN STARTED");
+        }
+        started.swapDocumentRoot(document_root);
+    }
+
+    @Override
+    public boolean isDraining() {
+        ServerContext started = context;
+        return started != null && started.isDraining();
     }
 
     /**
      * 1. The server listen for client connection requests on on a specified port and wait until client requests a connection, then returns connection (socket).
-     * 2. Create new handler for this connection (as a new thread to support multiple concurrent client connection request).
-     * 3. Start handler thread.
+     * 2. Create new handler for this connection.
+     * 3. Dispatch the handler, either to a new thread or to the worker pool (to support multiple concurrent client connection request).
+     * Extension: connections are accepted by the configured number of Acceptor threads, which set the TCP options of every connection.
      * <p>
      * Once the server has responded,
      * it will flush and close the connection to the client and listen for further requests since, according to the requirement,
      * the server is not require to keep connections alive.
      *
-     * @param document_root   path where the server serves a requested file to a client.
-     * @param port            socket port which the server will be listening to.
-     * @param log_path        the path which log uses to track information of the requests into a file.
-     * @param max_clients the maximum number of client connection requests which server can serve at the time.
+     * @param config  the settings of the server.
+     * @param context what the handlers of all connections share, i.e. the document root, the log file and the caches.
+     * @return the acceptors, which have been started.
+     * @throws IOException is thrown in case the server socket fails.
      */
-    public WebServer(String document_root, int port, String log_path, int max_clients) {
-        ServerSocket sever_socket;
-        LogFile logFile;
+    private Acceptor[] startBlocking(ServerConfig config, ServerContext context) throws IOException {
+        LogFile logFile = context.getLogFile();
+
+        workers = createWorkers(config, logFile);
+        if (workers instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) workers;
+            context.getMetrics().setQueueDepth(() -> pool.getQueue().size());
+        }
 
+        Acceptor[] acceptors = Acceptor.open(config, channel -> {
+            Socket conn = channel.socket(); // the socket of an accepted channel has the channel to send files to
+            long limited_nanos = context.getRateLimiter().tryAcquire(conn.getInetAddress());
+
+            if (limited_nanos > 0) {
+                turnAway(conn, context, limited_nanos);
+            } else if (context.getAdmissionControl().tryAdmit()) {
+                workers.execute(new ConnectionHandler(conn, context));
+            } else {
+                turnAway(conn, context, 0);
+            }
+        }, logFile);
+        context.getMetrics().setAcceptors(acceptors);
+        logFile.logInfo("WebServer started ... listening on port " + acceptors[0].getPort()
+                + " ... dispatching " + config.getDispatchMode() + " ...");
+        for (Acceptor acceptor : acceptors) {
+            acceptor.start();
+        }
+        return acceptors;
+    }
+
+    /**
+     * Extension: Answer a client which cannot be admitted with 503 Service Unavailable, or a client which is over its rate limit
+     * with 429 Too Many Requests, and close the connection, without reading its request.
+     * This happens on the accepting thread, which the short response does not hold up since it fits into the socket's send buffer.
+     *
+     * @param conn          the accepted connection.
+     * @param context       what the handlers of all connections share, i.e. the document root, the log file and the caches.
+     * @param limited_nanos how long the client has to wait for its rate limit, 0 if the server is full instead.
+     */
+    private static void turnAway(Socket conn, ServerContext context, long limited_nanos) {
+        try (Socket rejected = conn) {
+            Responder responder = new Responder(rejected.getOutputStream(), null, rejected.getInetAddress(), context);
+            if (limited_nanos > 0) {
+                responder.respondTooManyRequests(limited_nanos);
+            } else {
+                responder.respondServiceUnavailable();
+            }
+            rejected.shutdownOutput();
+            rejected.getInputStream().skip(rejected.getInputStream().available()); // unread request bytes would reset the connection on close
+        } catch (IOException ioe) {
+            context.getLogFile().logInfo("WebServer:turnAway " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Extension: Register the admission statistics and the controls of the server with the platform MBean server,
+     * so that they can be watched and used with any JMX client.
+     * Servers on different ports in the same JVM (e.g. in benchmarks) get different names.
+     *
+     * @param port    the port which the server listens on.
+     * @param context what the handlers of all connections share.
+     * @param server  the server's controls.
+     */
+    private static void exportStatistics(int port, ServerContext context, WebServerMBean server) {
         try {
-            logFile = new LogFile(log_path);
-
-            sever_socket = new ServerSocket(port);
-            logFile.logInfo("WebServer started ... listening on port " + port + " ...");
-            while (true) {
-                Socket conn = sever_socket.accept();
-                logFile.logInfo("WebServer got new connection request from " + conn.getInetAddress());
-
-                if (num_cur_clients < max_clients) {
-                    setNumCurClients(getNumCurClients() + 1);
-                    new ConnectionHandler(conn, document_root, logFile).start();
-                } else {
-                    logFile.logWarning("The number of the client connection requests is exceeding now!!");
+            MBeanServer mbean_server = ManagementFactory.getPlatformMBeanServer();
+            mbean_server.registerMBean(context.getAdmissionControl(), admissionName(port));
+            mbean_server.registerMBean(server, serverName(port));
+        } catch (JMException e) {
+            context.getLogFile().logWarning("Admission statistics cannot be exported: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Extension: Unregister what exportStatistics() has registered, so that another server can be started on the same port in the same JVM.
+     *
+     * @param port    the port which the server listens on.
+     * @param context what the handlers of all connections share.
+     */
+    private static void unexportStatistics(int port, ServerContext context) {
+        MBeanServer mbean_server = ManagementFactory.getPlatformMBeanServer();
+
+        for (ObjectName name : new ObjectName[]{admissionName(port), serverName(port)}) {
+            try {
+                if (mbean_server.isRegistered(name)) {
+                    mbean_server.unregisterMBean(name);
                 }
+            } catch (JMException e) {
+                context.getLogFile().logWarning("Statistics cannot be unexported: " + e.getMessage());
             }
-        } catch (IOException ioe) {
-            Logger.getLogger(WebServer.class.getName()).severe("Ooops " + ioe.getMessage());
+        }
+    }
+
+    private static ObjectName admissionName(int port) {
+        return objectName("WebServer:type=AdmissionControl,port=" + port);
+    }
+
+    private static ObjectName serverName(int port) {
+        return objectName("WebServer:type=Server,port=" + port);
+    }
+
+    private static ObjectName objectName(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Extension: Create the worker pool which accepted connections are queued for.
+     * The queue is bounded by the configured depth and once it is full the configured saturation policy decides what to do with the connection.
+     * In virtual mode there is no queue at all: every connection gets a cheap virtual thread of its own and max_clients is the only limit.
+     * In thread mode the pool hands every connection straight to a new thread, which ends with the connection,
+     * so that the server can interrupt the threads left when it stops.
+     *
+     * @param config  the settings of the server.
+     * @param logFile used to warn that virtual threads are not available.
+     * @return the worker pool.
+     */
+    private static ExecutorService createWorkers(ServerConfig config, LogFile logFile) {
+        ThreadPoolExecutor pool;
+
+        switch (config.getDispatchMode()) {
+            case VIRTUAL:
+                return createVirtualThreadExecutor(logFile);
+            case FIXED:
+                pool = new ThreadPoolExecutor(config.getPoolSize(), config.getPoolSize(),
+                        0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(config.getQueueDepth()));
+                break;
+            case ELASTIC:
+                pool = new ThreadPoolExecutor(config.getPoolSize(), config.getMaxPoolSize(),
+                        WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new ArrayBlockingQueue<>(config.getQueueDepth()));
+                pool.allowCoreThreadTimeOut(true);
+                break;
+            default:
+                return createThreadPerTaskExecutor();
+        }
+
+        pool.setRejectedExecutionHandler(createSaturationHandler(config.getSaturationPolicy()));
+        pool.prestartCoreThread();
+
+        return pool;
+    }
+
+    /**
+     * Extension: Create an executor which starts a new virtual thread for every task.
+     * It is looked up reflectively so that the server still compiles and runs on Java runtimes which predate virtual threads,
+     * in which case the server falls back to a platform thread per connection.
+     *
+     * @param logFile used to warn that virtual threads are not available.
+     * @return the virtual-thread-per-task executor, or a platform-thread-per-task one if the runtime does not have virtual threads.
+     */
+    private static ExecutorService createVirtualThreadExecutor(LogFile logFile) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logFile.logWarning("Virtual threads are not supported by this Java runtime, falling back to a thread per connection");
+            return createThreadPerTaskExecutor();
+        }
+    }
+
+    /**
+     * Extension: Create an executor which starts a new platform thread for every task, and keeps none of them once the task is done.
+     *
+     * @return the executor.
+     */
+    private static ExecutorService createThreadPerTaskExecutor() {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+    }
+
+    /**
+     * Extension: Decide what happens to a connection which cannot be queued.
+     *
+     * @param policy the configured saturation policy.
+     * @return handler which the worker pool calls when the queue is full.
+     */
+    private static RejectedExecutionHandler createSaturationHandler(SaturationPolicy policy) {
+        switch (policy) {
+            case BLOCK:
+                return (task, pool) -> {
+                    try {
+                        pool.getQueue().put(task);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        ((ConnectionHandler) task).reject();
+                    }
+                };
+            case CALLER_RUNS:
+                return new ThreadPoolExecutor.CallerRunsPolicy();
+            case REJECT:
+            default:
+                return (task, pool) -> ((ConnectionHandler) task).reject();
         }
     }
 }
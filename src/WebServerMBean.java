@@ -0,0 +1,32 @@
+import java.io.IOException;
+
+/**
+ * Extension: The controls of a running server which it exports over JMX, see WebServer.
+ */
+public interface WebServerMBean {
+    /**
+     * @return the directory from which documents are served right now.
+     */
+    String getDocumentRoot();
+
+    /**
+     * Serve documents from another directory from now on, without restarting the server, see ServerContext.swapDocumentRoot().
+     *
+     * @param document_root the directory to serve documents from.
+     * @throws IOException is thrown in case the directory does not exist.
+     */
+    void swapDocumentRoot(String document_root) throws IOException;
+
+    /**
+     * @return true once the server is closing its connections to stop.
+     */
+    boolean isDraining();
+
+    /**
+     * Stop the server gracefully, see WebServer.stop().
+     *
+     * @param timeout_millis how long the connections may take to finish their requests in flight before they are closed regardless.
+     * @return true if every connection finished in time.
+     */
+    boolean stop(long timeout_millis);
+}
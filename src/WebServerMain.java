@@ -23,7 +23,7 @@ public class WebServerMain {
      */
     public static void main(String[] args) {
         try {
-            new WebServer(args[FIRST], Integer.parseInt(args[SECOND]), DEFAULT_LOG_FILE, DEFAULT_MAX_CLIENTS);
+            new WebServer(args[FIRST], Integer.parseInt(args[SECOND]), DEFAULT_LOG_FILE, DEFAULT_MAX_CLIENTS).serve();
         } catch (Exception e) {
             System.out.println("Usage: java WebServerMain <document_root> <port>");
         }
@@ -0,0 +1,126 @@
+package constants;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Extension: This is a set of predefined constants of the content codings with which the server may send a compressible file.
+ */
+public enum ContentEncoding {
+    /**
+     * Brotli, only ever sent from a precompressed .br sibling of the file, since the JDK has no encoder for it.
+     */
+    BROTLI("br", ".br", false),
+
+    /**
+     * gzip, sent from a precompressed .gz sibling of the file or compressed by the server.
+     */
+    GZIP("gzip", ".gz", true),
+
+    /**
+     * used in convert() when there is nothing to be return.
+     */
+    NONE("", "", false);
+
+    /**
+     * The codings in the order in which the server prefers them, i.e. the one which compresses best first.
+     */
+    public static final ContentEncoding[] PREFERENCE = {BROTLI, GZIP};
+
+    private String encoding;
+    private String extension;
+    private boolean encodable;
+    private byte[] content_encoding_field;
+
+    ContentEncoding(String encoding, String extension, boolean encodable) {
+        this.encoding = encoding;
+        this.extension = extension;
+        this.encodable = encodable;
+        this.content_encoding_field = ("Content-Encoding: " + encoding + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return encoding;
+    }
+
+    /**
+     * Get the extension of the precompressed sibling of a file, e.g. index.html.gz for index.html.
+     *
+     * @return the extension including the dot.
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Check whether the server can compress a file with this coding itself, rather than only serving a precompressed sibling.
+     *
+     * @return true if the server has an encoder.
+     */
+    public boolean isEncodable() {
+        return encodable;
+    }
+
+    /**
+     * Get the Content-Encoding field of a response with this coding, encoded once when the class is loaded.
+     * The array is shared, so it must not be modified.
+     *
+     * @return the header field including the trailing <CR><LF>.
+     */
+    public byte[] getContentEncodingField() {
+        return content_encoding_field;
+    }
+
+    /**
+     * Check whether the client accepts this coding according to its Accept-Encoding header field, e.g. "gzip, deflate, br;q=0".
+     * A coding is accepted if it is listed, or "*" is, with a quality above 0.
+     *
+     * @param accept_encoding the Accept-Encoding header field.
+     * @return true if the coding may be sent.
+     */
+    public boolean isAcceptedBy(String accept_encoding) {
+        boolean wildcard = false;
+
+        for (String item : accept_encoding.split(",")) {
+            int semicolon = item.indexOf(';');
+            String name = (semicolon < 0 ? item : item.substring(0, semicolon)).trim();
+            boolean accepted = semicolon < 0 || getQuality(item.substring(semicolon + 1)) > 0;
+
+            if (name.equalsIgnoreCase(encoding)) {
+                return accepted;
+            } else if (name.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+        return wildcard;
+    }
+
+    private static double getQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String p = parameter.trim();
+            if (p.startsWith("q=") || p.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(p.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * To be able to handle with switch case, this method converts a type of the string from String to Enum.
+     *
+     * @param code string-type value.
+     * @return Enum-type value.
+     */
+    public static ContentEncoding convert(String code) {
+        for (ContentEncoding e : ContentEncoding.values()) {
+            if (e.toString().equals(code)) {
+                return e;
+            }
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,53 @@
+package constants;
+
+/**
+ * This is a set of predefined constants of the ways the server can hand an accepted connection over to its handler.
+ */
+public enum DispatchMode {
+    /**
+     * a brand new platform thread is started for every accepted connection.
+     */
+    THREAD("thread"),
+    /**
+     * connections are queued for a fixed number of worker threads.
+     */
+    FIXED("fixed"),
+    /**
+     * connections are queued for a worker pool which grows up to a maximum size under load and shrinks back when idle.
+     */
+    ELASTIC("elastic"),
+    /**
+     * a new virtual thread is started for every accepted connection (needs a Java runtime which has virtual threads).
+     */
+    VIRTUAL("virtual"),
+    /**
+     * used in convert() when there is nothing to be return.
+     */
+    NONE("");
+
+    private String mode;
+
+    DispatchMode(String mode) {
+        this.mode = mode;
+    }
+
+    @Override
+    public String toString() {
+        return mode;
+    }
+
+    /**
+     * To be able to handle with switch case, this method converts a type of the string from String to Enum.
+     *
+     * @param mode string-type value.
+     * @return Enum-type value.
+     */
+    public static DispatchMode convert(String mode) {
+        for (DispatchMode e : DispatchMode.values()) {
+            if (e.toString().equals(mode)) {
+                return e;
+            }
+        }
+        return NONE;
+    }
+}
@@ -1,5 +1,7 @@
 package constants;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * This is a set of predefined constants of the resource extensions for the HTML content-type field.
  */
@@ -7,32 +9,38 @@ public enum FileType {
     /**
      * HTML format.
      */
-    HTML("html"),
+    HTML("html", "text/html", true),
 
     /**
      * GIF image format.
      */
-    GIF("gif"),
+    GIF("gif", "gif", false),
 
     /**
      * JPEG image format.
      */
-    JPEG("jpg"),
+    JPEG("jpg", "jpg", false),
 
     /**
      * PNG image format.
      */
-    PNG("png"),
+    PNG("png", "png", false),
 
     /**
      * used in convert() when there is nothing to be return.
      */
-    NONE("");
+    NONE("", "", false);
+
+    private static final FileType[] VALUES = values(); // values() clones the array on every call
 
     private String type;
+    private byte[] content_type_field;
+    private boolean compressible;
 
-    FileType(String type) {
+    FileType(String type, String content_type, boolean compressible) {
         this.type = type;
+        this.compressible = compressible;
+        this.content_type_field = ("Content-Type: " + content_type + "\r\n").getBytes(StandardCharsets.US_ASCII);
     }
 
     @Override
@@ -40,6 +48,25 @@ public enum FileType {
         return type;
     }
 
+    /**
+     * Extension: Get the Content-Type field of a response with this type of file, encoded once when the class is loaded.
+     * The array is shared, so it must not be modified.
+     *
+     * @return the header field including the trailing <CR><LF>.
+     */
+    public byte[] getContentTypeField() {
+        return content_type_field;
+    }
+
+    /**
+     * Extension: Check whether files of this type are worth compressing, which images, being compressed already, are not.
+     *
+     * @return true if the type is text.
+     */
+    public boolean isCompressible() {
+        return compressible;
+    }
+
     /**
      * To be able to handle with switch case, this method converts a type of the string from String to Enum.
      *
@@ -47,7 +74,7 @@ public enum FileType {
      * @return Enum-type value.
      */
     public static FileType convert(String code) {
-        for (FileType e : FileType.values()) {
+        for (FileType e : VALUES) {
             if (e.toString().equals(code)) {
                 return e;
             }
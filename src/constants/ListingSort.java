@@ -0,0 +1,49 @@
+package constants;
+
+/**
+ * Extension: This is a set of predefined constants of the columns a directory listing can be sorted by.
+ */
+public enum ListingSort {
+    /**
+     * by the name of the entry.
+     */
+    NAME("name"),
+    /**
+     * by the size of the entry, then by name.
+     */
+    SIZE("size"),
+    /**
+     * by the modification time of the entry, then by name.
+     */
+    MODIFIED("modified"),
+    /**
+     * used in convert() when there is nothing to be return.
+     */
+    NONE("");
+
+    private String column;
+
+    ListingSort(String column) {
+        this.column = column;
+    }
+
+    @Override
+    public String toString() {
+        return column;
+    }
+
+    /**
+     * To be able to handle with switch case, this method converts a type of the string from String to Enum.
+     *
+     * @param column string-type value.
+     * @return Enum-type value.
+     */
+    public static ListingSort convert(String column) {
+        for (ListingSort e : ListingSort.values()) {
+            if (e.toString().equals(column)) {
+                return e;
+            }
+        }
+        return NONE;
+    }
+}
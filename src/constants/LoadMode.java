@@ -0,0 +1,45 @@
+package constants;
+
+/**
+ * This is a set of predefined constants of the ways the load generator paces its requests.
+ */
+public enum LoadMode {
+    /**
+     * every connection sends its next request as soon as the response to the previous one has arrived.
+     */
+    CLOSED("closed"),
+    /**
+     * requests are sent on a fixed schedule at the target rate, whether or not the server keeps up.
+     */
+    OPEN("open"),
+    /**
+     * used in convert() when there is nothing to be return.
+     */
+    NONE("");
+
+    private String mode;
+
+    LoadMode(String mode) {
+        this.mode = mode;
+    }
+
+    @Override
+    public String toString() {
+        return mode;
+    }
+
+    /**
+     * To be able to handle with switch case, this method converts a type of the string from String to Enum.
+     *
+     * @param mode string-type value.
+     * @return Enum-type value.
+     */
+    public static LoadMode convert(String mode) {
+        for (LoadMode e : LoadMode.values()) {
+            if (e.toString().equals(mode)) {
+                return e;
+            }
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,45 @@
+package constants;
+
+/**
+ * This is a set of predefined constants of the formats the log file can be written in.
+ */
+public enum LogFormat {
+    /**
+     * one line of text per record: date/time, level and message.
+     */
+    PLAIN("plain"),
+    /**
+     * compact binary records, see LogFile for the layout.
+     */
+    BINARY("binary"),
+    /**
+     * used in convert() when there is nothing to be return.
+     */
+    NONE("");
+
+    private String format;
+
+    LogFormat(String format) {
+        this.format = format;
+    }
+
+    @Override
+    public String toString() {
+        return format;
+    }
+
+    /**
+     * To be able to handle with switch case, this method converts a type of the string from String to Enum.
+     *
+     * @param format string-type value.
+     * @return Enum-type value.
+     */
+    public static LogFormat convert(String format) {
+        for (LogFormat e : LogFormat.values()) {
+            if (e.toString().equals(format)) {
+                return e;
+            }
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,45 @@
+package constants;
+
+/**
+ * This is a set of predefined constants of what a thread does with a log record when the log's buffer is full.
+ */
+public enum LogOverflowPolicy {
+    /**
+     * drop the record and count it, so that logging never holds up a request.
+     */
+    DROP("drop"),
+    /**
+     * wait until the log writer has made room, so that no record is lost.
+     */
+    BLOCK("block"),
+    /**
+     * used in convert() when there is nothing to be return.
+     */
+    NONE("");
+
+    private String policy;
+
+    LogOverflowPolicy(String policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public String toString() {
+        return policy;
+    }
+
+    /**
+     * To be able to handle with switch case, this method converts a type of the string from String to Enum.
+     *
+     * @param policy string-type value.
+     * @return Enum-type value.
+     */
+    public static LogOverflowPolicy convert(String policy) {
+        for (LogOverflowPolicy e : LogOverflowPolicy.values()) {
+            if (e.toString().equals(policy)) {
+                return e;
+            }
+        }
+        return NONE;
+    }
+}
@@ -1,5 +1,7 @@
 package constants;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * This is a set of predefined constants of the HTTP request codes.
  */
@@ -25,10 +27,29 @@ public enum RequestCode {
      */
     NONE("");
 
+    private static final RequestCode[] VALUES = values(); // values() clones the array on every call
+    private static final RequestCode[] BY_LENGTH;
+
+    static {
+        int max_length = 0;
+        for (RequestCode e : VALUES) {
+            max_length = Math.max(max_length, e.code.length());
+        }
+
+        BY_LENGTH = new RequestCode[max_length + 1];
+        for (RequestCode e : VALUES) {
+            if (e != NONE) {
+                BY_LENGTH[e.code.length()] = e;
+            }
+        }
+    }
+
     private String code;
+    private byte[] bytes;
 
     RequestCode(String code) {
         this.code = code;
+        this.bytes = code.getBytes(StandardCharsets.US_ASCII);
     }
 
     @Override
@@ -43,11 +64,34 @@ public enum RequestCode {
      * @return Enum-type value.
      */
     public static RequestCode convert(String code) {
-        for (RequestCode e : RequestCode.values()) {
+        for (RequestCode e : VALUES) {
             if (e.toString().equals(code)) {
                 return e;
             }
         }
         return NONE;
     }
+
+    /**
+     * Extension: Convert a request code straight from the bytes of a request line, without creating a String for it.
+     * The supported codes all differ in length, so the length alone picks the only candidate, which is then compared byte by byte.
+     *
+     * @param buf    the buffer the request line is in.
+     * @param offset where the request code starts.
+     * @param length the length of the request code.
+     * @return Enum-type value.
+     */
+    public static RequestCode convert(byte[] buf, int offset, int length) {
+        RequestCode candidate = length < BY_LENGTH.length ? BY_LENGTH[length] : null;
+
+        if (candidate == null) {
+            return NONE;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buf[offset + i] != candidate.bytes[i]) {
+                return NONE;
+            }
+        }
+        return candidate;
+    }
 }
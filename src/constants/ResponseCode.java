@@ -1,5 +1,7 @@
 package constants;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * This is a set of predefined constants of the HTTP response codes.
  */
@@ -8,19 +10,45 @@ public enum ResponseCode {
      * 200 = OK.
      */
     WORKING_OKAY("200 OK"),
+    /**
+     * 206 = when only the requested ranges of the file are sent.
+     */
+    PARTIAL_CONTENT("206 Partial Content"),
+    /**
+     * 304 = when the client's copy of the file is still up to date, so the file is not sent again.
+     */
+    NOT_MODIFIED("304 Not Modified"),
+    /**
+     * 400 = when the request is malformed, e.g. its request line lacks the target.
+     */
+    BAD_REQUEST("400 Bad Request"),
     /**
      * 404 = File Not Found code.
      */
     NOT_FOUND("404 Not Found"),
+    /**
+     * 416 = when none of the requested ranges lies within the file.
+     */
+    RANGE_NOT_SATISFIABLE("416 Range Not Satisfiable"),
+    /**
+     * 429 = when the client has opened connections faster than the rate limit allows.
+     */
+    TOO_MANY_REQUESTS("429 Too Many Requests"),
     /**
      * 501 = when server does not support the facility required, i.e. request from client.
      */
-    NOT_IMPLEMENTED("501 Not Implemented");
+    NOT_IMPLEMENTED("501 Not Implemented"),
+    /**
+     * 503 = when server is too busy to take on the request, e.g. the pending-connection queue is full.
+     */
+    SERVICE_UNAVAILABLE("503 Service Unavailable");
 
     private String code;
+    private byte[] status_line;
 
     ResponseCode(String code) {
         this.code = code;
+        this.status_line = ("HTTP/1.1 " + code + "\r\n").getBytes(StandardCharsets.US_ASCII);
     }
 
     @Override
@@ -28,6 +56,16 @@ public enum ResponseCode {
         return code;
     }
 
+    /**
+     * Extension: Get the status line of a response with this code, encoded once when the class is loaded.
+     * The array is shared, so it must not be modified.
+     *
+     * @return the status line including the trailing <CR><LF>.
+     */
+    public byte[] getStatusLine() {
+        return status_line;
+    }
+
     /**
      * To be able to handle with switch case, this method converts a type of the string from String to Enum.
      *
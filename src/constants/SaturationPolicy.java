@@ -0,0 +1,49 @@
+package constants;
+
+/**
+ * This is a set of predefined constants of what the server does with a new connection when the pending-connection queue is full.
+ */
+public enum SaturationPolicy {
+    /**
+     * answer the client straight away with 503 Service Unavailable and close the connection.
+     */
+    REJECT("reject"),
+    /**
+     * hold the accept loop until there is room in the queue.
+     */
+    BLOCK("block"),
+    /**
+     * serve the connection on the accepting thread itself.
+     */
+    CALLER_RUNS("caller"),
+    /**
+     * used in convert() when there is nothing to be return.
+     */
+    NONE("");
+
+    private String policy;
+
+    SaturationPolicy(String policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public String toString() {
+        return policy;
+    }
+
+    /**
+     * To be able to handle with switch case, this method converts a type of the string from String to Enum.
+     *
+     * @param policy string-type value.
+     * @return Enum-type value.
+     */
+    public static SaturationPolicy convert(String policy) {
+        for (SaturationPolicy e : SaturationPolicy.values()) {
+            if (e.toString().equals(policy)) {
+                return e;
+            }
+        }
+        return NONE;
+    }
+}
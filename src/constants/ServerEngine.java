@@ -0,0 +1,45 @@
+package constants;
+
+/**
+ * This is a set of predefined constants of the engines the server can run on.
+ */
+public enum ServerEngine {
+    /**
+     * a blocking ServerSocket accept loop where every connection is served by a thread of its own for the whole request.
+     */
+    BLOCKING("blocking"),
+    /**
+     * a non-blocking ServerSocketChannel whose connections are multiplexed over a few Selector event loops.
+     */
+    NIO("nio"),
+    /**
+     * used in convert() when there is nothing to be return.
+     */
+    NONE("");
+
+    private String engine;
+
+    ServerEngine(String engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public String toString() {
+        return engine;
+    }
+
+    /**
+     * To be able to handle with switch case, this method converts a type of the string from String to Enum.
+     *
+     * @param engine string-type value.
+     * @return Enum-type value.
+     */
+    public static ServerEngine convert(String engine) {
+        for (ServerEngine e : ServerEngine.values()) {
+            if (e.toString().equals(engine)) {
+                return e;
+            }
+        }
+        return NONE;
+    }
+}